@@ -48,7 +48,6 @@ import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -180,15 +179,17 @@ public class ActivityPicker extends AlertActivity implements
      * Fill the given list with any activities matching the base {@link Intent}. 
      */
     protected void putIntentItems(Intent baseIntent, List<PickAdapter.Item> items) {
-        PackageManager packageManager = getPackageManager();
-        List<ResolveInfo> list = packageManager.queryIntentActivities(baseIntent,
-                0 /* no flags */);
-        Collections.sort(list, new ResolveInfo.DisplayNameComparator(packageManager));
-        
+        // Already sorted by label, with icons resized, unless packages changed since.
+        List<PickerCatalog.ActivityEntry> list =
+                PickerCatalog.getInstance(this).getActivities(baseIntent);
+
         final int listSize = list.size();
         for (int i = 0; i < listSize; i++) {
-            ResolveInfo resolveInfo = list.get(i);
-            items.add(new PickAdapter.Item(this, packageManager, resolveInfo));
+            PickerCatalog.ActivityEntry entry = list.get(i);
+            PickAdapter.Item item = new PickAdapter.Item(entry.label, entry.getIcon());
+            item.packageName = entry.packageName;
+            item.className = entry.className;
+            items.add(item);
         }
     }
     
@@ -227,6 +228,15 @@ public class ActivityPicker extends AlertActivity implements
                 this.icon = getResizer(context).createIconThumbnail(icon);
             }
 
+            /**
+             * Create a list item from given label and an icon that is already
+             * the size of a list icon.
+             */
+            Item(CharSequence label, Drawable icon) {
+                this.label = label;
+                this.icon = icon;
+            }
+
             /**
              * Create a list item and fill it with details from the given
              * {@link ResolveInfo} object.
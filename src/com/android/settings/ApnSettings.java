@@ -27,6 +27,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -37,9 +38,11 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceGroup;
 import android.preference.PreferenceScreen;
 import android.provider.Telephony;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.BaseAdapter;
 import android.widget.Toast;
 
 import com.android.internal.telephony.Phone;
@@ -48,6 +51,7 @@ import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.TelephonyProperties;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class ApnSettings extends PreferenceActivity implements
         Preference.OnPreferenceChangeListener {
@@ -74,6 +78,10 @@ public class ApnSettings extends PreferenceActivity implements
 
     private static final int DIALOG_RESTORE_DEFAULTAPN = 1001;
 
+    private static final int MSG_RELOAD_APNS = 1;
+    /** Window in which data connection changes are folded into one reload. */
+    private static final long RELOAD_DELAY_MS = 500;
+
     private static final Uri DEFAULTAPN_URI = Uri.parse(RESTORE_CARRIERS_URI);
     private static final Uri PREFERAPN_URI = Uri.parse(PREFERRED_APN_URI);
 
@@ -85,6 +93,18 @@ public class ApnSettings extends PreferenceActivity implements
 
     private String mSelectedKey;
 
+    private LoadApnsTask mLoadTask;
+    private boolean mReloadPending;
+
+    private final Handler mReloadHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_RELOAD_APNS) {
+                fillList();
+            }
+        }
+    };
+
     private IntentFilter mMobileStateFilter;
 
     private final BroadcastReceiver mMobileStateReceiver = new BroadcastReceiver() {
@@ -96,7 +116,7 @@ public class ApnSettings extends PreferenceActivity implements
                 switch (state) {
                 case CONNECTED:
                     if (!mRestoreDefaultApnMode) {
-                        fillList();
+                        scheduleFillList();
                     } else {
                         showDialog(DIALOG_RESTORE_DEFAULTAPN);
                     }
@@ -144,6 +164,7 @@ public class ApnSettings extends PreferenceActivity implements
         super.onPause();
 
         unregisterReceiver(mMobileStateReceiver);
+        mReloadHandler.removeMessages(MSG_RELOAD_APNS);
     }
 
     @Override
@@ -155,54 +176,153 @@ public class ApnSettings extends PreferenceActivity implements
         }
     }
 
+    /**
+     * Reloads the list soon. Data connection broadcasts can arrive in bursts while the
+     * connection flaps, so repeated requests within RELOAD_DELAY_MS share one query.
+     */
+    private void scheduleFillList() {
+        if (!mReloadHandler.hasMessages(MSG_RELOAD_APNS)) {
+            mReloadHandler.sendEmptyMessageDelayed(MSG_RELOAD_APNS, RELOAD_DELAY_MS);
+        }
+    }
+
     private void fillList() {
-        String where = "numeric=\""
+        mReloadHandler.removeMessages(MSG_RELOAD_APNS);
+        if (mLoadTask != null) {
+            // Only one query at a time; run again once the current one lands.
+            mReloadPending = true;
+            return;
+        }
+        final String where = "numeric=\""
             + android.os.SystemProperties.get(TelephonyProperties.PROPERTY_ICC_OPERATOR_NUMERIC, "")
             + "\"";
+        mLoadTask = new LoadApnsTask(where);
+        mLoadTask.execute();
+    }
 
-        Cursor cursor = getContentResolver().query(Telephony.Carriers.CONTENT_URI, new String[] {
-                "_id", "name", "apn", "type"}, where, null,
-                Telephony.Carriers.DEFAULT_SORT_ORDER);
+    /** One row of the carriers table, as shown in the list. */
+    private static final class ApnEntry {
+        final String key;
+        final String name;
+        final String apn;
+        final boolean selectable;
+
+        ApnEntry(String key, String name, String apn, String type) {
+            this.key = key;
+            this.name = name;
+            this.apn = apn;
+            this.selectable = ((type == null) || !type.equals("mms"));
+        }
+    }
 
-        if (cursor != null) {
-            PreferenceGroup apnList = (PreferenceGroup) findPreference("apn_list");
-            apnList.removeAll();
+    private final class LoadApnsTask extends AsyncTask<Void, Void, ArrayList<ApnEntry>> {
+        private final String mWhere;
+        private String mPreferredKey;
 
-            ArrayList<Preference> mmsApnList = new ArrayList<Preference>();
+        LoadApnsTask(String where) {
+            mWhere = where;
+        }
 
-            mSelectedKey = getSelectedApnKey();
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                String name = cursor.getString(NAME_INDEX);
-                String apn = cursor.getString(APN_INDEX);
-                String key = cursor.getString(ID_INDEX);
-                String type = cursor.getString(TYPES_INDEX);
+        @Override
+        protected ArrayList<ApnEntry> doInBackground(Void... params) {
+            Cursor cursor = getContentResolver().query(Telephony.Carriers.CONTENT_URI,
+                    new String[] {"_id", "name", "apn", "type"}, mWhere, null,
+                    Telephony.Carriers.DEFAULT_SORT_ORDER);
+            if (cursor == null) {
+                return null;
+            }
+            // Selectable APNs first, then the MMS ones, each in provider order.
+            ArrayList<ApnEntry> entries = new ArrayList<ApnEntry>(cursor.getCount());
+            ArrayList<ApnEntry> mmsEntries = new ArrayList<ApnEntry>();
+            try {
+                while (cursor.moveToNext()) {
+                    ApnEntry entry = new ApnEntry(cursor.getString(ID_INDEX),
+                            cursor.getString(NAME_INDEX), cursor.getString(APN_INDEX),
+                            cursor.getString(TYPES_INDEX));
+                    if (entry.selectable) {
+                        entries.add(entry);
+                    } else {
+                        mmsEntries.add(entry);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            entries.addAll(mmsEntries);
+            mPreferredKey = getSelectedApnKey();
+            return entries;
+        }
 
-                ApnPreference pref = new ApnPreference(this);
+        @Override
+        protected void onPostExecute(ArrayList<ApnEntry> entries) {
+            mLoadTask = null;
+            if (isDestroyed()) {
+                return;
+            }
+            if (entries != null) {
+                applyList(entries, mPreferredKey);
+            }
+            if (mReloadPending) {
+                mReloadPending = false;
+                fillList();
+            }
+        }
+    }
+
+    /**
+     * Brings apn_list in line with the loaded rows, keyed by APN id: existing preferences are
+     * updated in place, and only rows that appeared or went away are added or removed.
+     */
+    private void applyList(ArrayList<ApnEntry> entries, String selectedKey) {
+        PreferenceGroup apnList = (PreferenceGroup) findPreference("apn_list");
+
+        HashMap<String, ApnPreference> existing = new HashMap<String, ApnPreference>();
+        for (int i = apnList.getPreferenceCount() - 1; i >= 0; i--) {
+            Preference pref = apnList.getPreference(i);
+            if (pref instanceof ApnPreference) {
+                existing.put(pref.getKey(), (ApnPreference) pref);
+            }
+        }
 
-                pref.setKey(key);
-                pref.setTitle(name);
-                pref.setSummary(apn);
+        final boolean selectionChanged = selectedKey != null && !selectedKey.equals(mSelectedKey);
+        mSelectedKey = selectedKey;
+        for (int i = 0; i < entries.size(); i++) {
+            ApnEntry entry = entries.get(i);
+            ApnPreference pref = existing.remove(entry.key);
+            if (pref != null && pref.getSelectable() != entry.selectable) {
+                // The radio button is only set up when the view binds; start over.
+                apnList.removePreference(pref);
+                pref = null;
+            }
+            if (pref == null) {
+                pref = new ApnPreference(this);
+                pref.setKey(entry.key);
                 pref.setPersistent(false);
                 pref.setOnPreferenceChangeListener(this);
-
-                boolean selectable = ((type == null) || !type.equals("mms"));
-                pref.setSelectable(selectable);
-                if (selectable) {
-                    if ((mSelectedKey != null) && mSelectedKey.equals(key)) {
-                        pref.setChecked();
-                    }
-                    apnList.addPreference(pref);
-                } else {
-                    mmsApnList.add(pref);
-                }
-                cursor.moveToNext();
+                pref.setSelectable(entry.selectable);
+                pref.setOrder(i);
+                apnList.addPreference(pref);
+            } else if (pref.getOrder() != i) {
+                pref.setOrder(i);
             }
-            cursor.close();
-
-            for (Preference preference : mmsApnList) {
-                apnList.addPreference(preference);
+            if (!TextUtils.equals(pref.getTitle(), entry.name)) {
+                pref.setTitle(entry.name);
+            }
+            if (!TextUtils.equals(pref.getSummary(), entry.apn)) {
+                pref.setSummary(entry.apn);
             }
+            if (entry.selectable && (mSelectedKey != null) && mSelectedKey.equals(entry.key)) {
+                pref.setChecked();
+            }
+        }
+
+        for (ApnPreference removed : existing.values()) {
+            apnList.removePreference(removed);
+        }
+
+        if (selectionChanged) {
+            // The checked radio button is drawn from shared state; rebind the rows.
+            ((BaseAdapter) getPreferenceScreen().getRootAdapter()).notifyDataSetChanged();
         }
     }
 
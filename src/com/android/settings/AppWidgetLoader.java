@@ -36,6 +36,7 @@ public class AppWidgetLoader<Item extends AppWidgetLoader.LabelledItem> {
 
     private Context mContext;
     private AppWidgetManager mAppWidgetManager;
+    private PickerCatalog mCatalog;
     ItemConstructor<Item> mItemConstructor;
 
     interface LabelledItem {
@@ -46,6 +47,7 @@ public class AppWidgetLoader<Item extends AppWidgetLoader.LabelledItem> {
             ItemConstructor<Item> itemConstructor) {
         mContext = context;
         mAppWidgetManager = appWidgetManager;
+        mCatalog = PickerCatalog.getInstance(context);
         mItemConstructor = itemConstructor;
     }
 
@@ -151,20 +153,23 @@ public class AppWidgetLoader<Item extends AppWidgetLoader.LabelledItem> {
         int categoryFilter = intent.getIntExtra(AppWidgetManager.EXTRA_CATEGORY_FILTER,
                 AppWidgetProviderInfo.WIDGET_CATEGORY_HOME_SCREEN);
 
+        // Installed widgets come sorted by label
         putInstalledAppWidgets(items, categoryFilter);
 
         // Sort all items together by label
         if (sortCustomAppWidgets) {
+            final int installedCount = items.size();
             putCustomAppWidgets(items, intent);
-        }
-        Collections.sort(items, new Comparator<Item>() {
-            Collator mCollator = Collator.getInstance();
-
-            public int compare(Item lhs, Item rhs) {
-                return mCollator.compare(lhs.getLabel(), rhs.getLabel());
+            if (items.size() > installedCount) {
+                Collections.sort(items, new Comparator<Item>() {
+                    Collator mCollator = Collator.getInstance();
+
+                    public int compare(Item lhs, Item rhs) {
+                        return mCollator.compare(lhs.getLabel(), rhs.getLabel());
+                    }
+                });
             }
-        });
-        if (!sortCustomAppWidgets) {
+        } else {
             List<Item> customItems = new ArrayList<Item>();
             putCustomAppWidgets(customItems, intent);
             items.addAll(customItems);
@@ -176,8 +181,7 @@ public class AppWidgetLoader<Item extends AppWidgetLoader.LabelledItem> {
      * Create list entries for installed {@link AppWidgetProviderInfo} widgets.
      */
     void putInstalledAppWidgets(List<Item> items, int categoryFilter) {
-        List<AppWidgetProviderInfo> installed =
-                mAppWidgetManager.getInstalledProviders(categoryFilter);
+        List<AppWidgetProviderInfo> installed = mCatalog.getAppWidgetProviders(categoryFilter);
         putAppWidgetItems(installed, null, items, categoryFilter, false);
     }
 }
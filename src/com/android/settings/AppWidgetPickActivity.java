@@ -95,8 +95,20 @@ public class AppWidgetPickActivity extends ActivityPicker
     @Override
     public PickAdapter.Item createItem(Context context, AppWidgetProviderInfo info, Bundle extras) {
         CharSequence label = info.label;
-        Drawable icon = null;
 
+        // Custom widgets may come from any app, so only installed ones are kept.
+        final boolean installed = extras == null;
+        if (installed) {
+            Drawable icon = PickerCatalog.getInstance(context).getProviderIcon(info.provider);
+            if (icon != null) {
+                PickAdapter.Item item = new PickAdapter.Item(label, icon);
+                item.packageName = info.provider.getPackageName();
+                item.className = info.provider.getClassName();
+                return item;
+            }
+        }
+
+        Drawable icon = null;
         if (info.icon != 0) {
             try {
                 final Resources res = context.getResources();
@@ -135,6 +147,9 @@ public class AppWidgetPickActivity extends ActivityPicker
         item.packageName = info.provider.getPackageName();
         item.className = info.provider.getClassName();
         item.extras = extras;
+        if (installed) {
+            PickerCatalog.getInstance(context).putProviderIcon(info.provider, item.icon);
+        }
         return item;
     }
 
@@ -17,22 +17,17 @@
 package com.android.settings;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.BatteryManager;
 import android.os.BatteryStats;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IPowerManager;
-import android.os.Message;
 import android.os.ServiceManager;
-import android.os.SystemClock;
 import android.text.format.DateUtils;
 import android.widget.TextView;
 
 import com.android.internal.app.IBatteryStats;
+import com.android.settings.deviceinfo.DeviceStatusSampler;
 
 public class BatteryInfo extends Activity {
     private TextView mStatus;
@@ -46,21 +41,7 @@ public class BatteryInfo extends Activity {
     private TextView mUptime;
     private IBatteryStats mBatteryStats;
     private IPowerManager mScreenStats;
-    
-    private static final int EVENT_TICK = 1;
-    
-    private Handler mHandler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case EVENT_TICK:
-                    updateBatteryStats();
-                    sendEmptyMessageDelayed(EVENT_TICK, 1000);
-                    
-                    break;
-            }
-        }
-    };
+    private DeviceStatusSampler mSampler;
 
     /**
      * Format a number of tenths-units as a decimal string without using a
@@ -72,81 +53,84 @@ public class BatteryInfo extends Activity {
         return Integer.toString(tens) + "." + Math.abs(x - 10 * tens);
     }
 
-   /**
-    *Listens for intent broadcasts
-    */
-    private IntentFilter   mIntentFilter;
-
-    private BroadcastReceiver mIntentReceiver = new BroadcastReceiver() {
+    private DeviceStatusSampler.Listener mStatusListener = new DeviceStatusSampler.Listener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            if (action.equals(Intent.ACTION_BATTERY_CHANGED)) {
-                int plugType = intent.getIntExtra("plugged", 0);
-
-                mLevel.setText("" + intent.getIntExtra("level", 0));
-                mScale.setText("" + intent.getIntExtra("scale", 0));
-                mVoltage.setText("" + intent.getIntExtra("voltage", 0) + " "
-                        + getString(R.string.battery_info_voltage_units));
-                mTemperature.setText("" + tenthsToFixedString(intent.getIntExtra("temperature", 0))
-                        + getString(R.string.battery_info_temperature_units));
-                mTechnology.setText("" + intent.getStringExtra("technology"));
-                
-                mStatus.setText(Utils.getBatteryStatus(getResources(), intent));
-
-                switch (plugType) {
-                    case 0:
-                        mPower.setText(getString(R.string.battery_info_power_unplugged));
-                        break;
-                    case BatteryManager.BATTERY_PLUGGED_AC:
-                        mPower.setText(getString(R.string.battery_info_power_ac));
-                        break;
-                    case BatteryManager.BATTERY_PLUGGED_USB:
-                        mPower.setText(getString(R.string.battery_info_power_usb));
-                        break;
-                    case BatteryManager.BATTERY_PLUGGED_WIRELESS:
-                        mPower.setText(getString(R.string.battery_info_power_wireless));
-                        break;
-                    case (BatteryManager.BATTERY_PLUGGED_AC|BatteryManager.BATTERY_PLUGGED_USB):
-                        mPower.setText(getString(R.string.battery_info_power_ac_usb));
-                        break;
-                    default:
-                        mPower.setText(getString(R.string.battery_info_power_unknown));
-                        break;
-                }
-                
-                int health = intent.getIntExtra("health", BatteryManager.BATTERY_HEALTH_UNKNOWN);
-                String healthString;
-                if (health == BatteryManager.BATTERY_HEALTH_GOOD) {
-                    healthString = getString(R.string.battery_info_health_good);
-                } else if (health == BatteryManager.BATTERY_HEALTH_OVERHEAT) {
-                    healthString = getString(R.string.battery_info_health_overheat);
-                } else if (health == BatteryManager.BATTERY_HEALTH_DEAD) {
-                    healthString = getString(R.string.battery_info_health_dead);
-                } else if (health == BatteryManager.BATTERY_HEALTH_OVER_VOLTAGE) {
-                    healthString = getString(R.string.battery_info_health_over_voltage);
-                } else if (health == BatteryManager.BATTERY_HEALTH_UNSPECIFIED_FAILURE) {
-                    healthString = getString(R.string.battery_info_health_unspecified_failure);
-                } else if (health == BatteryManager.BATTERY_HEALTH_COLD) {
-                    healthString = getString(R.string.battery_info_health_cold);
-                } else {
-                    healthString = getString(R.string.battery_info_health_unknown);
-                }
-                mHealth.setText(healthString);
+        public void onDeviceStatusChanged(int fields) {
+            if ((fields & DeviceStatusSampler.FIELD_UPTIME) != 0) {
+                updateBatteryStats();
+            }
+            if ((fields & DeviceStatusSampler.FIELD_BATTERY) != 0) {
+                updateBatteryStatus(mSampler.getBatteryIntent());
+            }
+            if ((fields & DeviceStatusSampler.FIELD_BATTERY_DETAILS) != 0) {
+                updateBatteryDetails(mSampler.getBatteryIntent());
             }
         }
     };
 
+    private void updateBatteryStatus(Intent intent) {
+        int plugType = intent.getIntExtra("plugged", 0);
+
+        mLevel.setText("" + intent.getIntExtra("level", 0));
+        mScale.setText("" + intent.getIntExtra("scale", 0));
+        mStatus.setText(Utils.getBatteryStatus(getResources(), intent));
+
+        switch (plugType) {
+            case 0:
+                mPower.setText(getString(R.string.battery_info_power_unplugged));
+                break;
+            case BatteryManager.BATTERY_PLUGGED_AC:
+                mPower.setText(getString(R.string.battery_info_power_ac));
+                break;
+            case BatteryManager.BATTERY_PLUGGED_USB:
+                mPower.setText(getString(R.string.battery_info_power_usb));
+                break;
+            case BatteryManager.BATTERY_PLUGGED_WIRELESS:
+                mPower.setText(getString(R.string.battery_info_power_wireless));
+                break;
+            case (BatteryManager.BATTERY_PLUGGED_AC|BatteryManager.BATTERY_PLUGGED_USB):
+                mPower.setText(getString(R.string.battery_info_power_ac_usb));
+                break;
+            default:
+                mPower.setText(getString(R.string.battery_info_power_unknown));
+                break;
+        }
+    }
+
+    private void updateBatteryDetails(Intent intent) {
+        mVoltage.setText("" + intent.getIntExtra("voltage", 0) + " "
+                + getString(R.string.battery_info_voltage_units));
+        mTemperature.setText("" + tenthsToFixedString(intent.getIntExtra("temperature", 0))
+                + getString(R.string.battery_info_temperature_units));
+        mTechnology.setText("" + intent.getStringExtra("technology"));
+
+        int health = intent.getIntExtra("health", BatteryManager.BATTERY_HEALTH_UNKNOWN);
+        String healthString;
+        if (health == BatteryManager.BATTERY_HEALTH_GOOD) {
+            healthString = getString(R.string.battery_info_health_good);
+        } else if (health == BatteryManager.BATTERY_HEALTH_OVERHEAT) {
+            healthString = getString(R.string.battery_info_health_overheat);
+        } else if (health == BatteryManager.BATTERY_HEALTH_DEAD) {
+            healthString = getString(R.string.battery_info_health_dead);
+        } else if (health == BatteryManager.BATTERY_HEALTH_OVER_VOLTAGE) {
+            healthString = getString(R.string.battery_info_health_over_voltage);
+        } else if (health == BatteryManager.BATTERY_HEALTH_UNSPECIFIED_FAILURE) {
+            healthString = getString(R.string.battery_info_health_unspecified_failure);
+        } else if (health == BatteryManager.BATTERY_HEALTH_COLD) {
+            healthString = getString(R.string.battery_info_health_cold);
+        } else {
+            healthString = getString(R.string.battery_info_health_unknown);
+        }
+        mHealth.setText(healthString);
+    }
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
         setContentView(R.layout.battery_info);
 
-        // create the IntentFilter that will be used to listen
-        // to battery status broadcasts
-        mIntentFilter = new IntentFilter();
-        mIntentFilter.addAction(Intent.ACTION_BATTERY_CHANGED);
+        mSampler = DeviceStatusSampler.getInstance(this);
     }
 
     @Override
@@ -167,23 +151,22 @@ public class BatteryInfo extends Activity {
         mBatteryStats = IBatteryStats.Stub.asInterface(ServiceManager.getService(
                 BatteryStats.SERVICE_NAME));
         mScreenStats = IPowerManager.Stub.asInterface(ServiceManager.getService(POWER_SERVICE));
-        mHandler.sendEmptyMessageDelayed(EVENT_TICK, 1000);
-        
-        registerReceiver(mIntentReceiver, mIntentFilter);
+
+        // Only the fields that changed since they were last shown get updated.
+        mSampler.addListener(mStatusListener, DeviceStatusSampler.FIELD_UPTIME
+                | DeviceStatusSampler.FIELD_BATTERY | DeviceStatusSampler.FIELD_BATTERY_DETAILS);
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        mHandler.removeMessages(EVENT_TICK);
-        
+
         // we are no longer on the screen stop the observers
-        unregisterReceiver(mIntentReceiver);
+        mSampler.removeListener(mStatusListener);
     }
 
     private void updateBatteryStats() {
-        long uptime = SystemClock.elapsedRealtime();
-        mUptime.setText(DateUtils.formatElapsedTime(uptime / 1000));
+        mUptime.setText(DateUtils.formatElapsedTime(mSampler.getUptimeSeconds()));
     }
     
 }
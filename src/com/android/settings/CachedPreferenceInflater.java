@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.preference.Preference;
+import android.preference.PreferenceGroup;
+import android.preference.PreferenceManager;
+import android.preference.PreferenceScreen;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.InflateException;
+
+import com.android.internal.util.XmlUtils;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Inflates preference XML like {@link PreferenceManager} does, but keeps what it learns about
+ * each resource - the preference class of every element, its key and how many elements it
+ * contains - across fragment instances, and can leave out preferences by key without ever
+ * creating them.
+ *
+ * <p>The preferences themselves are still constructed from the XML parser, since that is
+ * the only attribute set the framework can style them from, but the class lookups are done
+ * once per resource and excluded subtrees are skipped over without being looked at. What
+ * is kept is dropped whenever the configuration changes, as the resource may differ.
+ */
+final class CachedPreferenceInflater {
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final String DEFAULT_PACKAGE = "android.preference.";
+    private static final String INTENT_TAG = "intent";
+    private static final String EXTRA_TAG = "extra";
+
+    private static final SparseArray<Descriptor> sDescriptors = new SparseArray<Descriptor>();
+    private static Configuration sConfiguration;
+
+    /** One preference XML resource, by element in document order. */
+    private static class Descriptor {
+        /** Constructor of the element's preference, or null for intent and extra. */
+        final Constructor<?>[] constructors;
+        final String[] keys;
+        /** Number of elements in the subtree of the element, including itself. */
+        final int[] sizes;
+
+        Descriptor(int count) {
+            constructors = new Constructor<?>[count];
+            keys = new String[count];
+            sizes = new int[count];
+        }
+    }
+
+    private CachedPreferenceInflater() {
+    }
+
+    /**
+     * Adds the preferences from the resource to root, except those whose key is in
+     * excludedKeys, and returns root. If root is null the root element is inflated into a new
+     * screen attached to manager, as the framework does.
+     */
+    static PreferenceScreen inflate(Context context, PreferenceManager manager, int resId,
+            PreferenceScreen root, Set<String> excludedKeys) {
+        final Descriptor descriptor = getDescriptor(context, resId);
+        final Resources res = context.getResources();
+        final XmlResourceParser parser = res.getXml(resId);
+        try {
+            final ArrayList<Preference> parents = new ArrayList<Preference>();
+            int index = 0;
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type == XmlPullParser.END_TAG) {
+                    parents.remove(parents.size() - 1);
+                    continue;
+                } else if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+
+                if (index == 0) {
+                    if (root == null) {
+                        final Object xmlRoot = descriptor.constructors[0]
+                                .newInstance(context, parser);
+                        if (!(xmlRoot instanceof PreferenceScreen)) {
+                            throw new InflateException(parser.getPositionDescription()
+                                    + ": Root element must be a PreferenceScreen");
+                        }
+                        root = (PreferenceScreen) xmlRoot;
+                        // Adding it to a group is the only way to attach it to manager from
+                        // here; the group is thrown away right after.
+                        final PreferenceScreen holder = manager.createPreferenceScreen(context);
+                        holder.addPreference(root);
+                        holder.removePreference(root);
+                    }
+                    parents.add(root);
+                    index++;
+                    continue;
+                }
+
+                final Preference parent = parents.get(parents.size() - 1);
+                final String name = parser.getName();
+                if (INTENT_TAG.equals(name)) {
+                    // Reads up to and including the end tag.
+                    parent.setIntent(Intent.parseIntent(res, parser, parser));
+                    index++;
+                } else if (EXTRA_TAG.equals(name)) {
+                    res.parseBundleExtra(EXTRA_TAG, parser, parent.getExtras());
+                    XmlUtils.skipCurrentTag(parser);
+                    index++;
+                } else if (excludedKeys != null && descriptor.keys[index] != null
+                        && excludedKeys.contains(descriptor.keys[index])) {
+                    XmlUtils.skipCurrentTag(parser);
+                    index += descriptor.sizes[index];
+                } else {
+                    if (!(parent instanceof PreferenceGroup)) {
+                        throw new InflateException(parser.getPositionDescription()
+                                + ": <" + name + "> can only be added to a PreferenceGroup");
+                    }
+                    final Preference preference = (Preference) descriptor.constructors[index]
+                            .newInstance(context, parser);
+                    ((PreferenceGroup) parent).addPreference(preference);
+                    parents.add(preference);
+                    index++;
+                }
+            }
+            return root;
+        } catch (XmlPullParserException e) {
+            throw new InflateException(parser.getPositionDescription() + ": " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new InflateException(parser.getPositionDescription() + ": " + e.getMessage(), e);
+        } catch (InstantiationException e) {
+            throw new InflateException(parser.getPositionDescription() + ": " + e.getMessage(), e);
+        } catch (IllegalAccessException e) {
+            throw new InflateException(parser.getPositionDescription() + ": " + e.getMessage(), e);
+        } catch (InvocationTargetException e) {
+            throw new InflateException(parser.getPositionDescription() + ": "
+                    + e.getCause(), e.getCause());
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static synchronized Descriptor getDescriptor(Context context, int resId) {
+        final Configuration config = context.getResources().getConfiguration();
+        if (sConfiguration == null || !sConfiguration.equals(config)) {
+            sDescriptors.clear();
+            sConfiguration = new Configuration(config);
+        }
+        Descriptor descriptor = sDescriptors.get(resId);
+        if (descriptor == null) {
+            descriptor = describe(context, resId);
+            sDescriptors.put(resId, descriptor);
+        }
+        return descriptor;
+    }
+
+    private static Descriptor describe(Context context, int resId) {
+        final Resources res = context.getResources();
+        final XmlResourceParser parser = res.getXml(resId);
+        try {
+            final ArrayList<Constructor<?>> constructors = new ArrayList<Constructor<?>>();
+            final ArrayList<String> keys = new ArrayList<String>();
+            final ArrayList<Integer> starts = new ArrayList<Integer>();
+            final ArrayList<Integer> sizes = new ArrayList<Integer>();
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type == XmlPullParser.END_TAG) {
+                    final int start = starts.remove(starts.size() - 1);
+                    sizes.set(start, keys.size() - start);
+                    continue;
+                } else if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+
+                final String name = parser.getName();
+                if (INTENT_TAG.equals(name) || EXTRA_TAG.equals(name)) {
+                    // Parsed whole when inflating, so they count as one element.
+                    constructors.add(null);
+                    keys.add(null);
+                    sizes.add(1);
+                    XmlUtils.skipCurrentTag(parser);
+                    continue;
+                }
+                constructors.add(getConstructor(context, parser, name));
+                keys.add(getKey(res, parser));
+                starts.add(keys.size() - 1);
+                sizes.add(0);
+            }
+
+            final Descriptor descriptor = new Descriptor(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                descriptor.constructors[i] = constructors.get(i);
+                descriptor.keys[i] = keys.get(i);
+                descriptor.sizes[i] = sizes.get(i);
+            }
+            return descriptor;
+        } catch (XmlPullParserException e) {
+            throw new InflateException(parser.getPositionDescription() + ": " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new InflateException(parser.getPositionDescription() + ": " + e.getMessage(), e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static Constructor<?> getConstructor(Context context, XmlResourceParser parser,
+            String name) {
+        final String className = name.indexOf('.') >= 0 ? name : DEFAULT_PACKAGE + name;
+        try {
+            return context.getClassLoader().loadClass(className).asSubclass(Preference.class)
+                    .getConstructor(Context.class, AttributeSet.class);
+        } catch (ClassNotFoundException e) {
+            throw new InflateException(parser.getPositionDescription()
+                    + ": Error inflating class " + className, e);
+        } catch (ClassCastException e) {
+            throw new InflateException(parser.getPositionDescription()
+                    + ": Class is not a Preference " + className, e);
+        } catch (NoSuchMethodException e) {
+            throw new InflateException(parser.getPositionDescription()
+                    + ": Error inflating class " + className, e);
+        }
+    }
+
+    private static String getKey(Resources res, XmlResourceParser parser) {
+        final int id = parser.getAttributeResourceValue(ANDROID_NS, "key", 0);
+        return id != 0 ? res.getString(id) : parser.getAttributeValue(ANDROID_NS, "key");
+    }
+}
@@ -106,6 +106,7 @@ public class ChooseLockPassword extends PreferenceActivity {
         private boolean mIsAlphaMode;
         private Button mCancelButton;
         private Button mNextButton;
+        private boolean mSavePending;
         private static final int CONFIRM_EXISTING_REQUEST = 58;
         static final int RESULT_FINISHED = RESULT_FIRST_USER;
         private static final long ERROR_MESSAGE_TIMEOUT = 3000;
@@ -388,7 +389,7 @@ public class ChooseLockPassword extends PreferenceActivity {
 
         private void handleNext() {
             final String pin = mPasswordEntry.getText().toString();
-            if (TextUtils.isEmpty(pin)) {
+            if (mSavePending || TextUtils.isEmpty(pin)) {
                 return;
             }
             String errorMsg = null;
@@ -403,10 +404,24 @@ public class ChooseLockPassword extends PreferenceActivity {
                 if (mFirstPin.equals(pin)) {
                     final boolean isFallback = getActivity().getIntent().getBooleanExtra(
                             LockPatternUtils.LOCKSCREEN_BIOMETRIC_WEAK_FALLBACK, false);
-                    mLockPatternUtils.clearLock(isFallback);
-                    mLockPatternUtils.saveLockPassword(pin, mRequestedQuality, isFallback);
-                    getActivity().setResult(RESULT_FINISHED);
-                    getActivity().finish();
+                    // Saving hashes the password and writes it out, so do it off the UI
+                    // thread and keep the screen from taking input meanwhile.
+                    mSavePending = true;
+                    mPasswordEntry.setEnabled(false);
+                    mNextButton.setEnabled(false);
+                    mCancelButton.setEnabled(false);
+                    LockCredentialWorker.savePassword(mLockPatternUtils, pin, mRequestedQuality,
+                            isFallback, new LockCredentialWorker.OnSaveListener() {
+                        @Override
+                        public void onSaved() {
+                            mSavePending = false;
+                            if (getActivity() == null) {
+                                return;
+                            }
+                            getActivity().setResult(RESULT_FINISHED);
+                            getActivity().finish();
+                        }
+                    });
                 } else {
                     CharSequence tmp = mPasswordEntry.getText();
                     if (tmp != null) {
@@ -109,6 +109,7 @@ public class ChooseLockPattern extends PreferenceActivity {
         private TextView mFooterLeftButton;
         private TextView mFooterRightButton;
         protected List<LockPatternView.Cell> mChosenPattern = null;
+        private boolean mSavePending;
 
         /**
          * The patten used during the help screen to show how to draw a pattern.
@@ -521,20 +522,30 @@ public class ChooseLockPattern extends PreferenceActivity {
         }
 
         private void saveChosenPatternAndFinish() {
-            LockPatternUtils utils = mChooseLockSettingsHelper.utils();
-            final boolean lockVirgin = !utils.isPatternEverChosen();
+            if (mSavePending) {
+                return;
+            }
+            // Saving hashes the pattern and writes it out, so do it off the UI thread and keep
+            // the screen from taking input meanwhile.
+            mSavePending = true;
+            mLockPatternView.disableInput();
+            mFooterLeftButton.setEnabled(false);
+            mFooterRightButton.setEnabled(false);
 
             final boolean isFallback = getActivity().getIntent()
                 .getBooleanExtra(LockPatternUtils.LOCKSCREEN_BIOMETRIC_WEAK_FALLBACK, false);
-            utils.saveLockPattern(mChosenPattern, isFallback);
-            utils.setLockPatternEnabled(true);
-
-            if (lockVirgin) {
-                utils.setVisiblePatternEnabled(true);
-            }
-
-            getActivity().setResult(RESULT_FINISHED);
-            getActivity().finish();
+            LockCredentialWorker.savePattern(mChooseLockSettingsHelper.utils(), mChosenPattern,
+                    isFallback, new LockCredentialWorker.OnSaveListener() {
+                @Override
+                public void onSaved() {
+                    mSavePending = false;
+                    if (getActivity() == null) {
+                        return;
+                    }
+                    getActivity().setResult(RESULT_FINISHED);
+                    getActivity().finish();
+                }
+            });
         }
     }
 }
@@ -78,7 +78,7 @@ public class ConfirmLockPassword extends PreferenceActivity {
         private PasswordEntryKeyboardHelper mKeyboardHelper;
         private PasswordEntryKeyboardView mKeyboardView;
         private Button mContinueButton;
-
+        private boolean mCheckPending;
 
         // required constructor for fragments
         public ConfirmLockPasswordFragment() {
@@ -153,8 +153,30 @@ public class ConfirmLockPassword extends PreferenceActivity {
         }
 
         private void handleNext() {
+            if (mCheckPending) {
+                return;
+            }
             final String pin = mPasswordEntry.getText().toString();
-            if (mLockPatternUtils.checkPassword(pin)) {
+            // Checking hashes the password, so do it off the UI thread and hold input
+            // until the result is in.
+            mCheckPending = true;
+            mPasswordEntry.setEnabled(false);
+            mContinueButton.setEnabled(false);
+            LockCredentialWorker.checkPassword(mLockPatternUtils, pin,
+                    new LockCredentialWorker.OnCheckListener() {
+                @Override
+                public void onChecked(boolean matched) {
+                    mCheckPending = false;
+                    if (getActivity() == null) {
+                        return;
+                    }
+                    onPasswordChecked(matched, pin);
+                }
+            });
+        }
+
+        private void onPasswordChecked(boolean matched, String pin) {
+            if (matched) {
 
                 Intent intent = new Intent();
                 intent.putExtra(ChooseLockSettingsHelper.EXTRA_KEY_PASSWORD, pin);
@@ -162,6 +184,7 @@ public class ConfirmLockPassword extends PreferenceActivity {
                 getActivity().setResult(RESULT_OK, intent);
                 getActivity().finish();
             } else {
+                mPasswordEntry.setEnabled(true);
                 showError(R.string.lockpattern_need_to_unlock_wrong);
             }
         }
@@ -93,6 +93,7 @@ public class ConfirmLockPattern extends PreferenceActivity {
         private LockPatternUtils mLockPatternUtils;
         private int mNumWrongConfirmAttempts;
         private CountDownTimer mCountdownTimer;
+        private boolean mCheckPending;
 
         private TextView mHeaderTextView;
         private TextView mFooterTextView;
@@ -264,28 +265,49 @@ public class ConfirmLockPattern extends PreferenceActivity {
             }
 
             public void onPatternDetected(List<LockPatternView.Cell> pattern) {
-                if (mLockPatternUtils.checkPattern(pattern)) {
+                if (mCheckPending) {
+                    return;
+                }
+                // Checking hashes the pattern, so do it off the UI thread and hold input
+                // until the result is in.
+                mCheckPending = true;
+                mLockPatternView.disableInput();
+                final String patternString = LockPatternUtils.patternToString(pattern);
+                final int patternSize = pattern.size();
+                LockCredentialWorker.checkPattern(mLockPatternUtils, pattern,
+                        new LockCredentialWorker.OnCheckListener() {
+                    @Override
+                    public void onChecked(boolean matched) {
+                        mCheckPending = false;
+                        if (getActivity() == null) {
+                            return;
+                        }
+                        onPatternChecked(matched, patternString, patternSize);
+                    }
+                });
+            }
+        };
 
-                    Intent intent = new Intent();
-                    intent.putExtra(ChooseLockSettingsHelper.EXTRA_KEY_PASSWORD,
-                                    LockPatternUtils.patternToString(pattern));
+        private void onPatternChecked(boolean matched, String patternString, int patternSize) {
+            if (matched) {
 
-                    getActivity().setResult(Activity.RESULT_OK, intent);
-                    getActivity().finish();
+                Intent intent = new Intent();
+                intent.putExtra(ChooseLockSettingsHelper.EXTRA_KEY_PASSWORD, patternString);
+
+                getActivity().setResult(Activity.RESULT_OK, intent);
+                getActivity().finish();
+            } else {
+                if (patternSize >= LockPatternUtils.MIN_PATTERN_REGISTER_FAIL &&
+                        ++mNumWrongConfirmAttempts
+                        >= LockPatternUtils.FAILED_ATTEMPTS_BEFORE_TIMEOUT) {
+                    long deadline = mLockPatternUtils.setLockoutAttemptDeadline();
+                    handleAttemptLockout(deadline);
                 } else {
-                    if (pattern.size() >= LockPatternUtils.MIN_PATTERN_REGISTER_FAIL &&
-                            ++mNumWrongConfirmAttempts
-                            >= LockPatternUtils.FAILED_ATTEMPTS_BEFORE_TIMEOUT) {
-                        long deadline = mLockPatternUtils.setLockoutAttemptDeadline();
-                        handleAttemptLockout(deadline);
-                    } else {
-                        updateStage(Stage.NeedToUnlockWrong);
-                        postClearPatternRunnable();
-                    }
+                    updateStage(Stage.NeedToUnlockWrong);
+                    postClearPatternRunnable();
                 }
             }
-        };
-
+        }
 
         private void handleAttemptLockout(long elapsedRealtimeDeadline) {
             updateStage(Stage.LockedOut);
@@ -443,6 +443,14 @@ public class DataUsageSummary extends Fragment {
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        // send any policy edit still waiting to be coalesced
+        mPolicyEditor.flush();
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.data_usage, menu);
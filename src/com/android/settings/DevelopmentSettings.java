@@ -50,7 +50,6 @@ import android.preference.CheckBoxPreference;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
-import android.preference.PreferenceGroup;
 import android.preference.PreferenceScreen;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -127,7 +126,6 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
     private static final String TRANSITION_ANIMATION_SCALE_KEY = "transition_animation_scale";
     private static final String ANIMATOR_DURATION_SCALE_KEY = "animator_duration_scale";
     private static final String OVERLAY_DISPLAY_DEVICES_KEY = "overlay_display_devices";
-    private static final String DEBUG_DEBUGGING_CATEGORY_KEY = "debug_debugging_category";
     private static final String DEBUG_APPLICATIONS_CATEGORY_KEY = "debug_applications_category";
     private static final String WIFI_DISPLAY_CERTIFICATION_KEY = "wifi_display_certification";
 
@@ -231,28 +229,34 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
             return;
         }
 
-        addPreferencesFromResource(R.xml.development_prefs);
+        final HashSet<String> excludedKeys = new HashSet<String>();
+        if (!SystemProperties.getBoolean("ro.adb.secure", false)) {
+            excludedKeys.add(CLEAR_ADB_KEYS);
+        }
+        if (!isPackageInstalled(getActivity(), TERMINAL_APP_PACKAGE)) {
+            excludedKeys.add(ENABLE_TERMINAL);
+        }
+        if ("user".equals(Build.TYPE)) {
+            excludedKeys.add(HDCP_CHECKING_KEY);
+        }
+        if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH)) {
+            excludedKeys.add(BT_HCI_SNOOP_LOG);
+        }
 
-        final PreferenceGroup debugDebuggingCategory = (PreferenceGroup)
-                findPreference(DEBUG_DEBUGGING_CATEGORY_KEY);
+        addPreferencesFromResource(R.xml.development_prefs, excludedKeys);
 
         mEnableAdb = findAndInitCheckboxPref(ENABLE_ADB);
         mClearAdbKeys = findPreference(CLEAR_ADB_KEYS);
-        if (!SystemProperties.getBoolean("ro.adb.secure", false)) {
-            if (debugDebuggingCategory != null) {
-                debugDebuggingCategory.removePreference(mClearAdbKeys);
-            }
-        }
-        mEnableTerminal = findAndInitCheckboxPref(ENABLE_TERMINAL);
-        if (!isPackageInstalled(getActivity(), TERMINAL_APP_PACKAGE)) {
-            debugDebuggingCategory.removePreference(mEnableTerminal);
-            mEnableTerminal = null;
+        if (findPreference(ENABLE_TERMINAL) != null) {
+            mEnableTerminal = findAndInitCheckboxPref(ENABLE_TERMINAL);
         }
 
         mBugreport = findPreference(BUGREPORT);
         mBugreportInPower = findAndInitCheckboxPref(BUGREPORT_IN_POWER_KEY);
         mKeepScreenOn = findAndInitCheckboxPref(KEEP_SCREEN_ON);
-        mBtHciSnoopLog = findAndInitCheckboxPref(BT_HCI_SNOOP_LOG);
+        if (findPreference(BT_HCI_SNOOP_LOG) != null) {
+            mBtHciSnoopLog = findAndInitCheckboxPref(BT_HCI_SNOOP_LOG);
+        }
         mAllowMockLocation = findAndInitCheckboxPref(ALLOW_MOCK_LOCATION);
         mPassword = (PreferenceScreen) findPreference(LOCAL_BACKUP_PASSWORD);
         mAllPrefs.add(mPassword);
@@ -317,11 +321,6 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
         Preference hdcpChecking = findPreference(HDCP_CHECKING_KEY);
         if (hdcpChecking != null) {
             mAllPrefs.add(hdcpChecking);
-            removePreferenceForProduction(hdcpChecking);
-        }
-
-        if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH)) {
-            removePreference(mBtHciSnoopLog);
         }
     }
 
@@ -386,14 +385,6 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
         activity.getActionBar().setCustomView(null);
     }
 
-    private boolean removePreferenceForProduction(Preference preference) {
-        if ("user".equals(Build.TYPE)) {
-            removePreference(preference);
-            return true;
-        }
-        return false;
-    }
-
     private void removePreference(Preference preference) {
         getPreferenceScreen().removePreference(preference);
         mAllPrefs.remove(preference);
@@ -470,8 +461,10 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
                 Settings.Secure.BUGREPORT_IN_POWER_MENU, 0) != 0);
         updateCheckBox(mKeepScreenOn, Settings.Global.getInt(cr,
                 Settings.Global.STAY_ON_WHILE_PLUGGED_IN, 0) != 0);
-        updateCheckBox(mBtHciSnoopLog, Settings.Secure.getInt(cr,
-                Settings.Secure.BLUETOOTH_HCI_LOG, 0) != 0);
+        if (mBtHciSnoopLog != null) {
+            updateCheckBox(mBtHciSnoopLog, Settings.Secure.getInt(cr,
+                    Settings.Secure.BLUETOOTH_HCI_LOG, 0) != 0);
+        }
         updateCheckBox(mAllowMockLocation, Settings.Secure.getInt(cr,
                 Settings.Secure.ALLOW_MOCK_LOCATION, 0) != 0);
         updateRuntimeValue();
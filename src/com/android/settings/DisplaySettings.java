@@ -40,9 +40,9 @@ import com.android.internal.view.RotationPolicy;
 import com.android.settings.DreamSettings;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import android.os.SystemProperties;
-import android.preference.PreferenceCategory;
 
 public class DisplaySettings extends SettingsPreferenceFragment implements
         Preference.OnPreferenceChangeListener, OnPreferenceClickListener {
@@ -76,7 +76,6 @@ public class DisplaySettings extends SettingsPreferenceFragment implements
     private CheckBoxPreference mBrightnessLight,mBrightnessLightDemo;
 
     private ListPreference mHdmiOutputModePreference;
-    private PreferenceCategory mHdmiOutputModeCategory;
     private CheckBoxPreference mHdmiFullScreen;
     private ListPreference mAccelerometerCoordinate;
 
@@ -98,25 +97,52 @@ public class DisplaySettings extends SettingsPreferenceFragment implements
         super.onCreate(savedInstanceState);
         ContentResolver resolver = getActivity().getContentResolver();
 
-        addPreferencesFromResource(R.xml.display_settings);
+        final boolean isShowAccelCoord = (SystemProperties.getInt("ro.sf.showaccelcoord", 0) & 0x01) > 0;
+        final int sethdmimode = SystemProperties.getInt("ro.sf.showhdmisettings", 0);
+        final boolean isShowHdmiMode = (sethdmimode & 0x03) > 0;
+        final boolean isShow1080p = (sethdmimode & 0x02) > 0;
+        final boolean isShowFullScreen = (sethdmimode & 0x04) > 0;
 
-        mAccelerometer = (CheckBoxPreference) findPreference(KEY_ACCELEROMETER);
-        mAccelerometer.setPersistent(false);
+        final HashSet<String> excludedKeys = new HashSet<String>();
         if (!RotationPolicy.isRotationSupported(getActivity())
                 || RotationPolicy.isRotationLockToggleSupported(getActivity())) {
             // If rotation lock is supported, then we do not provide this option in
             // Display settings.  However, is still available in Accessibility settings,
             // if the device supports rotation.
-            getPreferenceScreen().removePreference(mAccelerometer);
+            excludedKeys.add(KEY_ACCELEROMETER);
+        }
+        if (!getResources().getBoolean(com.android.internal.R.bool.config_dreamsSupported)) {
+            excludedKeys.add(KEY_SCREEN_SAVER);
+        }
+        if (!getResources().getBoolean(
+                com.android.internal.R.bool.config_intrusiveNotificationLed)) {
+            excludedKeys.add(KEY_NOTIFICATION_PULSE);
+        }
+        if (!isShowAccelCoord) {
+            excludedKeys.add(KEY_ACCELEROMETER_COORDINATE);
+        }
+        if (sethdmimode == 0) {
+            excludedKeys.add(KEY_HDMI_OUTPUT_MODE_CATE);
+        } else {
+            // Only one of the output mode lists is shown, if any.
+            excludedKeys.add(isShow1080p ? KEY_HDMI_OUTPUT_MODE_720P : KEY_HDMI_OUTPUT_MODE);
+            if (!isShowHdmiMode) {
+                excludedKeys.add(isShow1080p ? KEY_HDMI_OUTPUT_MODE : KEY_HDMI_OUTPUT_MODE_720P);
+            }
+            if (!isShowFullScreen) {
+                excludedKeys.add(KEY_HDMI_FULL_SCREEN);
+            }
         }
 
-        mScreenSaverPreference = findPreference(KEY_SCREEN_SAVER);
-        if (mScreenSaverPreference != null
-                && getResources().getBoolean(
-                        com.android.internal.R.bool.config_dreamsSupported) == false) {
-            getPreferenceScreen().removePreference(mScreenSaverPreference);
+        addPreferencesFromResource(R.xml.display_settings, excludedKeys);
+
+        mAccelerometer = (CheckBoxPreference) findPreference(KEY_ACCELEROMETER);
+        if (mAccelerometer != null) {
+            mAccelerometer.setPersistent(false);
         }
 
+        mScreenSaverPreference = findPreference(KEY_SCREEN_SAVER);
+
         mScreenTimeoutPreference = (ListPreference) findPreference(KEY_SCREEN_TIMEOUT);
         final long currentTimeout = Settings.System.getLong(resolver, SCREEN_OFF_TIMEOUT,
                 FALLBACK_SCREEN_TIMEOUT_VALUE);
@@ -129,11 +155,7 @@ public class DisplaySettings extends SettingsPreferenceFragment implements
         mFontSizePref.setOnPreferenceChangeListener(this);
         mFontSizePref.setOnPreferenceClickListener(this);
         mNotificationPulse = (CheckBoxPreference) findPreference(KEY_NOTIFICATION_PULSE);
-        if (mNotificationPulse != null
-                && getResources().getBoolean(
-                        com.android.internal.R.bool.config_intrusiveNotificationLed) == false) {
-            getPreferenceScreen().removePreference(mNotificationPulse);
-        } else {
+        if (mNotificationPulse != null) {
             try {
                 mNotificationPulse.setChecked(Settings.System.getInt(resolver,
                         Settings.System.NOTIFICATION_LIGHT_PULSE) == 1);
@@ -143,16 +165,13 @@ public class DisplaySettings extends SettingsPreferenceFragment implements
             }
         }
 
-        final boolean isShowAccelCoord = (SystemProperties.getInt("ro.sf.showaccelcoord", 0) & 0x01) > 0;
         mAccelerometerCoordinate = (ListPreference) findPreference(KEY_ACCELEROMETER_COORDINATE);
-        if(mAccelerometerCoordinate != null && isShowAccelCoord){
+        if(mAccelerometerCoordinate != null){
             mAccelerometerCoordinate.setOnPreferenceChangeListener(this);
             String value = Settings.System.getString(getContentResolver(),
                     Settings.System.ACCELEROMETER_COORDINATE);
             mAccelerometerCoordinate.setValue(value);
             updateAccelerometerCoordinateSummary(value);
-        } else {
-            getPreferenceScreen().removePreference(mAccelerometerCoordinate);
         }
 
         mBrightSystem = (CheckBoxPreference)findPreference(KEY_BRIGHT_SYSTEM);
@@ -213,46 +232,20 @@ public class DisplaySettings extends SettingsPreferenceFragment implements
             getPreferenceScreen().removePreference(mBrightnessLight);
         }
 
-        final int sethdmimode = SystemProperties.getInt("ro.sf.showhdmisettings", 0);
-        final boolean isShowHdmiMode = (sethdmimode & 0x03) > 0;
-        final boolean isShow1080p = (sethdmimode & 0x02) > 0;
-        final boolean isShowFullScreen = (sethdmimode & 0x04) > 0;
-        mHdmiOutputModeCategory = (PreferenceCategory) findPreference(KEY_HDMI_OUTPUT_MODE_CATE);
         mHdmiFullScreen = (CheckBoxPreference)findPreference(KEY_HDMI_FULL_SCREEN);
-        if (isShow1080p) {
-            mHdmiOutputModePreference = (ListPreference) findPreference(KEY_HDMI_OUTPUT_MODE_720P);
-            mHdmiOutputModeCategory.removePreference(mHdmiOutputModePreference);
-            mHdmiOutputModePreference = (ListPreference) findPreference(KEY_HDMI_OUTPUT_MODE);
-        } else {
-            mHdmiOutputModePreference = (ListPreference) findPreference(KEY_HDMI_OUTPUT_MODE);
-            mHdmiOutputModeCategory.removePreference(mHdmiOutputModePreference);
-            mHdmiOutputModePreference = (ListPreference) findPreference(KEY_HDMI_OUTPUT_MODE_720P);
-        }
-
-        if (sethdmimode != 0) {
-            if (isShowHdmiMode) {
-                final int currentHdmiMode = Settings.System.getInt(resolver, Settings.System.HDMI_OUTPUT_MODE, 0);
-                mHdmiOutputModePreference.setValue(String.valueOf(currentHdmiMode));
-                mHdmiOutputModePreference.setOnPreferenceChangeListener(this);
-            } else {
-                mHdmiOutputModeCategory.removePreference(mHdmiOutputModePreference);
-                mHdmiOutputModePreference = null;
-            }
+        mHdmiOutputModePreference = (ListPreference) findPreference(
+                isShow1080p ? KEY_HDMI_OUTPUT_MODE : KEY_HDMI_OUTPUT_MODE_720P);
 
-            if (isShowFullScreen) {
-                final boolean isHdmiFullScreen = Settings.System.getInt(resolver,
-                        Settings.System.HDMI_FULL_SCREEN, 0) > 0;
-                mHdmiFullScreen.setChecked(isHdmiFullScreen);
-                mHdmiFullScreen.setOnPreferenceChangeListener(this);
-            } else {
-                mHdmiOutputModeCategory.removePreference(mHdmiFullScreen);
-                mHdmiFullScreen = null;
-            }
-        } else {
-            getPreferenceScreen().removePreference(mHdmiOutputModeCategory);
-            mHdmiOutputModePreference = null;
-            mHdmiOutputModeCategory = null;
-            mHdmiFullScreen = null;
+        if (mHdmiOutputModePreference != null) {
+            final int currentHdmiMode = Settings.System.getInt(resolver, Settings.System.HDMI_OUTPUT_MODE, 0);
+            mHdmiOutputModePreference.setValue(String.valueOf(currentHdmiMode));
+            mHdmiOutputModePreference.setOnPreferenceChangeListener(this);
+        }
+        if (mHdmiFullScreen != null) {
+            final boolean isHdmiFullScreen = Settings.System.getInt(resolver,
+                    Settings.System.HDMI_FULL_SCREEN, 0) > 0;
+            mHdmiFullScreen.setChecked(isHdmiFullScreen);
+            mHdmiFullScreen.setOnPreferenceChangeListener(this);
         }
     }
 
@@ -403,7 +396,7 @@ public class DisplaySettings extends SettingsPreferenceFragment implements
     }
 
     private void updateAccelerometerRotationCheckbox() {
-        if (getActivity() == null) return;
+        if (getActivity() == null || mAccelerometer == null) return;
 
         mAccelerometer.setChecked(!RotationPolicy.isRotationLocked(getActivity()));
     }
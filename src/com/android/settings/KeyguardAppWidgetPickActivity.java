@@ -33,9 +33,10 @@ import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.os.ServiceManager;
@@ -47,6 +48,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.GridView;
@@ -80,6 +82,7 @@ public class KeyguardAppWidgetPickActivity extends Activity
     private List<Item> mItems;
     private GridView mGridView;
     private AppWidgetAdapter mAppWidgetAdapter;
+    private WidgetPreviewCache mPreviewCache;
     private AppWidgetManager mAppWidgetManager;
     private int mAppWidgetId;
     // Might make it possible to make this be false in future
@@ -120,9 +123,11 @@ public class KeyguardAppWidgetPickActivity extends Activity
         mAppWidgetManager = AppWidgetManager.getInstance(this);
         mAppWidgetLoader = new AppWidgetLoader<Item>(this, mAppWidgetManager, this);
         mItems = mAppWidgetLoader.getItems(getIntent());
-        mAppWidgetAdapter = new AppWidgetAdapter(this, mItems);
+        mPreviewCache = new WidgetPreviewCache(this);
+        mAppWidgetAdapter = new AppWidgetAdapter(this, mItems, mPreviewCache);
         mGridView.setAdapter(mAppWidgetAdapter);
         mGridView.setOnItemClickListener(this);
+        mGridView.setRecyclerListener(mAppWidgetAdapter);
 
         mLockPatternUtils = new LockPatternUtils(this); // TEMP-- we want to delete this
     }
@@ -152,7 +157,6 @@ public class KeyguardAppWidgetPickActivity extends Activity
         String packageName;
         String className;
         Bundle extras;
-        private WidgetPreviewLoader mWidgetPreviewLoader;
         private Context mContext;
 
         /**
@@ -163,16 +167,16 @@ public class KeyguardAppWidgetPickActivity extends Activity
             mContext = context;
         }
 
-        void loadWidgetPreview(ImageView v) {
-            mWidgetPreviewLoader = new WidgetPreviewLoader(mContext, v);
-            mWidgetPreviewLoader.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR, (Void[]) null);
-        }
-
-        void cancelLoadingWidgetPreview() {
-            if (mWidgetPreviewLoader != null) {
-                mWidgetPreviewLoader.cancel(false);
-                mWidgetPreviewLoader = null;
-            }
+        /**
+         * Loads the preview into v in the background. Items nearer the top of the grid,
+         * by position, are loaded first. The loader is kept in v's tag; the same item may be
+         * loading into other views at the same time, such as the one the grid measures with.
+         */
+        void loadWidgetPreview(ImageView v, int position, WidgetPreviewCache cache) {
+            final WidgetPreviewLoader loader =
+                    new WidgetPreviewLoader(mContext, v, position, cache);
+            v.setTag(loader);
+            cache.execute(loader);
         }
 
         /**
@@ -200,39 +204,68 @@ public class KeyguardAppWidgetPickActivity extends Activity
             return label;
         }
 
-        class WidgetPreviewLoader extends AsyncTask<Void, Bitmap, Void> {
+        class WidgetPreviewLoader extends WidgetPreviewCache.Task {
             private Resources mResources;
             private PackageManager mPackageManager;
             private int mIconDpi;
             private ImageView mView;
-            public WidgetPreviewLoader(Context context, ImageView v) {
-                super();
+            private WidgetPreviewCache mCache;
+            private Handler mHandler = new Handler();
+            private volatile boolean mCancelled;
+
+            public WidgetPreviewLoader(Context context, ImageView v, int position,
+                    WidgetPreviewCache cache) {
+                super(position);
                 mResources = context.getResources();
                 mPackageManager = context.getPackageManager();
                 ActivityManager activityManager =
                         (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
                 mIconDpi = activityManager.getLauncherLargeIconDensity();
                 mView = v;
+                mCache = cache;
             }
-            public Void doInBackground(Void... params) {
-                if (!isCancelled()) {
-                    int appWidgetPreviewWidth =
-                            mResources.getDimensionPixelSize(R.dimen.appwidget_preview_width);
-                    int appWidgetPreviewHeight =
-                            mResources.getDimensionPixelSize(R.dimen.appwidget_preview_height);
-                    Bitmap b = getWidgetPreview(new ComponentName(packageName, className),
-                            appWidgetPreviewId, iconId,
-                            appWidgetPreviewWidth, appWidgetPreviewHeight);
-                    publishProgress(b);
-                }
-                return null;
+
+            void cancel() {
+                mCancelled = true;
+                mCache.cancel(this);
             }
-            public void onProgressUpdate(Bitmap... values) {
-                if (!isCancelled()) {
-                    Bitmap b = values[0];
-                    mView.setImageBitmap(b);
+
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    return;
+                }
+                int appWidgetPreviewWidth =
+                        mResources.getDimensionPixelSize(R.dimen.appwidget_preview_width);
+                int appWidgetPreviewHeight =
+                        mResources.getDimensionPixelSize(R.dimen.appwidget_preview_height);
+                ComponentName provider = new ComponentName(packageName, className);
+                String key = WidgetPreviewCache.getKey(mPackageManager, provider,
+                        appWidgetPreviewWidth, appWidgetPreviewHeight);
+                Bitmap b = key != null ? mCache.get(key) : null;
+                if (b == null && !mCancelled) {
+                    b = getWidgetPreview(provider, appWidgetPreviewId, iconId,
+                            appWidgetPreviewWidth, appWidgetPreviewHeight);
+                    if (key != null) {
+                        mCache.put(provider, key, b);
+                    }
                 }
+                final Bitmap preview = b;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (preview == null) {
+                            return;
+                        }
+                        if (!mCancelled && mView.getTag() == WidgetPreviewLoader.this) {
+                            mView.setImageBitmap(preview);
+                        } else {
+                            mCache.recycle(preview);
+                        }
+                    }
+                });
             }
+
             abstract class WeakReferenceThreadLocal<T> {
                 private ThreadLocal<WeakReference<T>> mThreadLocal;
                 public WeakReferenceThreadLocal() {
@@ -354,8 +387,7 @@ public class KeyguardAppWidgetPickActivity extends Activity
                 bitmapWidth = finalPreviewWidth;
                 bitmapHeight = Math.min(finalPreviewHeight, maxHeight);
 
-                Bitmap preview = Bitmap.createBitmap(bitmapWidth, bitmapHeight,
-                        Config.ARGB_8888);
+                Bitmap preview = mCache.createBitmap(bitmapWidth, bitmapHeight);
 
                 // Draw the scaled preview into the final bitmap
                 if (widgetPreviewExists) {
@@ -443,16 +475,20 @@ public class KeyguardAppWidgetPickActivity extends Activity
         return item;
     }
 
-    protected static class AppWidgetAdapter extends BaseAdapter {
+    protected static class AppWidgetAdapter extends BaseAdapter
+            implements AbsListView.RecyclerListener {
         private final LayoutInflater mInflater;
         private final List<Item> mItems;
+        private final WidgetPreviewCache mPreviewCache;
 
         /**
          * Create an adapter for the given items.
          */
-        public AppWidgetAdapter(Context context, List<Item> items) {
+        public AppWidgetAdapter(Context context, List<Item> items,
+                WidgetPreviewCache previewCache) {
             mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
             mItems = items;
+            mPreviewCache = previewCache;
         }
 
         /**
@@ -488,14 +524,39 @@ public class KeyguardAppWidgetPickActivity extends Activity
             TextView textView = (TextView) convertView.findViewById(R.id.label);
             textView.setText(item.label);
             ImageView iconView = (ImageView) convertView.findViewById(R.id.icon);
-            iconView.setImageDrawable(null);
-            item.loadWidgetPreview(iconView);
+            releasePreview(iconView);
+            item.loadWidgetPreview(iconView, position, mPreviewCache);
             return convertView;
         }
 
-        public void cancelAllWidgetPreviewLoaders() {
-            for (int i = 0; i < mItems.size(); i++) {
-                mItems.get(i).cancelLoadingWidgetPreview();
+        /**
+         * {@inheritDoc}
+         */
+        public void onMovedToScrapHeap(View view) {
+            releasePreview((ImageView) view.findViewById(R.id.icon));
+        }
+
+        /**
+         * Stops loading a preview into the view and hands back the one it shows, so the
+         * bitmap can be reused for the next one.
+         */
+        private void releasePreview(ImageView iconView) {
+            Object loader = iconView.getTag();
+            if (loader instanceof Item.WidgetPreviewLoader) {
+                ((Item.WidgetPreviewLoader) loader).cancel();
+            }
+            iconView.setTag(null);
+            Drawable drawable = iconView.getDrawable();
+            iconView.setImageDrawable(null);
+            if (drawable instanceof BitmapDrawable) {
+                mPreviewCache.recycle(((BitmapDrawable) drawable).getBitmap());
+            }
+        }
+
+        /** Releases the previews of the views still shown in grid; scrapped ones already are. */
+        public void releaseAllPreviews(ViewGroup grid) {
+            for (int i = 0; i < grid.getChildCount(); i++) {
+                releasePreview((ImageView) grid.getChildAt(i).findViewById(R.id.icon));
             }
         }
     }
@@ -545,7 +606,10 @@ public class KeyguardAppWidgetPickActivity extends Activity
 
     protected void onDestroy() {
         if (mAppWidgetAdapter != null) {
-            mAppWidgetAdapter.cancelAllWidgetPreviewLoaders();
+            mAppWidgetAdapter.releaseAllPreviews(mGridView);
+        }
+        if (mPreviewCache != null) {
+            mPreviewCache.clear();
         }
         super.onDestroy();
     }
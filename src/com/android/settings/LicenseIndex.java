@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Index of the sections of the system license file, one per group of files sharing a
+ * license, so they can be shown one at a time instead of as one multi-megabyte page.
+ *
+ * <p>The first time a license file is opened it is decompressed a line at a time into a
+ * plain copy in the given directory, next to a small index of where each section starts and
+ * ends in it. Both are reused until the license file's size or modification time changes.
+ * Files that don't have the layout of a generated NOTICE.html are indexed as one section.
+ */
+class LicenseIndex {
+    private static final String TAG = "LicenseIndex";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INDEX_VERSION = 1;
+    private static final String DATA_FILE = "license.html";
+    private static final String INDEX_FILE = "license.idx";
+
+    /** Number of file names to put in a section's label. */
+    private static final int LABEL_FILE_COUNT = 3;
+
+    private static final String TOC_START = "<div class=\"toc\">";
+    private static final String TOC_END = "<!-- table of contents -->";
+    private static final String SECTION_START = "<tr id=\"";
+    private static final String SECTION_END = "</tr>";
+    private static final String FILE_LIST_START = "<div class=\"file-list\">";
+    private static final String FILE_LIST_END = "</div>";
+    private static final String FILE_NAME_END = "<br/>";
+
+    private static final String SECTION_PREFIX = "<table cellpadding=\"0\" cellspacing=\"0\""
+            + " border=\"0\">\n";
+    private static final String SECTION_SUFFIX = "</table></body></html>\n";
+
+    private final File mDataFile;
+    private final long mHeaderEnd;
+    private final String[] mLabels;
+    private final long[] mStarts;
+    private final long[] mEnds;
+
+    private LicenseIndex(File dataFile, long headerEnd, String[] labels, long[] starts,
+            long[] ends) {
+        mDataFile = dataFile;
+        mHeaderEnd = headerEnd;
+        mLabels = labels;
+        mStarts = starts;
+        mEnds = ends;
+    }
+
+    /**
+     * Returns the index of the license file, building it in cacheDir if there is no
+     * up-to-date one there yet.
+     */
+    static LicenseIndex open(String fileName, File cacheDir) throws IOException {
+        final File source = new File(fileName);
+        if (!source.isFile()) {
+            throw new IOException("License file not found at " + fileName);
+        }
+        final File dataFile = new File(cacheDir, DATA_FILE);
+        final File indexFile = new File(cacheDir, INDEX_FILE);
+        LicenseIndex index = readIndex(source, dataFile, indexFile);
+        if (index == null) {
+            index = build(source, dataFile, indexFile);
+        }
+        return index;
+    }
+
+    int getSectionCount() {
+        return mLabels.length;
+    }
+
+    /** A short label for the section, made from the names of the files it covers. */
+    String getLabel(int section) {
+        return mLabels[section];
+    }
+
+    /** Returns the section as a complete HTML document. */
+    String loadSection(int section) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mDataFile, "r");
+        try {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(read(file, 0, mHeaderEnd));
+            final boolean wrap = mHeaderEnd > 0;
+            if (wrap) sb.append(SECTION_PREFIX);
+            sb.append(read(file, mStarts[section], mEnds[section]));
+            if (wrap) sb.append(SECTION_SUFFIX);
+            return sb.toString();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static String read(RandomAccessFile file, long start, long end) throws IOException {
+        final byte[] bytes = new byte[(int) (end - start)];
+        file.seek(start);
+        file.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static LicenseIndex readIndex(File source, File dataFile, File indexFile) {
+        if (!indexFile.isFile() || !dataFile.isFile()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_VERSION
+                    || !source.getPath().equals(in.readUTF())
+                    || in.readLong() != source.lastModified()
+                    || in.readLong() != source.length()
+                    || in.readLong() != dataFile.length()) {
+                return null;
+            }
+            final long headerEnd = in.readLong();
+            final int count = in.readInt();
+            final String[] labels = new String[count];
+            final long[] starts = new long[count];
+            final long[] ends = new long[count];
+            for (int i = 0; i < count; i++) {
+                labels[i] = in.readUTF();
+                starts[i] = in.readLong();
+                ends[i] = in.readLong();
+            }
+            return new LicenseIndex(dataFile, headerEnd, labels, starts, ends);
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable license index", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static LicenseIndex build(File source, File dataFile, File indexFile)
+            throws IOException {
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<long[]> ranges = new ArrayList<long[]>();
+        long headerEnd = -1;
+
+        indexFile.delete();
+        InputStream in = null;
+        BufferedReader reader = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(source);
+            if (source.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in);
+            }
+            reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+            out = new BufferedOutputStream(new FileOutputStream(dataFile));
+
+            long offset = 0;
+            boolean inToc = false;
+            boolean inFileList = false;
+            long sectionStart = -1;
+            final ArrayList<String> files = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (headerEnd < 0) {
+                    if (line.contains(TOC_START)) {
+                        headerEnd = offset;
+                        inToc = true;
+                    } else if (line.contains(SECTION_START)) {
+                        headerEnd = offset;
+                    }
+                }
+                if (inToc) {
+                    // The sections are listed by the index instead.
+                    inToc = !line.contains(TOC_END);
+                    continue;
+                }
+
+                if (sectionStart < 0 && line.startsWith(SECTION_START)) {
+                    sectionStart = offset;
+                    files.clear();
+                } else if (sectionStart >= 0) {
+                    if (line.contains(FILE_LIST_START)) {
+                        inFileList = true;
+                    } else if (inFileList && line.startsWith(FILE_LIST_END)) {
+                        inFileList = false;
+                    } else if (inFileList && line.endsWith(FILE_NAME_END)) {
+                        files.add(line.substring(0, line.length() - FILE_NAME_END.length()));
+                    }
+                }
+
+                final byte[] bytes = (line + '\n').getBytes(UTF_8);
+                out.write(bytes);
+                offset += bytes.length;
+
+                if (sectionStart >= 0 && line.contains(SECTION_END)) {
+                    labels.add(makeLabel(files));
+                    ranges.add(new long[] { sectionStart, offset });
+                    sectionStart = -1;
+                    inFileList = false;
+                }
+            }
+            out.close();
+            out = null;
+
+            if (ranges.isEmpty()) {
+                // Not a generated notice file; show the whole thing as it is.
+                if (offset == 0) {
+                    throw new IOException("License file is empty: " + source);
+                }
+                headerEnd = 0;
+                labels.clear();
+                labels.add(source.getName());
+                ranges.add(new long[] { 0, offset });
+            }
+        } finally {
+            closeQuietly(reader != null ? reader : in);
+            closeQuietly(out);
+        }
+
+        final int count = labels.size();
+        final String[] labelArray = labels.toArray(new String[count]);
+        final long[] starts = new long[count];
+        final long[] ends = new long[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = ranges.get(i)[0];
+            ends[i] = ranges.get(i)[1];
+        }
+        writeIndex(source, dataFile, indexFile, headerEnd, labelArray, starts, ends);
+        return new LicenseIndex(dataFile, headerEnd, labelArray, starts, ends);
+    }
+
+    private static void writeIndex(File source, File dataFile, File indexFile, long headerEnd,
+            String[] labels, long[] starts, long[] ends) {
+        // Written under another name first so a half-written index is never picked up.
+        final File tmp = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(source.getPath());
+            out.writeLong(source.lastModified());
+            out.writeLong(source.length());
+            out.writeLong(dataFile.length());
+            out.writeLong(headerEnd);
+            out.writeInt(labels.length);
+            for (int i = 0; i < labels.length; i++) {
+                out.writeUTF(labels[i]);
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(indexFile)) {
+                Log.w(TAG, "Couldn't save license index to " + indexFile);
+            }
+        } catch (IOException e) {
+            // Only costs rebuilding it next time.
+            Log.w(TAG, "Couldn't save license index", e);
+        } finally {
+            closeQuietly(out);
+            tmp.delete();
+        }
+    }
+
+    private static String makeLabel(ArrayList<String> files) {
+        final StringBuilder sb = new StringBuilder();
+        final int count = Math.min(files.size(), LABEL_FILE_COUNT);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(", ");
+            final String path = files.get(i);
+            sb.append(path.substring(path.lastIndexOf('/') + 1));
+        }
+        if (files.size() > count) {
+            sb.append(", \u2026");
+        }
+        return sb.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
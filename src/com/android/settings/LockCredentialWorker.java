@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import com.android.internal.widget.LockPatternUtils;
+import com.android.internal.widget.LockPatternView;
+
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.EventLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks and saves lock credentials off the UI thread. Both hash the credential, and saving
+ * also writes to disk and updates the keystore and encryption password, which can take long
+ * enough on slow devices to freeze the screen right after the user finishes entering it.
+ *
+ * <p>Operations run one at a time on a single thread in the order they were started, so a
+ * check never overlaps a save of the credential it is checked against. Each one logs its
+ * latency to the event log. Listeners are called on the UI thread.
+ */
+final class LockCredentialWorker {
+    static final String TYPE_PATTERN = "pattern";
+    static final String TYPE_PASSWORD = "password";
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    interface OnCheckListener {
+        void onChecked(boolean matched);
+    }
+
+    interface OnSaveListener {
+        void onSaved();
+    }
+
+    private LockCredentialWorker() {
+    }
+
+    static void checkPattern(final LockPatternUtils utils, List<LockPatternView.Cell> pattern,
+            OnCheckListener listener) {
+        final List<LockPatternView.Cell> copy = new ArrayList<LockPatternView.Cell>(pattern);
+        new CheckTask(TYPE_PATTERN, listener) {
+            @Override
+            boolean check() {
+                return utils.checkPattern(copy);
+            }
+        }.executeOnExecutor(sExecutor);
+    }
+
+    static void checkPassword(final LockPatternUtils utils, final String password,
+            OnCheckListener listener) {
+        new CheckTask(TYPE_PASSWORD, listener) {
+            @Override
+            boolean check() {
+                return utils.checkPassword(password);
+            }
+        }.executeOnExecutor(sExecutor);
+    }
+
+    /**
+     * Saves the pattern and turns the pattern lock on. The pattern is made visible if no
+     * pattern was ever chosen before.
+     */
+    static void savePattern(final LockPatternUtils utils, List<LockPatternView.Cell> pattern,
+            final boolean isFallback, OnSaveListener listener) {
+        final List<LockPatternView.Cell> copy = new ArrayList<LockPatternView.Cell>(pattern);
+        new SaveTask(TYPE_PATTERN, listener) {
+            @Override
+            void save() {
+                final boolean lockVirgin = !utils.isPatternEverChosen();
+                utils.saveLockPattern(copy, isFallback);
+                utils.setLockPatternEnabled(true);
+                if (lockVirgin) {
+                    utils.setVisiblePatternEnabled(true);
+                }
+            }
+        }.executeOnExecutor(sExecutor);
+    }
+
+    /** Replaces the current lock with the password. */
+    static void savePassword(final LockPatternUtils utils, final String password,
+            final int quality, final boolean isFallback, OnSaveListener listener) {
+        new SaveTask(TYPE_PASSWORD, listener) {
+            @Override
+            void save() {
+                utils.clearLock(isFallback);
+                utils.saveLockPassword(password, quality, isFallback);
+            }
+        }.executeOnExecutor(sExecutor);
+    }
+
+    private abstract static class CheckTask extends AsyncTask<Void, Void, Boolean> {
+        private final String mType;
+        private final OnCheckListener mListener;
+
+        CheckTask(String type, OnCheckListener listener) {
+            mType = type;
+            mListener = listener;
+        }
+
+        abstract boolean check();
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            final long start = SystemClock.elapsedRealtime();
+            final boolean matched = check();
+            EventLog.writeEvent(EventLogTags.LOCK_CREDENTIAL_CHECK, mType, matched ? 1 : 0,
+                    SystemClock.elapsedRealtime() - start);
+            return matched;
+        }
+
+        @Override
+        protected void onPostExecute(Boolean matched) {
+            mListener.onChecked(matched);
+        }
+    }
+
+    private abstract static class SaveTask extends AsyncTask<Void, Void, Void> {
+        private final String mType;
+        private final OnSaveListener mListener;
+
+        SaveTask(String type, OnSaveListener listener) {
+            mType = type;
+            mListener = listener;
+        }
+
+        abstract void save();
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final long start = SystemClock.elapsedRealtime();
+            save();
+            EventLog.writeEvent(EventLogTags.LOCK_CREDENTIAL_SAVE, mType,
+                    SystemClock.elapsedRealtime() - start);
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mListener.onSaved();
+        }
+    }
+}
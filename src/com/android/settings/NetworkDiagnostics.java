@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs connectivity probes (ICMP ping or HTTP GET) against a set of targets, all targets at
+ * once and each one a number of times in a row, and reports latency statistics for every
+ * target as samples come in. Used by {@link RadioInfo}; the targets are plain strings so the
+ * probes can be pointed at a local server.
+ */
+public class NetworkDiagnostics {
+    public static final int TYPE_PING = 0;
+    public static final int TYPE_HTTP = 1;
+
+    private static final Pattern PING_TIME_PATTERN =
+            Pattern.compile("time=(\\d+(?:\\.\\d+)?) ms");
+
+    /** One thing to probe: a host name or address to ping, or a URL to fetch. */
+    public static class Target {
+        public final int type;
+        public final String address;
+
+        public Target(int type, String address) {
+            this.type = type;
+            this.address = address;
+        }
+    }
+
+    /** Called on the main thread. */
+    public interface Listener {
+        /** A probe of the target at targetIndex finished; stats covers all probes so far. */
+        void onResult(int targetIndex, Stats stats);
+
+        /** Every probe of every target finished, or the run was cancelled. */
+        void onFinished();
+    }
+
+    /** Immutable summary of the probes of one target so far. */
+    public static class Stats {
+        public final int attempts;
+        public final int repetitions;
+        public final String lastError;
+        /** Latencies of the successful probes in ms, sorted. */
+        private final long[] mLatencies;
+
+        Stats(int attempts, int repetitions, long[] latencies, int count, String lastError) {
+            this.attempts = attempts;
+            this.repetitions = repetitions;
+            this.lastError = lastError;
+            mLatencies = Arrays.copyOf(latencies, count);
+            Arrays.sort(mLatencies);
+        }
+
+        public int getSuccesses() {
+            return mLatencies.length;
+        }
+
+        public int getLossPercent() {
+            return attempts == 0 ? 0 : (attempts - mLatencies.length) * 100 / attempts;
+        }
+
+        public long getMin() {
+            return mLatencies.length == 0 ? -1 : mLatencies[0];
+        }
+
+        public long getMax() {
+            return mLatencies.length == 0 ? -1 : mLatencies[mLatencies.length - 1];
+        }
+
+        public long getAverage() {
+            if (mLatencies.length == 0) return -1;
+            long sum = 0;
+            for (long latency : mLatencies) {
+                sum += latency;
+            }
+            return sum / mLatencies.length;
+        }
+
+        /** Nearest-rank percentile of the successful latencies, or -1 if there are none. */
+        public long getPercentile(int percentile) {
+            if (mLatencies.length == 0) return -1;
+            int rank = (percentile * mLatencies.length + 99) / 100;
+            return mLatencies[Math.max(rank, 1) - 1];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (getSuccesses() == 0) {
+                sb.append("Fail: ").append(lastError);
+            } else {
+                sb.append("Pass");
+            }
+            sb.append(' ').append(getSuccesses()).append('/').append(attempts);
+            if (attempts < repetitions) {
+                sb.append(" of ").append(repetitions);
+            }
+            if (getSuccesses() > 0) {
+                sb.append(", ").append(getLossPercent()).append("% loss, ")
+                        .append(getMin()).append('/')
+                        .append(getAverage()).append('/')
+                        .append(getPercentile(95)).append('/')
+                        .append(getMax()).append(" ms (min/avg/p95/max)");
+            }
+            return sb.toString();
+        }
+    }
+
+    private final List<Target> mTargets;
+    private final int mRepetitions;
+    private final int mTimeoutMs;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private ExecutorService mExecutor;
+    private volatile boolean mCancelled;
+    private int mRunning;
+
+    public NetworkDiagnostics(List<Target> targets, int repetitions, int timeoutMs,
+            Listener listener) {
+        mTargets = new ArrayList<Target>(targets);
+        mRepetitions = repetitions;
+        mTimeoutMs = timeoutMs;
+        mListener = listener;
+    }
+
+    /** Starts probing every target at once. Must be called on the main thread, once. */
+    public void start() {
+        mRunning = mTargets.size();
+        if (mRunning == 0) {
+            mListener.onFinished();
+            return;
+        }
+        mExecutor = Executors.newFixedThreadPool(mTargets.size());
+        for (int i = 0; i < mTargets.size(); i++) {
+            final int index = i;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    probeTarget(index);
+                }
+            });
+        }
+        mExecutor.shutdown();
+    }
+
+    /** Stops probing; no more results are reported after this returns. */
+    public void cancel() {
+        if (mExecutor != null && !mCancelled) {
+            mCancelled = true;
+            mExecutor.shutdownNow();
+            mListener.onFinished();
+        }
+    }
+
+    private void probeTarget(final int index) {
+        final Target target = mTargets.get(index);
+        final long[] latencies = new long[mRepetitions];
+        int count = 0;
+        String lastError = null;
+        for (int attempt = 1; attempt <= mRepetitions && !mCancelled; attempt++) {
+            String[] error = new String[1];
+            long latency = target.type == TYPE_HTTP
+                    ? httpGet(target.address, error) : ping(target.address, error);
+            if (latency >= 0) {
+                latencies[count++] = latency;
+            } else {
+                lastError = error[0];
+            }
+            final Stats stats = new Stats(attempt, mRepetitions, latencies, count, lastError);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mListener.onResult(index, stats);
+                    }
+                }
+            });
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled && --mRunning == 0) {
+                    mListener.onFinished();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends one echo request with the system ping tool. Returns the round trip time in ms
+     * as reported by ping, or -1 with error[0] set on failure.
+     */
+    private long ping(String address, String[] error) {
+        final long start = SystemClock.elapsedRealtime();
+        Process p = null;
+        try {
+            p = Runtime.getRuntime().exec(new String[] {
+                    "ping", "-c", "1", "-W", String.valueOf(Math.max(1, mTimeoutMs / 1000)),
+                    address });
+            String time = null;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher m = PING_TIME_PATTERN.matcher(line);
+                if (time == null && m.find()) {
+                    time = m.group(1);
+                }
+            }
+            int status = p.waitFor();
+            if (status != 0) {
+                error[0] = status == 2 ? "Unknown Host" : "Host unreachable";
+                return -1;
+            }
+            if (time != null) {
+                return Math.round(Double.parseDouble(time));
+            }
+            // Some ping builds don't print the time; fall back to wall time.
+            return SystemClock.elapsedRealtime() - start;
+        } catch (IOException e) {
+            error[0] = "IOException";
+        } catch (InterruptedException e) {
+            error[0] = "InterruptedException";
+        } finally {
+            if (p != null) {
+                p.destroy();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fetches the URL. Returns the time to the response status in ms, or -1 with error[0]
+     * set if that failed or wasn't 200.
+     */
+    private long httpGet(String url, String[] error) {
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, mTimeoutMs);
+        HttpConnectionParams.setSoTimeout(params, mTimeoutMs);
+        DefaultHttpClient client = new DefaultHttpClient(params);
+        HttpGet request = null;
+        try {
+            request = new HttpGet(url);
+            final long start = SystemClock.elapsedRealtime();
+            HttpResponse response = client.execute(request);
+            final long latency = SystemClock.elapsedRealtime() - start;
+            int code = response.getStatusLine().getStatusCode();
+            if (code == 200) {
+                return latency;
+            }
+            error[0] = "Code: " + code;
+        } catch (IllegalArgumentException e) {
+            error[0] = "Bad URL";
+        } catch (IOException e) {
+            error[0] = "IOException";
+        } finally {
+            if (request != null) {
+                request.abort();
+            }
+            client.getConnectionManager().shutdown();
+        }
+        return -1;
+    }
+}
@@ -42,14 +42,18 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.DateTimeView;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 
 public class NotificationStation extends SettingsPreferenceFragment {
@@ -58,14 +62,24 @@ public class NotificationStation extends SettingsPreferenceFragment {
     private static final String PACKAGE_SCHEME = "package";
     private static final boolean SHOW_HISTORICAL_NOTIFICATIONS = true;
 
+    /** How long to collect posted/removed events before applying them to the list */
+    private static final long BATCH_DELAY_MS = 100;
+
     private final PackageReceiver mPackageReceiver = new PackageReceiver();
+    private final PackageInfoCache mPackageInfoCache = new PackageInfoCache();
+    private final Handler mHandler = new Handler();
     private PackageManager mPm;
     private INotificationManager mNoMan;
+    private boolean mListenerRegistered;
+    private boolean mLoaded;
+
+    /** Events received from the listener but not applied to the history yet, guarded by itself */
+    private final ArrayList<PendingEvent> mPendingEvents = new ArrayList<PendingEvent>();
 
-    private Runnable mRefreshListRunnable = new Runnable() {
+    private Runnable mApplyEventsRunnable = new Runnable() {
         @Override
         public void run() {
-            refreshList();
+            applyPendingEvents();
         }
     };
 
@@ -73,19 +87,28 @@ public class NotificationStation extends SettingsPreferenceFragment {
         @Override
         public void onNotificationPosted(StatusBarNotification notification) throws RemoteException {
             Log.v(TAG, "onNotificationPosted: " + notification);
-            final Handler h = getListView().getHandler();
-            h.removeCallbacks(mRefreshListRunnable);
-            h.postDelayed(mRefreshListRunnable, 100);
+            queueEvent(new PendingEvent(createInfo(notification, true), true));
         }
 
         @Override
         public void onNotificationRemoved(StatusBarNotification notification) throws RemoteException {
-            final Handler h = getListView().getHandler();
-            h.removeCallbacks(mRefreshListRunnable);
-            h.postDelayed(mRefreshListRunnable, 100);
+            queueEvent(new PendingEvent(createInfo(notification, false), false));
         }
     };
 
+    private static class PendingEvent {
+        final HistoricalNotificationInfo info;
+        final boolean posted;
+
+        PendingEvent(HistoricalNotificationInfo info, boolean posted) {
+            this.info = info;
+            this.posted = posted;
+        }
+    }
+
+    /** Number of notifications kept in the history list, active ones included */
+    private int mHistoryDepth;
+    private NotificationHistory mHistory;
     private NotificationHistoryAdapter mAdapter;
     private Context mContext;
 
@@ -104,6 +127,11 @@ public class NotificationStation extends SettingsPreferenceFragment {
         super.onAttach(activity);
         mContext = activity;
         mPm = mContext.getPackageManager();
+        if (mHistory == null) {
+            mHistoryDepth = mContext.getResources().getInteger(
+                    R.integer.notification_history_depth);
+            mHistory = new NotificationHistory(mHistoryDepth);
+        }
         mNoMan = INotificationManager.Stub.asInterface(
                 ServiceManager.getService(Context.NOTIFICATION_SERVICE));
         try {
@@ -111,11 +139,29 @@ public class NotificationStation extends SettingsPreferenceFragment {
                     new ComponentName(mContext.getPackageName(),
                             this.getClass().getCanonicalName()),
                     ActivityManager.getCurrentUser());
+            mListenerRegistered = true;
         } catch (RemoteException e) {
             // well, that didn't work out
         }
     }
 
+    @Override
+    public void onDetach() {
+        logd("onDetach()");
+        super.onDetach();
+        if (mListenerRegistered) {
+            try {
+                mNoMan.unregisterListener(mListener, ActivityManager.getCurrentUser());
+            } catch (RemoteException e) {
+            }
+            mListenerRegistered = false;
+        }
+        synchronized (mPendingEvents) {
+            mPendingEvents.clear();
+            mHandler.removeCallbacks(mApplyEventsRunnable);
+        }
+    }
+
     @Override
     public void onCreate(Bundle icicle) {
         logd("onCreate(%s)", icicle);
@@ -139,7 +185,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
 //        emptyView.setText(R.string.screensaver_settings_disabled_prompt);
 //        listView.setEmptyView(emptyView);
 
-        mAdapter = new NotificationHistoryAdapter(mContext);
+        mAdapter = new NotificationHistoryAdapter(mContext, mHistory);
         listView.setAdapter(mAdapter);
     }
 
@@ -154,7 +200,10 @@ public class NotificationStation extends SettingsPreferenceFragment {
     public void onResume() {
         logd("onResume()");
         super.onResume();
-        refreshList();
+        // After the first load the history is kept current by the listener, even while paused.
+        if (!mLoaded) {
+            refreshList();
+        }
 
         // listen for package changes
         IntentFilter filter = new IntentFilter();
@@ -170,9 +219,50 @@ public class NotificationStation extends SettingsPreferenceFragment {
         List<HistoricalNotificationInfo> infos = loadNotifications();
         if (infos != null) {
             logd("adding %d infos", infos.size());
-            mAdapter.clear();
-            mAdapter.addAll(infos);
-            mAdapter.sort(mNotificationSorter);
+            Collections.sort(infos, mNotificationSorter);
+            mHistory.reset(infos);
+            mAdapter.notifyDataSetChanged();
+            mLoaded = true;
+        }
+    }
+
+    private void queueEvent(PendingEvent event) {
+        synchronized (mPendingEvents) {
+            mPendingEvents.add(event);
+            if (mPendingEvents.size() == 1) {
+                mHandler.postDelayed(mApplyEventsRunnable, BATCH_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Applies the events collected since the last batch to the history and refreshes the list
+     * once for all of them.
+     */
+    private void applyPendingEvents() {
+        final PendingEvent[] events;
+        synchronized (mPendingEvents) {
+            events = mPendingEvents.toArray(new PendingEvent[mPendingEvents.size()]);
+            mPendingEvents.clear();
+        }
+        if (!mLoaded) {
+            // The initial load will pick these up.
+            return;
+        }
+        final int currentUserId = ActivityManager.getCurrentUser();
+        boolean changed = false;
+        for (PendingEvent event : events) {
+            final HistoricalNotificationInfo info = event.info;
+            if (info.user != UserHandle.USER_ALL && info.user != currentUserId) continue;
+            if (event.posted) {
+                changed |= mHistory.post(info);
+            } else {
+                changed |= mHistory.remove(info);
+            }
+        }
+        logd("applied %d events, changed=%b", events.length, changed);
+        if (changed && mAdapter != null) {
+            mAdapter.notifyDataSetChanged();
         }
     }
 
@@ -191,13 +281,167 @@ public class NotificationStation extends SettingsPreferenceFragment {
         public int user;
         public long timestamp;
         public boolean active;
+        public int id;
+        public String tag;
+
+        /** Whether both infos describe the same notification, possibly at different times */
+        boolean isSameNotification(HistoricalNotificationInfo other) {
+            return id == other.id && user == other.user
+                    && (pkg == null ? other.pkg == null : pkg.equals(other.pkg))
+                    && (tag == null ? other.tag == null : tag.equals(other.tag));
+        }
+    }
+
+    /**
+     * Fixed-capacity ring buffer of notifications, newest first. Posting a notification that is
+     * already active moves it to the front; once full, the oldest entry is dropped.
+     */
+    private static class NotificationHistory {
+        private final HistoricalNotificationInfo[] mItems;
+        /** Index of the newest item */
+        private int mHead;
+        private int mSize;
+
+        NotificationHistory(int capacity) {
+            mItems = new HistoricalNotificationInfo[capacity];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        /** Returns the item at the given position, 0 being the newest. */
+        HistoricalNotificationInfo get(int position) {
+            return mItems[slot(position)];
+        }
+
+        /** Replaces the contents with the given items, which must be sorted newest first. */
+        void reset(List<HistoricalNotificationInfo> items) {
+            Arrays.fill(mItems, null);
+            mHead = 0;
+            mSize = 0;
+            for (int i = Math.min(items.size(), mItems.length) - 1; i >= 0; i--) {
+                push(items.get(i));
+            }
+        }
+
+        /** Returns true if the history changed. */
+        boolean post(HistoricalNotificationInfo info) {
+            final int index = indexOfActive(info);
+            if (index >= 0) {
+                if (get(index).timestamp == info.timestamp) {
+                    // Already seen, e.g. delivered again right after the initial load.
+                    return false;
+                }
+                removeAt(index);
+            }
+            push(info);
+            return true;
+        }
+
+        /** Marks the matching active notification as dismissed. Returns true if found. */
+        boolean remove(HistoricalNotificationInfo info) {
+            final int index = indexOfActive(info);
+            if (index < 0) return false;
+            get(index).active = false;
+            return true;
+        }
+
+        private void push(HistoricalNotificationInfo info) {
+            mHead = (mHead + 1) % mItems.length;
+            mItems[mHead] = info;
+            if (mSize < mItems.length) {
+                mSize++;
+            }
+        }
+
+        private void removeAt(int position) {
+            // Shift newer items one slot towards the tail to close the gap.
+            for (int i = position; i > 0; i--) {
+                mItems[slot(i)] = mItems[slot(i - 1)];
+            }
+            mItems[mHead] = null;
+            mHead = (mHead - 1 + mItems.length) % mItems.length;
+            mSize--;
+        }
+
+        private int indexOfActive(HistoricalNotificationInfo info) {
+            for (int i = 0; i < mSize; i++) {
+                HistoricalNotificationInfo item = get(i);
+                if (item.active && item.isSameNotification(info)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int slot(int position) {
+            return (mHead - position + mItems.length) % mItems.length;
+        }
+    }
+
+    /**
+     * Resources, icons and labels of the packages that posted notifications, so that a burst
+     * of notifications from one app does not resolve them again for each one. Accessed from
+     * binder threads, so all access is synchronized.
+     */
+    private class PackageInfoCache {
+        private final HashMap<String, Resources> mResources = new HashMap<String, Resources>();
+        private final HashMap<String, Drawable.ConstantState> mIcons =
+                new HashMap<String, Drawable.ConstantState>();
+        private final HashMap<String, CharSequence> mLabels = new HashMap<String, CharSequence>();
+
+        synchronized Resources getResources(String pkg, int userId) {
+            final String key = pkg + "/" + userId;
+            Resources r = mResources.get(key);
+            if (r == null) {
+                r = getResourcesForUserPackage(pkg, userId);
+                if (r != null) {
+                    mResources.put(key, r);
+                }
+            }
+            return r;
+        }
+
+        synchronized Drawable getIcon(String pkg, int userId) {
+            Drawable.ConstantState state = mIcons.get(pkg);
+            if (state == null) {
+                Drawable icon = loadPackageIconDrawable(pkg, userId);
+                if (icon == null) return null;
+                state = icon.getConstantState();
+                if (state == null) return icon;
+                mIcons.put(pkg, state);
+            }
+            return state.newDrawable(mContext.getResources());
+        }
+
+        synchronized CharSequence getLabel(String pkg) {
+            CharSequence label = mLabels.get(pkg);
+            if (label == null) {
+                label = loadPackageName(pkg);
+                mLabels.put(pkg, label);
+            }
+            return label;
+        }
+
+        synchronized void invalidate(String pkg) {
+            final String prefix = pkg + "/";
+            for (Iterator<String> it = mResources.keySet().iterator(); it.hasNext(); ) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+            mIcons.remove(pkg);
+            mLabels.remove(pkg);
+        }
     }
 
     private List<HistoricalNotificationInfo> loadNotifications() {
         final int currentUserId = ActivityManager.getCurrentUser();
         try {
             StatusBarNotification[] active = mNoMan.getActiveNotifications(mContext.getPackageName());
-            StatusBarNotification[] dismissed = mNoMan.getHistoricalNotifications(mContext.getPackageName(), 50);
+            StatusBarNotification[] dismissed = mNoMan.getHistoricalNotifications(
+                    mContext.getPackageName(), mHistoryDepth);
 
             List<HistoricalNotificationInfo> list
                     = new ArrayList<HistoricalNotificationInfo>(active.length + dismissed.length);
@@ -205,30 +449,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
             for (StatusBarNotification[] resultset
                     : new StatusBarNotification[][] { active, dismissed }) {
                 for (StatusBarNotification sbn : resultset) {
-                    final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
-                    info.pkg = sbn.getPackageName();
-                    info.user = sbn.getUserId();
-                    info.icon = loadIconDrawable(info.pkg, info.user, sbn.getNotification().icon);
-                    info.pkgicon = loadPackageIconDrawable(info.pkg, info.user);
-                    info.pkgname = loadPackageName(info.pkg);
-                    if (sbn.getNotification().extras != null) {
-                        info.title = sbn.getNotification().extras.getString(Notification.EXTRA_TITLE);
-                        if (info.title == null || "".equals(info.title)) {
-                            info.title = sbn.getNotification().extras.getString(Notification.EXTRA_TEXT);
-                        }
-                    }
-                    if (info.title == null || "".equals(info.title)) {
-                        info.title = sbn.getNotification().tickerText;
-                    }
-                    // still nothing? come on, give us something!
-                    if (info.title == null || "".equals(info.title)) {
-                        info.title = info.pkgname;
-                    }
-                    info.timestamp = sbn.getPostTime();
-                    info.priority = sbn.getNotification().priority;
-                    logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
-
-                    info.active = (resultset == active);
+                    final HistoricalNotificationInfo info = createInfo(sbn, resultset == active);
 
                     if (info.user == UserHandle.USER_ALL
                             || info.user == currentUserId) {
@@ -244,6 +465,36 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return null;
     }
 
+    private HistoricalNotificationInfo createInfo(StatusBarNotification sbn, boolean active) {
+        final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
+        info.pkg = sbn.getPackageName();
+        info.user = sbn.getUserId();
+        info.id = sbn.getId();
+        info.tag = sbn.getTag();
+        info.icon = loadIconDrawable(info.pkg, info.user, sbn.getNotification().icon);
+        info.pkgicon = mPackageInfoCache.getIcon(info.pkg, info.user);
+        info.pkgname = mPackageInfoCache.getLabel(info.pkg);
+        if (sbn.getNotification().extras != null) {
+            info.title = sbn.getNotification().extras.getString(Notification.EXTRA_TITLE);
+            if (info.title == null || "".equals(info.title)) {
+                info.title = sbn.getNotification().extras.getString(Notification.EXTRA_TEXT);
+            }
+        }
+        if (info.title == null || "".equals(info.title)) {
+            info.title = sbn.getNotification().tickerText;
+        }
+        // still nothing? come on, give us something!
+        if (info.title == null || "".equals(info.title)) {
+            info.title = info.pkgname;
+        }
+        info.timestamp = sbn.getPostTime();
+        info.priority = sbn.getNotification().priority;
+        logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
+
+        info.active = active;
+        return info;
+    }
+
     private Resources getResourcesForUserPackage(String pkg, int userId) {
         Resources r = null;
 
@@ -284,12 +535,17 @@ public class NotificationStation extends SettingsPreferenceFragment {
     }
 
     private Drawable loadIconDrawable(String pkg, int userId, int resId) {
-        Resources r = getResourcesForUserPackage(pkg, userId);
-
         if (resId == 0) {
             return null;
         }
 
+        Resources r = pkg != null
+                ? mPackageInfoCache.getResources(pkg, userId)
+                : mContext.getResources();
+        if (r == null) {
+            return null;
+        }
+
         try {
             return r.getDrawable(resId);
         } catch (RuntimeException e) {
@@ -301,12 +557,28 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return null;
     }
 
-    private class NotificationHistoryAdapter extends ArrayAdapter<HistoricalNotificationInfo> {
+    private class NotificationHistoryAdapter extends BaseAdapter {
         private final LayoutInflater mInflater;
+        private final NotificationHistory mHistory;
 
-        public NotificationHistoryAdapter(Context context) {
-            super(context, 0);
+        public NotificationHistoryAdapter(Context context, NotificationHistory history) {
             mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+            mHistory = history;
+        }
+
+        @Override
+        public int getCount() {
+            return mHistory.size();
+        }
+
+        @Override
+        public HistoricalNotificationInfo getItem(int position) {
+            return mHistory.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
         }
 
         @Override
@@ -395,7 +667,10 @@ public class NotificationStation extends SettingsPreferenceFragment {
         @Override
         public void onReceive(Context context, Intent intent) {
             logd("PackageReceiver.onReceive");
-            //refreshList();
+            final Uri data = intent.getData();
+            if (data != null) {
+                mPackageInfoCache.invalidate(data.getSchemeSpecificPart());
+            }
         }
     }
 }
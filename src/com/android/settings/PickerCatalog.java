@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Configuration;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+
+import com.android.settings.ActivityPicker.PickAdapter;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The installed app widget providers and the activities matching picker intents, sorted by
+ * label, with their icons already sized for the pickers. Kept for the life of the process,
+ * so opening {@link ActivityPicker}, {@link AppWidgetPickActivity} or
+ * {@link KeyguardAppWidgetPickActivity} again doesn't query the package manager, sort or
+ * resize icons. Everything is dropped when a package is added, removed or changed, or the
+ * configuration changes.
+ *
+ * <p>Only used from the UI thread.
+ */
+final class PickerCatalog {
+    private static PickerCatalog sInstance;
+
+    /** An activity matching a picker intent. */
+    static final class ActivityEntry {
+        final CharSequence label;
+        final String packageName;
+        final String className;
+        private final Drawable mIcon;
+
+        ActivityEntry(PickAdapter.Item item) {
+            label = item.label;
+            packageName = item.packageName;
+            className = item.className;
+            mIcon = item.icon;
+        }
+
+        Drawable getIcon() {
+            return newDrawable(mIcon);
+        }
+    }
+
+    private final Context mContext;
+    private final Configuration mConfiguration = new Configuration();
+    private final SparseArray<List<AppWidgetProviderInfo>> mProviders =
+            new SparseArray<List<AppWidgetProviderInfo>>();
+    private final HashMap<ComponentName, Drawable> mProviderIcons =
+            new HashMap<ComponentName, Drawable>();
+    private final HashMap<String, List<ActivityEntry>> mActivities =
+            new HashMap<String, List<ActivityEntry>>();
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            clear();
+        }
+    };
+
+    static PickerCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PickerCatalog(context.getApplicationContext());
+        }
+        sInstance.checkConfiguration();
+        return sInstance;
+    }
+
+    private PickerCatalog(Context context) {
+        mContext = context;
+        mConfiguration.setTo(context.getResources().getConfiguration());
+
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, packageFilter);
+
+        final IntentFilter externalFilter = new IntentFilter();
+        externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        context.registerReceiver(mPackageReceiver, externalFilter);
+    }
+
+    /**
+     * Returns the installed providers in categoryFilter, sorted by label.
+     */
+    List<AppWidgetProviderInfo> getAppWidgetProviders(int categoryFilter) {
+        List<AppWidgetProviderInfo> providers = mProviders.get(categoryFilter);
+        if (providers == null) {
+            final List<AppWidgetProviderInfo> installed = AppWidgetManager.getInstance(mContext)
+                    .getInstalledProviders(categoryFilter);
+            final Collator collator = Collator.getInstance();
+            final SortKey[] keys = new SortKey[installed.size()];
+            for (int i = 0; i < keys.length; i++) {
+                final AppWidgetProviderInfo info = installed.get(i);
+                keys[i] = new SortKey(collator, info.label, info);
+            }
+            Arrays.sort(keys);
+            providers = new ArrayList<AppWidgetProviderInfo>(keys.length);
+            for (SortKey key : keys) {
+                providers.add((AppWidgetProviderInfo) key.value);
+            }
+            providers = Collections.unmodifiableList(providers);
+            mProviders.put(categoryFilter, providers);
+        }
+        return providers;
+    }
+
+    /**
+     * Returns the icon stored for an installed provider with {@link #putProviderIcon}, or null.
+     */
+    Drawable getProviderIcon(ComponentName provider) {
+        return newDrawable(mProviderIcons.get(provider));
+    }
+
+    /**
+     * Keeps the icon of an installed provider, already sized for the picker.
+     */
+    void putProviderIcon(ComponentName provider, Drawable icon) {
+        mProviderIcons.put(provider, icon);
+    }
+
+    /**
+     * Returns the activities matching baseIntent, sorted by label.
+     */
+    List<ActivityEntry> getActivities(Intent baseIntent) {
+        final String key = baseIntent.toUri(0);
+        List<ActivityEntry> activities = mActivities.get(key);
+        if (activities == null) {
+            final PackageManager pm = mContext.getPackageManager();
+            final List<ResolveInfo> list = pm.queryIntentActivities(baseIntent, 0 /* no flags */);
+            final Collator collator = Collator.getInstance();
+            final SortKey[] keys = new SortKey[list.size()];
+            for (int i = 0; i < keys.length; i++) {
+                final ActivityEntry activity = new ActivityEntry(
+                        new PickAdapter.Item(mContext, pm, list.get(i)));
+                keys[i] = new SortKey(collator, activity.label, activity);
+            }
+            Arrays.sort(keys);
+            activities = new ArrayList<ActivityEntry>(keys.length);
+            for (SortKey sortKey : keys) {
+                activities.add((ActivityEntry) sortKey.value);
+            }
+            activities = Collections.unmodifiableList(activities);
+            mActivities.put(key, activities);
+        }
+        return activities;
+    }
+
+    private void checkConfiguration() {
+        // Labels, collation and icon sizes all depend on it.
+        final Configuration config = mContext.getResources().getConfiguration();
+        if (!mConfiguration.equals(config)) {
+            mConfiguration.setTo(config);
+            clear();
+        }
+    }
+
+    private void clear() {
+        mProviders.clear();
+        mProviderIcons.clear();
+        mActivities.clear();
+    }
+
+    /**
+     * Icons are shown by several pickers over time, so each gets its own drawable. Those
+     * without a constant state hold nothing that showing them changes.
+     */
+    private static Drawable newDrawable(Drawable icon) {
+        if (icon == null) {
+            return null;
+        }
+        final Drawable.ConstantState state = icon.getConstantState();
+        return state != null ? state.newDrawable() : icon;
+    }
+
+    private static class SortKey implements Comparable<SortKey> {
+        final CollationKey collationKey;
+        final Object value;
+
+        SortKey(Collator collator, CharSequence label, Object value) {
+            collationKey = collator.getCollationKey(label != null ? label.toString() : "");
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            return collationKey.compareTo(other.collationKey);
+        }
+    }
+}
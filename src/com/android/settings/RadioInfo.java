@@ -55,13 +55,7 @@ import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.PhoneStateIntentReceiver;
 import com.android.internal.telephony.TelephonyProperties;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
 
-import java.io.IOException;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -86,6 +80,14 @@ public class RadioInfo extends Activity {
     private static final int MENU_ITEM_GET_PDP_LIST = 4;
     private static final int MENU_ITEM_TOGGLE_DATA  = 5;
 
+    // This is hardcoded IP addr. This is for testing purposes.
+    // We would need to get rid of this before release.
+    private static final String PING_IP_ADDR = "74.125.47.104";
+    private static final String PING_HOSTNAME = "www.google.com";
+    private static final String HTTP_URL = "http://www.google.com";
+    private static final int PING_REPETITIONS = 5;
+    private static final int PING_TIMEOUT_MS = 5000;
+
     static final String ENABLE_DATA_STR = "Enable data connection";
     static final String DISABLE_DATA_STR = "Disable data connection";
 
@@ -128,9 +130,7 @@ public class RadioInfo extends Activity {
     private Phone phone = null;
     private PhoneStateIntentReceiver mPhoneStateReceiver;
 
-    private String mPingIpAddrResult;
-    private String mPingHostnameResult;
-    private String mHttpClientTestResult;
+    private NetworkDiagnostics mDiagnostics;
     private boolean mMwiValue = false;
     private boolean mCfiValue = false;
     private List<CellInfo> mCellInfoValue;
@@ -377,6 +377,11 @@ public class RadioInfo extends Activity {
 
         mPhoneStateReceiver.unregisterIntent();
         mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
+
+        if (mDiagnostics != null) {
+            mDiagnostics.cancel();
+            mDiagnostics = null;
+        }
     }
 
     @Override
@@ -685,116 +690,40 @@ public class RadioInfo extends Activity {
         received.setText(rxPackets + " " + packets + ", " + rxBytes + " " + bytes);
     }
 
-    /**
-     * Ping a IP address.
-     */
-    private final void pingIpAddr() {
-        try {
-            // This is hardcoded IP addr. This is for testing purposes.
-            // We would need to get rid of this before release.
-            String ipAddress = "74.125.47.104";
-            Process p = Runtime.getRuntime().exec("ping -c 1 " + ipAddress);
-            int status = p.waitFor();
-            if (status == 0) {
-                mPingIpAddrResult = "Pass";
-            } else {
-                mPingIpAddrResult = "Fail: IP addr not reachable";
-            }
-        } catch (IOException e) {
-            mPingIpAddrResult = "Fail: IOException";
-        } catch (InterruptedException e) {
-            mPingIpAddrResult = "Fail: InterruptedException";
-        }
-    }
-
-    /**
-     *  Ping a host name
-     */
-    private final void pingHostname() {
-        try {
-            Process p = Runtime.getRuntime().exec("ping -c 1 www.google.com");
-            int status = p.waitFor();
-            if (status == 0) {
-                mPingHostnameResult = "Pass";
-            } else {
-                mPingHostnameResult = "Fail: Host unreachable";
-            }
-        } catch (UnknownHostException e) {
-            mPingHostnameResult = "Fail: Unknown Host";
-        } catch (IOException e) {
-            mPingHostnameResult= "Fail: IOException";
-        } catch (InterruptedException e) {
-            mPingHostnameResult = "Fail: InterruptedException";
-        }
-    }
-
-    /**
-     * This function checks for basic functionality of HTTP Client.
-     */
-    private void httpClientTest() {
-        HttpClient client = new DefaultHttpClient();
-        try {
-            HttpGet request = new HttpGet("http://www.google.com");
-            HttpResponse response = client.execute(request);
-            if (response.getStatusLine().getStatusCode() == 200) {
-                mHttpClientTestResult = "Pass";
-            } else {
-                mHttpClientTestResult = "Fail: Code: " + String.valueOf(response);
-            }
-            request.abort();
-        } catch (IOException e) {
-            mHttpClientTestResult = "Fail: IOException";
-        }
-    }
-
     private void refreshSmsc() {
         phone.getSmscAddress(mHandler.obtainMessage(EVENT_QUERY_SMSC_DONE));
     }
 
     private final void updatePingState() {
-        final Handler handler = new Handler();
-        // Set all to unknown since the threads will take a few secs to update.
-        mPingIpAddrResult = getResources().getString(R.string.radioInfo_unknown);
-        mPingHostnameResult = getResources().getString(R.string.radioInfo_unknown);
-        mHttpClientTestResult = getResources().getString(R.string.radioInfo_unknown);
-
-        mPingIpAddr.setText(mPingIpAddrResult);
-        mPingHostname.setText(mPingHostnameResult);
-        mHttpClientTest.setText(mHttpClientTestResult);
-
-        final Runnable updatePingResults = new Runnable() {
-            public void run() {
-                mPingIpAddr.setText(mPingIpAddrResult);
-                mPingHostname.setText(mPingHostnameResult);
-                mHttpClientTest.setText(mHttpClientTestResult);
-            }
-        };
-        Thread ipAddr = new Thread() {
-            @Override
-            public void run() {
-                pingIpAddr();
-                handler.post(updatePingResults);
-            }
-        };
-        ipAddr.start();
+        if (mDiagnostics != null) {
+            mDiagnostics.cancel();
+        }
+        // Set all to unknown since the probes will take a few secs to report.
+        final String unknown = getResources().getString(R.string.radioInfo_unknown);
+        final TextView[] resultViews = { mPingIpAddr, mPingHostname, mHttpClientTest };
+        for (TextView view : resultViews) {
+            view.setText(unknown);
+        }
+
+        final List<NetworkDiagnostics.Target> targets = new ArrayList<NetworkDiagnostics.Target>();
+        targets.add(new NetworkDiagnostics.Target(NetworkDiagnostics.TYPE_PING, PING_IP_ADDR));
+        targets.add(new NetworkDiagnostics.Target(NetworkDiagnostics.TYPE_PING, PING_HOSTNAME));
+        targets.add(new NetworkDiagnostics.Target(NetworkDiagnostics.TYPE_HTTP, HTTP_URL));
 
-        Thread hostname = new Thread() {
+        mDiagnostics = new NetworkDiagnostics(targets, PING_REPETITIONS, PING_TIMEOUT_MS,
+                new NetworkDiagnostics.Listener() {
             @Override
-            public void run() {
-                pingHostname();
-                handler.post(updatePingResults);
+            public void onResult(int targetIndex, NetworkDiagnostics.Stats stats) {
+                resultViews[targetIndex].setText(stats.toString());
             }
-        };
-        hostname.start();
 
-        Thread httpClient = new Thread() {
             @Override
-            public void run() {
-                httpClientTest();
-                handler.post(updatePingResults);
+            public void onFinished() {
+                pingTestButton.setEnabled(true);
             }
-        };
-        httpClient.start();
+        });
+        pingTestButton.setEnabled(false);
+        mDiagnostics.start();
     }
 
     private final void updatePdpList() {
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.app.ListFragment;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.preference.PreferenceActivity;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Finds settings by the words in their titles and summaries, using
+ * {@link SettingsSearchIndex}, and opens the screen a chosen one is on.
+ */
+public class SearchSettings extends ListFragment {
+    /**
+     * Fragments of the top-level headers currently shown. Settings under other headers
+     * are left out of the results.
+     */
+    public static final String EXTRA_VISIBLE_HEADERS = "visible_headers";
+
+    private static final int MAX_RESULTS = 50;
+
+    private EditText mQuery;
+    private ResultAdapter mAdapter;
+    private HashSet<String> mVisibleHeaders;
+    private SettingsSearchIndex mIndex;
+    private IndexLoader mLoader;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        final Bundle args = getArguments();
+        final ArrayList<String> visible = args != null
+                ? args.getStringArrayList(EXTRA_VISIBLE_HEADERS) : null;
+        if (visible != null) {
+            mVisibleHeaders = new HashSet<String>(visible);
+        }
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        final View view = inflater.inflate(R.layout.search_settings, container, false);
+        mQuery = (EditText) view.findViewById(R.id.search_query);
+        mQuery.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                updateResults();
+            }
+        });
+        return view;
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        mAdapter = new ResultAdapter(getActivity());
+        setListAdapter(mAdapter);
+        // Building the index the first time parses every screen's XML.
+        mLoader = new IndexLoader(getActivity().getApplicationContext());
+        mLoader.execute();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mLoader != null) {
+            mLoader.cancel(false);
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onListItemClick(ListView l, View v, int position, long id) {
+        final SettingsSearchIndex.Result result = mAdapter.getItem(position);
+        ((PreferenceActivity) getActivity()).startPreferencePanel(result.fragment, null, 0,
+                result.fragmentTitle, null, 0);
+    }
+
+    private void updateResults() {
+        if (mIndex == null) return;
+        final String query = mQuery.getText().toString();
+        mAdapter.setResults(TextUtils.isEmpty(query)
+                ? new ArrayList<SettingsSearchIndex.Result>()
+                : mIndex.query(query, mVisibleHeaders, MAX_RESULTS));
+    }
+
+    private class IndexLoader extends AsyncTask<Void, Void, SettingsSearchIndex> {
+        private final Context mContext;
+
+        IndexLoader(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected SettingsSearchIndex doInBackground(Void... params) {
+            return SettingsSearchIndex.open(mContext);
+        }
+
+        @Override
+        protected void onPostExecute(SettingsSearchIndex index) {
+            mLoader = null;
+            mIndex = index;
+            updateResults();
+        }
+    }
+
+    private static class ResultAdapter extends BaseAdapter {
+        private final LayoutInflater mInflater;
+        private List<SettingsSearchIndex.Result> mResults =
+                new ArrayList<SettingsSearchIndex.Result>();
+
+        ResultAdapter(Context context) {
+            mInflater = (LayoutInflater) context.getSystemService(
+                    Context.LAYOUT_INFLATER_SERVICE);
+        }
+
+        void setResults(List<SettingsSearchIndex.Result> results) {
+            mResults = results;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return mResults.size();
+        }
+
+        @Override
+        public SettingsSearchIndex.Result getItem(int position) {
+            return mResults.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View view = convertView != null ? convertView
+                    : mInflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+            final SettingsSearchIndex.Result result = mResults.get(position);
+            final TextView title = (TextView) view.findViewById(android.R.id.text1);
+            final TextView summary = (TextView) view.findViewById(android.R.id.text2);
+            title.setText(result.title);
+            if (result.breadcrumb != null) {
+                summary.setText(result.breadcrumb);
+                summary.setVisibility(View.VISIBLE);
+            } else {
+                summary.setVisibility(View.GONE);
+            }
+            return view;
+        }
+    }
+}
@@ -52,6 +52,7 @@ import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.PhoneConstants;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -68,7 +69,6 @@ public class SecuritySettings extends RestrictedSettingsFragment
     private static final String KEY_BIOMETRIC_WEAK_LIVELINESS = "biometric_weak_liveliness";
     private static final String KEY_LOCK_ENABLED = "lockenabled";
     private static final String KEY_VISIBLE_PATTERN = "visiblepattern";
-    private static final String KEY_SECURITY_CATEGORY = "security_category";
     private static final String KEY_DEVICE_ADMIN_CATEGORY = "device_admin_category";
     private static final String KEY_LOCK_AFTER_TIMEOUT = "lock_after_timeout";
     private static final String KEY_OWNER_INFO_SETTINGS = "owner_info_settings";
@@ -179,7 +179,9 @@ public class SecuritySettings extends RestrictedSettingsFragment
         if (root != null) {
             root.removeAll();
         }
-        addPreferencesFromResource(R.xml.security_settings);
+        // Preferences that are never shown here are left out while inflating.
+        final HashSet<String> excludedKeys = new HashSet<String>();
+        addPreferencesFromResource(R.xml.security_settings, excludedKeys);
         root = getPreferenceScreen();
 
         // Add options for lock/unlock screen
@@ -212,10 +214,20 @@ public class SecuritySettings extends RestrictedSettingsFragment
                     resid = R.xml.security_settings_password;
                     break;
             }
+        }
+        // don't display visible pattern if biometric and backup is not pattern
+        if (resid == R.xml.security_settings_biometric_weak &&
+                mLockPatternUtils.getKeyguardStoredPasswordQuality() !=
+                DevicePolicyManager.PASSWORD_QUALITY_SOMETHING) {
+            excludedKeys.add(KEY_VISIBLE_PATTERN);
+        }
+        // Widgets take a lot of RAM, so disable them on low-memory devices
+        if (ActivityManager.isLowRamDeviceStatic() || mLockPatternUtils.isLockScreenDisabled()) {
+            excludedKeys.add(KEY_ENABLE_WIDGETS);
         }
 		final boolean disableLockScreenForever = SystemProperties.getBoolean("keyguard.disable", true);
 		if(disableLockScreenForever == false)
-        	addPreferencesFromResource(resid);
+        	addPreferencesFromResource(resid, excludedKeys);
 
 
         // Add options for device encryption
@@ -237,11 +249,11 @@ public class SecuritySettings extends RestrictedSettingsFragment
             switch (mDPM.getStorageEncryptionStatus()) {
             case DevicePolicyManager.ENCRYPTION_STATUS_ACTIVE:
                 // The device is currently encrypted.
-                addPreferencesFromResource(R.xml.security_settings_encrypted);
+                addPreferencesFromResource(R.xml.security_settings_encrypted, excludedKeys);
                 break;
             case DevicePolicyManager.ENCRYPTION_STATUS_INACTIVE:
                 // This device supports encryption but isn't encrypted.
-                addPreferencesFromResource(R.xml.security_settings_unencrypted);
+                addPreferencesFromResource(R.xml.security_settings_unencrypted, excludedKeys);
                 break;
             }
         }
@@ -264,19 +276,15 @@ public class SecuritySettings extends RestrictedSettingsFragment
         mPowerButtonInstantlyLocks = (CheckBoxPreference) root.findPreference(
                 KEY_POWER_INSTANTLY_LOCKS);
 
-        // don't display visible pattern if biometric and backup is not pattern
-        if (resid == R.xml.security_settings_biometric_weak &&
-                mLockPatternUtils.getKeyguardStoredPasswordQuality() !=
-                DevicePolicyManager.PASSWORD_QUALITY_SOMETHING) {
-            PreferenceGroup securityCategory = (PreferenceGroup)
-                    root.findPreference(KEY_SECURITY_CATEGORY);
-            if (securityCategory != null && mVisiblePattern != null) {
-                securityCategory.removePreference(root.findPreference(KEY_VISIBLE_PATTERN));
-            }
-        }
-
         // Append the rest of the settings
-        addPreferencesFromResource(R.xml.security_settings_misc);
+        final UserManager um = (UserManager) getActivity().getSystemService(Context.USER_SERVICE);
+        if (um.hasUserRestriction(UserManager.DISALLOW_CONFIG_CREDENTIALS)) {
+            excludedKeys.add(KEY_CREDENTIALS_MANAGER);
+        }
+        if (NotificationAccessSettings.getListenersCount(mPM) == 0) {
+            excludedKeys.add(KEY_NOTIFICATION_ACCESS);
+        }
+        addPreferencesFromResource(R.xml.security_settings_misc, excludedKeys);
 
         // Do not display SIM lock for devices without an Icc card
         tm = TelephonyManager.getDefault();
@@ -296,26 +304,15 @@ public class SecuritySettings extends RestrictedSettingsFragment
         // Enable or disable keyguard widget checkbox based on DPM state
         mEnableKeyguardWidgets = (CheckBoxPreference) root.findPreference(KEY_ENABLE_WIDGETS);
         if (mEnableKeyguardWidgets != null) {
-            if (ActivityManager.isLowRamDeviceStatic()
-                    || mLockPatternUtils.isLockScreenDisabled()) {
-                // Widgets take a lot of RAM, so disable them on low-memory devices
-                PreferenceGroup securityCategory
-                        = (PreferenceGroup) root.findPreference(KEY_SECURITY_CATEGORY);
-                if (securityCategory != null) {
-                    securityCategory.removePreference(root.findPreference(KEY_ENABLE_WIDGETS));
-                    mEnableKeyguardWidgets = null;
-                }
+            final boolean disabled = (0 != (mDPM.getKeyguardDisabledFeatures(null)
+                    & DevicePolicyManager.KEYGUARD_DISABLE_WIDGETS_ALL));
+            if (disabled) {
+                mEnableKeyguardWidgets.setSummary(
+                        R.string.security_enable_widgets_disabled_summary);
             } else {
-                final boolean disabled = (0 != (mDPM.getKeyguardDisabledFeatures(null)
-                        & DevicePolicyManager.KEYGUARD_DISABLE_WIDGETS_ALL));
-                if (disabled) {
-                    mEnableKeyguardWidgets.setSummary(
-                            R.string.security_enable_widgets_disabled_summary);
-                } else {
-                    mEnableKeyguardWidgets.setSummary("");
-                }
-                mEnableKeyguardWidgets.setEnabled(!disabled);
+                mEnableKeyguardWidgets.setSummary("");
             }
+            mEnableKeyguardWidgets.setEnabled(!disabled);
         }
 
         // Show password
@@ -323,18 +320,14 @@ public class SecuritySettings extends RestrictedSettingsFragment
         mResetCredentials = root.findPreference(KEY_RESET_CREDENTIALS);
 
         // Credential storage
-        final UserManager um = (UserManager) getActivity().getSystemService(Context.USER_SERVICE);
         mKeyStore = KeyStore.getInstance(); // needs to be initialized for onResume()
-        if (!um.hasUserRestriction(UserManager.DISALLOW_CONFIG_CREDENTIALS)) {
+        if (!excludedKeys.contains(KEY_CREDENTIALS_MANAGER)) {
             Preference credentialStorageType = root.findPreference(KEY_CREDENTIAL_STORAGE_TYPE);
 
             final int storageSummaryRes =
                 mKeyStore.isHardwareBacked() ? R.string.credential_storage_type_hardware
                         : R.string.credential_storage_type_software;
             credentialStorageType.setSummary(storageSummaryRes);
-
-        } else {
-            removePreference(KEY_CREDENTIALS_MANAGER);
         }
 
         // Application install
@@ -366,21 +359,14 @@ public class SecuritySettings extends RestrictedSettingsFragment
 
         mNotificationAccess = findPreference(KEY_NOTIFICATION_ACCESS);
         if (mNotificationAccess != null) {
-            final int total = NotificationAccessSettings.getListenersCount(mPM);
-            if (total == 0) {
-                if (deviceAdminCategory != null) {
-                    deviceAdminCategory.removePreference(mNotificationAccess);
-                }
+            final int n = getNumEnabledNotificationListeners();
+            if (n == 0) {
+                mNotificationAccess.setSummary(getResources().getString(
+                        R.string.manage_notification_access_summary_zero));
             } else {
-                final int n = getNumEnabledNotificationListeners();
-                if (n == 0) {
-                    mNotificationAccess.setSummary(getResources().getString(
-                            R.string.manage_notification_access_summary_zero));
-                } else {
-                    mNotificationAccess.setSummary(String.format(getResources().getQuantityString(
-                            R.plurals.manage_notification_access_summary_nonzero,
-                            n, n)));
-                }
+                mNotificationAccess.setSummary(String.format(getResources().getQuantityString(
+                        R.plurals.manage_notification_access_summary_nonzero,
+                        n, n)));
             }
         }
 
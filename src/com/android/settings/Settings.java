@@ -48,6 +48,8 @@ import android.preference.PreferenceFragment;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
@@ -123,6 +125,8 @@ public class Settings extends PreferenceActivity
 
     static final int DIALOG_ONLY_ONE_HOME = 1;
 
+    private static final int MENU_SEARCH = Menu.FIRST;
+
     private static boolean sShowNoHomeNotice = false;
 
     private String mFragmentClass;
@@ -350,7 +354,8 @@ public class Settings extends PreferenceActivity
         PaymentSettings.class.getName(),
         KeyboardLayoutPickerFragment.class.getName(),
         HomeSettings.class.getName(),
-        EthernetSettings.class.getName()
+        EthernetSettings.class.getName(),
+        SearchSettings.class.getName()
     };
 
     @Override
@@ -1011,6 +1016,35 @@ public class Settings extends PreferenceActivity
         }
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Only offered with the headers, where all the settings are reachable from.
+        if (!onIsHidingHeaders()) {
+            menu.add(Menu.NONE, MENU_SEARCH, 0, R.string.search_settings)
+                    .setIcon(android.R.drawable.ic_menu_search)
+                    .setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+        }
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == MENU_SEARCH) {
+            final ArrayList<String> visible = new ArrayList<String>();
+            for (Header header : getHeaders()) {
+                if (header.fragment != null) {
+                    visible.add(header.fragment);
+                }
+            }
+            final Bundle args = new Bundle();
+            args.putStringArrayList(SearchSettings.EXTRA_VISIBLE_HEADERS, visible);
+            startPreferencePanel(SearchSettings.class.getName(), args, R.string.search_settings,
+                    null, null, 0);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     @Override
     public boolean onPreferenceStartFragment(PreferenceFragment caller, Preference pref) {
         // Override the fragment title for Wallpaper settings
@@ -16,31 +16,31 @@
 
 package com.android.settings;
 
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.os.SystemProperties;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.View;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
 import android.widget.Toast;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnDismissListener;
-import android.content.res.Configuration;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.zip.GZIPInputStream;
 
 /**
  * The "dialog" that shows from "License" in the Settings app.
+ *
+ * <p>Shows a list of the sections of the license file, and the license text of one section
+ * at a time when it is picked. See {@link LicenseIndex}.
  */
 public class SettingsLicenseActivity extends Activity {
 
@@ -50,81 +50,72 @@ public class SettingsLicenseActivity extends Activity {
     private static final String DEFAULT_LICENSE_PATH = "/system/etc/NOTICE.html.gz";
     private static final String PROPERTY_LICENSE_PATH = "ro.config.license_path";
 
-    private Handler mHandler;
-    private WebView mWebView;
+    private LicenseIndex mIndex;
     private ProgressDialog mSpinnerDlg;
+    private AlertDialog mTocDlg;
     private AlertDialog mTextDlg;
+    private AsyncTask<?, ?, ?> mTask;
 
-    private class LicenseFileLoader implements Runnable {
-
-        private static final String INNER_TAG = "SettingsLicenseActivity.LicenseFileLoader";
-        public static final int STATUS_OK = 0;
-        public static final int STATUS_NOT_FOUND = 1;
-        public static final int STATUS_READ_ERROR = 2;
-        public static final int STATUS_EMPTY_FILE = 3;
+    private class LicenseIndexLoader extends AsyncTask<Void, Void, LicenseIndex> {
+        private final String mFileName;
 
-        private String mFileName;
-        private Handler mHandler;
-
-        public LicenseFileLoader(String fileName, Handler handler) {
+        LicenseIndexLoader(String fileName) {
             mFileName = fileName;
-            mHandler = handler;
         }
 
-        public void run() {
-
-            int status = STATUS_OK;
-
-            InputStreamReader inputReader = null;
-            StringBuilder data = new StringBuilder(2048);
+        @Override
+        protected LicenseIndex doInBackground(Void... params) {
             try {
-                char[] tmp = new char[2048];
-                int numRead;
-                if (mFileName.endsWith(".gz")) {
-                    inputReader = new InputStreamReader(
-                        new GZIPInputStream(new FileInputStream(mFileName)));
-                } else {
-                    inputReader = new FileReader(mFileName);
-                }
-
-                while ((numRead = inputReader.read(tmp)) >= 0) {
-                    data.append(tmp, 0, numRead);
-                }
-            } catch (FileNotFoundException e) {
-                Log.e(INNER_TAG, "License HTML file not found at " + mFileName, e);
-                status = STATUS_NOT_FOUND;
+                return LicenseIndex.open(mFileName, getCacheDir());
             } catch (IOException e) {
-                Log.e(INNER_TAG, "Error reading license HTML file at " + mFileName, e);
-                status = STATUS_READ_ERROR;
-            } finally {
-                try {
-                    if (inputReader != null) {
-                        inputReader.close();
-                    }
-                } catch (IOException e) {
-                }
+                Log.e(TAG, "Error reading license file at " + mFileName, e);
+                return null;
             }
+        }
 
-            if ((status == STATUS_OK) && TextUtils.isEmpty(data)) {
-                Log.e(INNER_TAG, "License HTML is empty (from " + mFileName + ")");
-                status = STATUS_EMPTY_FILE;
+        @Override
+        protected void onPostExecute(LicenseIndex index) {
+            mTask = null;
+            if (index == null) {
+                showErrorAndFinish();
+                return;
             }
-
-            // Tell the UI thread that we are finished.
-            Message msg = mHandler.obtainMessage(status, null);
-            if (status == STATUS_OK) {
-                msg.obj = data.toString();
+            mIndex = index;
+            if (index.getSectionCount() == 1) {
+                showSection(0);
+            } else {
+                mSpinnerDlg.dismiss();
+                showTableOfContents();
             }
-            mHandler.sendMessage(msg);
         }
     }
 
-    public SettingsLicenseActivity() {
-        super();
-        mHandler = null;
-        mWebView = null;
-        mSpinnerDlg = null;
-        mTextDlg = null;
+    private class LicenseSectionLoader extends AsyncTask<Void, Void, String> {
+        private final int mSection;
+
+        LicenseSectionLoader(int section) {
+            mSection = section;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            try {
+                return mIndex.loadSection(mSection);
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading license section " + mSection, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String text) {
+            mTask = null;
+            if (text == null) {
+                showErrorAndFinish();
+                return;
+            }
+            showPageOfText(text);
+        }
     }
 
     @Override
@@ -142,23 +133,6 @@ public class SettingsLicenseActivity extends Activity {
         // so set it invisible to avoid displaying the title text in the background.
         setVisible(false);
 
-        mWebView = new WebView(this);
-
-        mHandler = new Handler() {
-
-            @Override
-            public void handleMessage(Message msg) {
-                super.handleMessage(msg);
-
-                if (msg.what == LicenseFileLoader.STATUS_OK) {
-                    String text = (String) msg.obj;
-                    showPageOfText(text);
-                } else {
-                    showErrorAndFinish();
-                }
-            }
-        };
-
         CharSequence title = getText(R.string.settings_license_activity_title);
         CharSequence msg = getText(R.string.settings_license_activity_loading);
 
@@ -166,40 +140,91 @@ public class SettingsLicenseActivity extends Activity {
         pd.setProgressStyle(ProgressDialog.STYLE_SPINNER);
         mSpinnerDlg = pd;
 
-        // Start separate thread to do the actual loading.
-        Thread thread = new Thread(new LicenseFileLoader(fileName, mHandler));
-        thread.start();
+        // Decompressing and indexing the file takes a while the first time.
+        mTask = new LicenseIndexLoader(fileName).execute();
     }
 
     @Override
     protected void onDestroy() {
+        if (mTask != null) {
+            mTask.cancel(false);
+        }
         if (mTextDlg != null && mTextDlg.isShowing()) {
             mTextDlg.dismiss();
         }
+        if (mTocDlg != null && mTocDlg.isShowing()) {
+            mTocDlg.dismiss();
+        }
         if (mSpinnerDlg != null && mSpinnerDlg.isShowing()) {
             mSpinnerDlg.dismiss();
         }
         super.onDestroy();
     }
 
+    private void showTableOfContents() {
+        final String[] labels = new String[mIndex.getSectionCount()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = mIndex.getLabel(i);
+        }
+        final ListView list = new ListView(this);
+        list.setAdapter(new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1,
+                labels));
+        list.setFastScrollEnabled(true);
+        list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                showSection(position);
+            }
+        });
+
+        mTocDlg = new AlertDialog.Builder(this)
+                .setCancelable(true)
+                .setView(list)
+                .setTitle(R.string.settings_license_activity_title)
+                .create();
+        mTocDlg.setOnDismissListener(new OnDismissListener() {
+
+            public void onDismiss(DialogInterface dlgi) {
+                SettingsLicenseActivity.this.finish();
+            }
+        });
+        mTocDlg.show();
+    }
+
+    private void showSection(int section) {
+        if (mTask != null) {
+            return;
+        }
+        if (!mSpinnerDlg.isShowing()) {
+            mSpinnerDlg.show();
+        }
+        mTask = new LicenseSectionLoader(section).execute();
+    }
+
     private void showPageOfText(String text) {
+        final WebView webView = new WebView(this);
+
         // Create an AlertDialog to display the WebView in.
         AlertDialog.Builder builder = new AlertDialog.Builder(SettingsLicenseActivity.this);
         builder.setCancelable(true)
-               .setView(mWebView)
+               .setView(webView)
                .setTitle(R.string.settings_license_activity_title);
 
         mTextDlg = builder.create();
         mTextDlg.setOnDismissListener(new OnDismissListener() {
 
             public void onDismiss(DialogInterface dlgi) {
-                SettingsLicenseActivity.this.finish();
+                webView.destroy();
+                // Back to the list of sections, if there is one.
+                if (mTocDlg == null) {
+                    SettingsLicenseActivity.this.finish();
+                }
             }
         });
 
         // Begin the loading.  This will be done in a separate thread in WebView.
-        mWebView.loadDataWithBaseURL(null, text, "text/html", "utf-8", null);
-        mWebView.setWebViewClient(new WebViewClient() {
+        webView.loadDataWithBaseURL(null, text, "text/html", "utf-8", null);
+        webView.setWebViewClient(new WebViewClient() {
             @Override
             public void onPageFinished(WebView view, String url) {
                 mSpinnerDlg.dismiss();
@@ -208,13 +233,13 @@ public class SettingsLicenseActivity extends Activity {
                 }
             }
         });
-
-        mWebView = null;
     }
 
     private void showErrorAndFinish() {
-        mSpinnerDlg.dismiss();
-        mSpinnerDlg = null;
+        if (mSpinnerDlg != null) {
+            mSpinnerDlg.dismiss();
+            mSpinnerDlg = null;
+        }
         Toast.makeText(this, R.string.settings_license_activity_unavailable, Toast.LENGTH_LONG)
                 .show();
         finish();
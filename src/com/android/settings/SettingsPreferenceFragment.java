@@ -36,6 +36,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.Button;
 
+import java.util.Set;
+
 /**
  * Base class for Settings fragments, with some helper functions and dialog management.
  */
@@ -71,6 +73,15 @@ public class SettingsPreferenceFragment extends PreferenceFragment implements Di
         }
     }
 
+    /**
+     * Adds the preferences from the resource, leaving out the ones with the given keys along
+     * with everything under them. Unlike removing them afterwards, they are never created.
+     */
+    protected void addPreferencesFromResource(int preferencesResId, Set<String> excludedKeys) {
+        setPreferenceScreen(CachedPreferenceInflater.inflate(getActivity(),
+                getPreferenceManager(), preferencesResId, getPreferenceScreen(), excludedKeys));
+    }
+
     protected void removePreference(String key) {
         Preference pref = findPreference(key);
         if (pref != null) {
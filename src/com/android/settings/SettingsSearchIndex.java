@@ -0,0 +1,603 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+
+import com.android.settings.accessibility.AccessibilitySettings;
+import com.android.settings.accessibility.CaptionPropertiesFragment;
+import com.android.settings.bluetooth.BluetoothSettings;
+import com.android.settings.deviceinfo.Memory;
+import com.android.settings.deviceinfo.UsbSettings;
+import com.android.settings.fuelgauge.PowerUsageSummary;
+import com.android.settings.inputmethod.InputMethodAndLanguageSettings;
+import com.android.settings.inputmethod.SpellCheckersSettings;
+import com.android.settings.location.LocationMode;
+import com.android.settings.location.LocationSettings;
+import com.android.settings.print.PrintSettingsFragment;
+import com.android.settings.tts.TextToSpeechSettings;
+import com.android.settings.users.UserSettings;
+import com.android.settings.vpn2.VpnSettings;
+import com.android.settings.wfd.WifiDisplaySettings;
+import com.android.settings.wifi.AdvancedWifiSettings;
+import com.android.settings.wifi.WifiSettings;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Search index over the titles and summaries of the top-level headers and the preferences
+ * on the main settings screens, so a setting can be found without opening every fragment.
+ *
+ * <p>The index is made from the compiled preference XML without inflating any fragment,
+ * the first time it is needed for a locale, and saved in the cache directory in a compact
+ * binary form which later opens are memory-mapped from. It is rebuilt when the locale or the
+ * installed package changes. Queries are prefix matches of every word of the query against
+ * the words of the indexed strings, answered by binary search over a sorted word table.
+ *
+ * <p>Screens that build their preferences in code are only found by their header or by the
+ * preference that leads to them.
+ */
+final class SettingsSearchIndex {
+    private static final String TAG = "SettingsSearchIndex";
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    private static final int MAGIC = 0x53534958;
+    private static final int VERSION = 2;
+    private static final String FILE_PREFIX = "search_index_";
+
+    private static final int HEADER_SIZE = 24;
+    private static final int ENTRY_FIELDS = 7;
+    private static final int ENTRY_SIZE = ENTRY_FIELDS * 4;
+    private static final int TOKEN_SIZE = 8;
+
+    private static final int FIELD_TITLE = 0;
+    private static final int FIELD_SUMMARY = 1;
+    private static final int FIELD_KEY = 2;
+    private static final int FIELD_FRAGMENT = 3;
+    private static final int FIELD_FRAGMENT_TITLE = 4;
+    private static final int FIELD_BREADCRUMB = 5;
+    private static final int FIELD_ROOT = 6;
+
+    /**
+     * The indexed screens: preference XML, the fragment showing it, its title, and the
+     * fragment of the top-level header it is reached from. Results are opened with
+     * {@link android.preference.PreferenceActivity#startPreferencePanel}, so only screens
+     * shown by a fragment can be listed here, not activities such as the device status.
+     */
+    private static final Screen[] SCREENS = {
+        new Screen(R.xml.wireless_settings, WirelessSettings.class,
+                R.string.radio_controls_title, WirelessSettings.class),
+        new Screen(R.xml.wifi_advanced_settings, AdvancedWifiSettings.class,
+                R.string.wifi_advanced_titlebar, WifiSettings.class),
+        new Screen(R.xml.bluetooth_settings, BluetoothSettings.class,
+                R.string.bluetooth_settings_title, BluetoothSettings.class),
+        new Screen(R.xml.tether_prefs, TetherSettings.class,
+                R.string.tether_settings_title_all, WirelessSettings.class),
+        new Screen(R.xml.vpn_settings2, VpnSettings.class,
+                R.string.vpn_settings_title, WirelessSettings.class),
+        new Screen(R.xml.home_selection, HomeSettings.class,
+                R.string.home_settings, HomeSettings.class),
+        new Screen(R.xml.sound_settings, SoundSettings.class,
+                R.string.sound_settings, SoundSettings.class),
+        new Screen(R.xml.display_settings, DisplaySettings.class,
+                R.string.display_settings, DisplaySettings.class),
+        new Screen(R.xml.wifi_display_settings, WifiDisplaySettings.class,
+                R.string.wifi_display_settings_title, DisplaySettings.class),
+        new Screen(R.xml.device_info_memory, Memory.class,
+                R.string.storage_settings, Memory.class),
+        new Screen(R.xml.usb_settings, UsbSettings.class,
+                R.string.storage_title_usb, Memory.class),
+        new Screen(R.xml.power_usage_summary, PowerUsageSummary.class,
+                R.string.power_usage_summary_title, PowerUsageSummary.class),
+        new Screen(R.xml.user_settings, UserSettings.class,
+                R.string.user_settings_title, UserSettings.class),
+        new Screen(R.xml.location_settings, LocationSettings.class,
+                R.string.location_settings_title, LocationSettings.class),
+        new Screen(R.xml.location_mode, LocationMode.class,
+                R.string.location_mode_screen_title, LocationSettings.class),
+        new Screen(R.xml.security_settings_misc, SecuritySettings.class,
+                R.string.security_settings_title, SecuritySettings.class),
+        new Screen(R.xml.language_settings, InputMethodAndLanguageSettings.class,
+                R.string.language_settings, InputMethodAndLanguageSettings.class),
+        new Screen(R.xml.spellchecker_prefs, SpellCheckersSettings.class,
+                R.string.spellcheckers_settings_title, InputMethodAndLanguageSettings.class),
+        new Screen(R.xml.tts_settings, TextToSpeechSettings.class,
+                R.string.tts_settings_title, InputMethodAndLanguageSettings.class),
+        new Screen(R.xml.privacy_settings, PrivacySettings.class,
+                R.string.privacy_settings, PrivacySettings.class),
+        new Screen(R.xml.date_time_prefs, DateTimeSettings.class,
+                R.string.date_and_time_settings_title, DateTimeSettings.class),
+        new Screen(R.xml.accessibility_settings, AccessibilitySettings.class,
+                R.string.accessibility_settings, AccessibilitySettings.class),
+        new Screen(R.xml.captioning_settings, CaptionPropertiesFragment.class,
+                R.string.accessibility_captioning_title, AccessibilitySettings.class),
+        new Screen(R.xml.print_settings, PrintSettingsFragment.class,
+                R.string.print_settings, PrintSettingsFragment.class),
+        new Screen(R.xml.development_prefs, DevelopmentSettings.class,
+                R.string.development_settings_title, DevelopmentSettings.class),
+        new Screen(R.xml.device_info_settings, DeviceInfoSettings.class,
+                R.string.about_settings, DeviceInfoSettings.class),
+    };
+
+    private static SettingsSearchIndex sInstance;
+
+    private static class Screen {
+        final int xmlRes;
+        final String fragment;
+        final int titleRes;
+        final String root;
+
+        Screen(int xmlRes, Class<?> fragment, int titleRes, Class<?> root) {
+            this.xmlRes = xmlRes;
+            this.fragment = fragment.getName();
+            this.titleRes = titleRes;
+            this.root = root.getName();
+        }
+    }
+
+    /** One indexed preference or header. */
+    static class Result {
+        String title;
+        String summary;
+        String key;
+        /** Fragment to open to get to it, and the title to show for that fragment. */
+        String fragment;
+        String fragmentTitle;
+        /** Title of the screen it is on, or null for a top-level header. */
+        String breadcrumb;
+        /** Fragment of the top-level header it is under. */
+        String root;
+    }
+
+    private final String mLocale;
+    private final ByteBuffer mBuffer;
+    private final int mEntryCount;
+    private final int mTokenCount;
+    private final int mTokensStart;
+
+    private SettingsSearchIndex(String locale, ByteBuffer buffer) {
+        mLocale = locale;
+        mBuffer = buffer;
+        mEntryCount = buffer.getInt(16);
+        mTokenCount = buffer.getInt(20);
+        mTokensStart = HEADER_SIZE + mEntryCount * ENTRY_SIZE;
+    }
+
+    /**
+     * Returns the index for the current locale, building it if there is no up-to-date one
+     * yet. Can take a while the first time, so don't call this on the UI thread.
+     */
+    static synchronized SettingsSearchIndex open(Context context) {
+        final Resources res = context.getResources();
+        final String locale = res.getConfiguration().locale.toString();
+        if (sInstance != null && sInstance.mLocale.equals(locale)) {
+            return sInstance;
+        }
+
+        long updateTime = 0;
+        try {
+            updateTime = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Can't happen for our own package; the index is just never reused then.
+        }
+
+        final File file = new File(context.getCacheDir(), FILE_PREFIX + locale);
+        ByteBuffer buffer = map(file, updateTime);
+        if (buffer == null) {
+            final byte[] bytes = build(res, updateTime);
+            save(context.getCacheDir(), file, bytes);
+            buffer = ByteBuffer.wrap(bytes);
+        }
+        sInstance = new SettingsSearchIndex(locale, buffer);
+        return sInstance;
+    }
+
+    /**
+     * Returns up to maxResults entries matching every word of the query, those matching on
+     * their title first. Entries under a top-level header not in roots are left out, unless
+     * roots is null.
+     */
+    List<Result> query(String query, Set<String> roots, int maxResults) {
+        final ArrayList<String> words = tokenize(query);
+        final ArrayList<Result> results = new ArrayList<Result>();
+        if (words.isEmpty()) {
+            return results;
+        }
+
+        BitSet any = null;
+        BitSet titles = null;
+        for (String word : words) {
+            final BitSet wordAny = new BitSet(mEntryCount);
+            final BitSet wordTitles = new BitSet(mEntryCount);
+            for (int i = lowerBound(word); i < mTokenCount; i++) {
+                final int token = mTokensStart + i * TOKEN_SIZE;
+                if (!startsWith(mBuffer.getInt(token), word)) break;
+                final int value = mBuffer.getInt(token + 4);
+                wordAny.set(value >> 1);
+                if ((value & 1) == 0) {
+                    wordTitles.set(value >> 1);
+                }
+            }
+            if (any == null) {
+                any = wordAny;
+                titles = wordTitles;
+            } else {
+                any.and(wordAny);
+                titles.and(wordTitles);
+            }
+        }
+
+        any.andNot(titles);
+        addResults(titles, roots, maxResults, results);
+        addResults(any, roots, maxResults, results);
+        return results;
+    }
+
+    private void addResults(BitSet entries, Set<String> roots, int maxResults,
+            ArrayList<Result> results) {
+        for (int i = entries.nextSetBit(0); i >= 0 && results.size() < maxResults;
+                i = entries.nextSetBit(i + 1)) {
+            final int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            final String root = readString(mBuffer.getInt(entry + FIELD_ROOT * 4));
+            if (roots != null && !roots.contains(root)) continue;
+            final Result result = new Result();
+            result.title = readString(mBuffer.getInt(entry + FIELD_TITLE * 4));
+            result.summary = readString(mBuffer.getInt(entry + FIELD_SUMMARY * 4));
+            result.key = readString(mBuffer.getInt(entry + FIELD_KEY * 4));
+            result.fragment = readString(mBuffer.getInt(entry + FIELD_FRAGMENT * 4));
+            result.fragmentTitle = readString(mBuffer.getInt(entry + FIELD_FRAGMENT_TITLE * 4));
+            result.breadcrumb = readString(mBuffer.getInt(entry + FIELD_BREADCRUMB * 4));
+            result.root = root;
+            results.add(result);
+        }
+    }
+
+    /** Index of the first token not less than word. */
+    private int lowerBound(String word) {
+        int low = 0;
+        int high = mTokenCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(mBuffer.getInt(mTokensStart + mid * TOKEN_SIZE), word) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int offset, String word) {
+        final int length = mBuffer.getShort(offset) & 0xffff;
+        final int count = Math.min(length, word.length());
+        for (int i = 0; i < count; i++) {
+            final int diff = mBuffer.getChar(offset + 2 + i * 2) - word.charAt(i);
+            if (diff != 0) return diff;
+        }
+        return length - word.length();
+    }
+
+    private boolean startsWith(int offset, String prefix) {
+        final int length = mBuffer.getShort(offset) & 0xffff;
+        if (length < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (mBuffer.getChar(offset + 2 + i * 2) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String readString(int offset) {
+        if (offset < 0) return null;
+        final char[] chars = new char[mBuffer.getShort(offset) & 0xffff];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = mBuffer.getChar(offset + 2 + i * 2);
+        }
+        return new String(chars);
+    }
+
+    /** Splits into lower case words without accents, for matching. */
+    static ArrayList<String> tokenize(CharSequence text) {
+        final ArrayList<String> words = new ArrayList<String>();
+        final String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        final StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= normalized.length(); i++) {
+            final char c = i < normalized.length() ? normalized.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            } else if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    private static ByteBuffer map(File file, long updateTime) {
+        if (!file.isFile()) return null;
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            final ByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    in.length());
+            if (buffer.capacity() < HEADER_SIZE
+                    || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION
+                    || buffer.getLong(8) != updateTime) {
+                return null;
+            }
+            return buffer;
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable search index", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    // The mapping stays valid after the file is closed.
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private static void save(File cacheDir, File file, byte[] bytes) {
+        // Indexes for other locales are only rebuilt if the locale is switched back.
+        final File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File other : files) {
+                if (other.getName().startsWith(FILE_PREFIX)) {
+                    other.delete();
+                }
+            }
+        }
+        // Written under another name first so a half-written index is never mapped.
+        final File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Couldn't save search index to " + file);
+            }
+        } catch (IOException e) {
+            // Only costs rebuilding it next time.
+            Log.w(TAG, "Couldn't save search index", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+            tmp.delete();
+        }
+    }
+
+    private static byte[] build(Resources res, long updateTime) {
+        final Builder builder = new Builder();
+        indexHeaders(res, builder);
+        for (Screen screen : SCREENS) {
+            indexScreen(res, screen, builder);
+        }
+        return builder.toByteArray(updateTime);
+    }
+
+    private static void indexHeaders(Resources res, Builder builder) {
+        final XmlResourceParser parser = res.getXml(R.xml.settings_headers);
+        try {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG || !"header".equals(parser.getName())) {
+                    continue;
+                }
+                final String fragment = parser.getAttributeValue(ANDROID_NS, "fragment");
+                final String title = getText(res, parser, "title");
+                if (fragment != null && title != null) {
+                    builder.add(title, getText(res, parser, "summary"), null, fragment, title,
+                            null, fragment);
+                }
+            }
+        } catch (XmlPullParserException e) {
+            Log.w(TAG, "Couldn't index settings headers", e);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't index settings headers", e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static void indexScreen(Resources res, Screen screen, Builder builder) {
+        final String screenTitle = res.getString(screen.titleRes);
+        final XmlResourceParser parser = res.getXml(screen.xmlRes);
+        try {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                // The screen itself is found by its header or the preference opening it.
+                if (type != XmlPullParser.START_TAG || parser.getDepth() == 1
+                        || parser.getName().endsWith("PreferenceCategory")) {
+                    continue;
+                }
+                final String title = getText(res, parser, "title");
+                if (title == null) continue;
+                final String fragment = parser.getAttributeValue(ANDROID_NS, "fragment");
+                builder.add(title, getText(res, parser, "summary"),
+                        parser.getAttributeValue(ANDROID_NS, "key"),
+                        fragment != null ? fragment : screen.fragment,
+                        fragment != null ? title : screenTitle,
+                        screenTitle, screen.root);
+            }
+        } catch (XmlPullParserException e) {
+            Log.w(TAG, "Couldn't index " + screen.fragment, e);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't index " + screen.fragment, e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static String getText(Resources res, XmlResourceParser parser, String name) {
+        final int id = parser.getAttributeResourceValue(ANDROID_NS, name, 0);
+        if (id != 0) {
+            try {
+                return res.getText(id).toString();
+            } catch (Resources.NotFoundException e) {
+                return null;
+            }
+        }
+        return parser.getAttributeValue(ANDROID_NS, name);
+    }
+
+    /**
+     * Lays out the index file: a header, a table of entries holding the offsets of their
+     * strings, a table of (word, entry) pairs sorted by word, and then the strings, each
+     * one a char count followed by its chars. Offsets are from the start of the file.
+     */
+    private static class Builder {
+        private final ArrayList<int[]> mEntries = new ArrayList<int[]>();
+        private final ArrayList<Token> mTokens = new ArrayList<Token>();
+        private final ArrayList<String> mStrings = new ArrayList<String>();
+        private final HashMap<String, Integer> mStringOffsets = new HashMap<String, Integer>();
+        private int mStringBytes;
+
+        private static class Token implements Comparable<Token> {
+            final String word;
+            final int stringOffset;
+            final int value;
+
+            Token(String word, int stringOffset, int value) {
+                this.word = word;
+                this.stringOffset = stringOffset;
+                this.value = value;
+            }
+
+            @Override
+            public int compareTo(Token another) {
+                final int result = word.compareTo(another.word);
+                return result != 0 ? result : value - another.value;
+            }
+        }
+
+        void add(String title, String summary, String key, String fragment,
+                String fragmentTitle, String breadcrumb, String root) {
+            final int index = mEntries.size();
+            final int[] entry = new int[ENTRY_FIELDS];
+            entry[FIELD_TITLE] = addString(title);
+            entry[FIELD_SUMMARY] = addString(summary);
+            entry[FIELD_KEY] = addString(key);
+            entry[FIELD_FRAGMENT] = addString(fragment);
+            entry[FIELD_FRAGMENT_TITLE] = addString(fragmentTitle);
+            entry[FIELD_BREADCRUMB] = addString(breadcrumb);
+            entry[FIELD_ROOT] = addString(root);
+            mEntries.add(entry);
+            addTokens(title, index << 1);
+            if (summary != null) {
+                addTokens(summary, (index << 1) | 1);
+            }
+        }
+
+        private void addTokens(String text, int value) {
+            for (String word : tokenize(text)) {
+                mTokens.add(new Token(word, addString(word), value));
+            }
+        }
+
+        /** Returns the offset of the string from the start of the string pool, or -1. */
+        private int addString(String s) {
+            if (s == null) return -1;
+            if (s.length() > 0xffff) {
+                s = s.substring(0, 0xffff);
+            }
+            Integer offset = mStringOffsets.get(s);
+            if (offset == null) {
+                offset = mStringBytes;
+                mStringOffsets.put(s, offset);
+                mStrings.add(s);
+                mStringBytes += 2 + s.length() * 2;
+            }
+            return offset;
+        }
+
+        byte[] toByteArray(long updateTime) {
+            Collections.sort(mTokens);
+            // A word repeated in the same entry only needs to be found once.
+            final ArrayList<Token> tokens = new ArrayList<Token>(mTokens.size());
+            for (Token token : mTokens) {
+                final Token previous = tokens.isEmpty() ? null : tokens.get(tokens.size() - 1);
+                if (previous == null || previous.value != token.value
+                        || !previous.word.equals(token.word)) {
+                    tokens.add(token);
+                }
+            }
+            final int stringsStart = HEADER_SIZE + mEntries.size() * ENTRY_SIZE
+                    + tokens.size() * TOKEN_SIZE;
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    stringsStart + mStringBytes);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(updateTime);
+                out.writeInt(mEntries.size());
+                out.writeInt(tokens.size());
+                for (int[] entry : mEntries) {
+                    for (int offset : entry) {
+                        out.writeInt(offset < 0 ? -1 : stringsStart + offset);
+                    }
+                }
+                for (Token token : tokens) {
+                    out.writeInt(stringsStart + token.stringOffset);
+                    out.writeInt(token.value);
+                }
+                for (String s : mStrings) {
+                    out.writeShort(s.length());
+                    out.writeChars(s);
+                }
+            } catch (IOException e) {
+                // Can't happen writing to memory.
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
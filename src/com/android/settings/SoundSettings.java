@@ -48,6 +48,8 @@ import android.provider.Settings;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 
 public class SoundSettings extends SettingsPreferenceFragment implements
@@ -134,39 +136,54 @@ public class SoundSettings extends SettingsPreferenceFragment implements
 
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
-        addPreferencesFromResource(R.xml.sound_settings);
-
+        final HashSet<String> excludedKeys = new HashSet<String>();
         if (TelephonyManager.PHONE_TYPE_CDMA != activePhoneType) {
             // device is not CDMA, do not display CDMA emergency_tone
-            getPreferenceScreen().removePreference(findPreference(KEY_EMERGENCY_TONE));
-        }
-
-        if (!getResources().getBoolean(R.bool.has_silent_mode)) {
-            findPreference(KEY_RING_VOLUME).setDependency(null);
+            excludedKeys.add(KEY_EMERGENCY_TONE);
         }
-
         if (getResources().getBoolean(com.android.internal.R.bool.config_useFixedVolume)) {
             // device with fixed volume policy, do not display volumes submenu
-            getPreferenceScreen().removePreference(findPreference(KEY_RING_VOLUME));
+            excludedKeys.add(KEY_RING_VOLUME);
+        }
+        Vibrator vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
+        if (vibrator == null || !vibrator.hasVibrator()) {
+            excludedKeys.add(KEY_VIBRATE);
+            excludedKeys.add(KEY_HAPTIC_FEEDBACK);
+        }
+        if (!Utils.isVoiceCapable(getActivity())) {
+            excludedKeys.addAll(Arrays.asList(NEED_VOICE_CAPABILITY));
+        }
+
+        addPreferencesFromResource(R.xml.sound_settings, excludedKeys);
+
+        Preference ringVolume = findPreference(KEY_RING_VOLUME);
+        if (ringVolume != null && !getResources().getBoolean(R.bool.has_silent_mode)) {
+            ringVolume.setDependency(null);
         }
 
         mVibrateWhenRinging = (CheckBoxPreference) findPreference(KEY_VIBRATE);
-        mVibrateWhenRinging.setPersistent(false);
-        mVibrateWhenRinging.setChecked(Settings.System.getInt(resolver,
-                Settings.System.VIBRATE_WHEN_RINGING, 0) != 0);
+        if (mVibrateWhenRinging != null) {
+            mVibrateWhenRinging.setPersistent(false);
+            mVibrateWhenRinging.setChecked(Settings.System.getInt(resolver,
+                    Settings.System.VIBRATE_WHEN_RINGING, 0) != 0);
+        }
 
         mDtmfTone = (CheckBoxPreference) findPreference(KEY_DTMF_TONE);
-        mDtmfTone.setPersistent(false);
-        mDtmfTone.setChecked(Settings.System.getInt(resolver,
-                Settings.System.DTMF_TONE_WHEN_DIALING, 1) != 0);
+        if (mDtmfTone != null) {
+            mDtmfTone.setPersistent(false);
+            mDtmfTone.setChecked(Settings.System.getInt(resolver,
+                    Settings.System.DTMF_TONE_WHEN_DIALING, 1) != 0);
+        }
         mSoundEffects = (CheckBoxPreference) findPreference(KEY_SOUND_EFFECTS);
         mSoundEffects.setPersistent(false);
         mSoundEffects.setChecked(Settings.System.getInt(resolver,
                 Settings.System.SOUND_EFFECTS_ENABLED, 1) != 0);
         mHapticFeedback = (CheckBoxPreference) findPreference(KEY_HAPTIC_FEEDBACK);
-        mHapticFeedback.setPersistent(false);
-        mHapticFeedback.setChecked(Settings.System.getInt(resolver,
-                Settings.System.HAPTIC_FEEDBACK_ENABLED, 1) != 0);
+        if (mHapticFeedback != null) {
+            mHapticFeedback.setPersistent(false);
+            mHapticFeedback.setChecked(Settings.System.getInt(resolver,
+                    Settings.System.HAPTIC_FEEDBACK_ENABLED, 1) != 0);
+        }
         mLockSounds = (CheckBoxPreference) findPreference(KEY_LOCK_SOUNDS);
         mLockSounds.setPersistent(false);
         mLockSounds.setChecked(Settings.System.getInt(resolver,
@@ -175,15 +192,9 @@ public class SoundSettings extends SettingsPreferenceFragment implements
         mRingtonePreference = findPreference(KEY_RINGTONE);
         mNotificationPreference = findPreference(KEY_NOTIFICATION_SOUND);
 
-        Vibrator vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
-        if (vibrator == null || !vibrator.hasVibrator()) {
-            removePreference(KEY_VIBRATE);
-            removePreference(KEY_HAPTIC_FEEDBACK);
-        }
-
-        if (TelephonyManager.PHONE_TYPE_CDMA == activePhoneType) {
-            ListPreference emergencyTonePreference =
+        ListPreference emergencyTonePreference =
                 (ListPreference) findPreference(KEY_EMERGENCY_TONE);
+        if (emergencyTonePreference != null) {
             emergencyTonePreference.setValue(String.valueOf(Settings.Global.getInt(
                 resolver, Settings.Global.EMERGENCY_TONE, FALLBACK_EMERGENCY_TONE_VALUE)));
             emergencyTonePreference.setOnPreferenceChangeListener(this);
@@ -204,15 +215,6 @@ public class SoundSettings extends SettingsPreferenceFragment implements
             mSoundSettings.removePreference(mMusicFx);
         }
 
-        if (!Utils.isVoiceCapable(getActivity())) {
-            for (String prefKey : NEED_VOICE_CAPABILITY) {
-                Preference pref = findPreference(prefKey);
-                if (pref != null) {
-                    getPreferenceScreen().removePreference(pref);
-                }
-            }
-        }
-
         mRingtoneLookupRunnable = new Runnable() {
             public void run() {
                 if (mRingtonePreference != null) {
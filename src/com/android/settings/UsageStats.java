@@ -21,20 +21,25 @@ package com.android.settings;
 import com.android.internal.app.IUsageStats;
 import com.android.settings.R;
 import android.app.Activity;
+import android.app.LoaderManager;
+import android.content.AsyncTaskLoader;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.Loader;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import com.android.internal.os.PkgUsageStats;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -50,48 +55,283 @@ import android.widget.AdapterView.OnItemSelectedListener;
 /**
  * Activity to display package usage statistics.
  */
-public class UsageStats extends Activity implements OnItemSelectedListener {
+public class UsageStats extends Activity implements OnItemSelectedListener,
+        LoaderManager.LoaderCallbacks<UsageStats.UsageSnapshot> {
     private static final String TAG="UsageStatsActivity";
     private static final boolean localLOGV = false;
+    private static final int LOADER_ID_USAGE_STATS = 0;
+    /** How often the stats are reloaded while the screen is visible. */
+    private static final long REFRESH_INTERVAL_MS = 10 * 1000;
+
     private Spinner mTypeSpinner;
     private ListView mListView;
     private IUsageStats mUsageStatsService;
     private LayoutInflater mInflater;
     private UsageStatsAdapter mAdapter;
-    private PackageManager mPm;
-    
-    public static class AppNameComparator implements Comparator<PkgUsageStats> {
-        Map<String, CharSequence> mAppLabelList;
-        AppNameComparator(Map<String, CharSequence> appList) {
-            mAppLabelList = appList;
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Loader<UsageSnapshot> loader = getLoaderManager().getLoader(LOADER_ID_USAGE_STATS);
+            if (loader != null) {
+                loader.onContentChanged();
+            }
+            mHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * Usage stats of every package at one point in time, in parallel arrays, along with the
+     * row order for each display order so switching orders doesn't sort anything.
+     */
+    static final class UsageSnapshot {
+        final String[] packageNames;
+        final String[] labels;
+        final int[] launchCounts;
+        final long[] usageTimes;
+        /** Row order by display order, see UsageStatsAdapter._DISPLAY_ORDER_*. */
+        final int[][] orders = new int[3][];
+
+        UsageSnapshot(int size) {
+            packageNames = new String[size];
+            labels = new String[size];
+            launchCounts = new int[size];
+            usageTimes = new long[size];
         }
-        public final int compare(PkgUsageStats a, PkgUsageStats b) {
-            String alabel = mAppLabelList.get(a.packageName).toString();
-            String blabel = mAppLabelList.get(b.packageName).toString();
-            return alabel.compareTo(blabel);
+
+        int size() {
+            return packageNames.length;
+        }
+
+        boolean hasSameStats(PkgUsageStats[] stats) {
+            if (stats.length != packageNames.length) {
+                return false;
+            }
+            for (int i = 0; i < stats.length; i++) {
+                PkgUsageStats ps = stats[i];
+                if (!ps.packageName.equals(packageNames[i])
+                        || ps.launchCount != launchCounts[i]
+                        || ps.usageTime != usageTimes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void computeOrders() {
+            final int N = size();
+            // Launch counts are non-negative ints, so the descending count is its own rank.
+            int[] ranks = new int[N];
+            for (int i = 0; i < N; i++) {
+                ranks[i] = Integer.MAX_VALUE - launchCounts[i];
+            }
+            orders[UsageStatsAdapter._DISPLAY_ORDER_LAUNCH_COUNT] = sortByRank(ranks);
+
+            // descending order
+            long[] times = usageTimes.clone();
+            Arrays.sort(times);
+            int count = unique(times);
+            for (int i = 0; i < N; i++) {
+                ranks[i] = count - 1 - Arrays.binarySearch(times, 0, count, usageTimes[i]);
+            }
+            orders[UsageStatsAdapter._DISPLAY_ORDER_USAGE_TIME] = sortByRank(ranks);
+
+            String[] names = labels.clone();
+            Arrays.sort(names);
+            count = unique(names);
+            for (int i = 0; i < N; i++) {
+                ranks[i] = Arrays.binarySearch(names, 0, count, labels[i]);
+            }
+            orders[UsageStatsAdapter._DISPLAY_ORDER_APP_NAME] = sortByRank(ranks);
+        }
+
+        /**
+         * Returns the indices ordered by rank. Packs each rank above its index and sorts
+         * primitives; ties stay in service order like a stable sort.
+         */
+        private static int[] sortByRank(int[] ranks) {
+            final int N = ranks.length;
+            long[] keys = new long[N];
+            for (int i = 0; i < N; i++) {
+                keys[i] = ((long) ranks[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] order = new int[N];
+            for (int i = 0; i < N; i++) {
+                order[i] = (int) keys[i];
+            }
+            return order;
+        }
+
+        /** Moves the distinct values of the sorted array to its front and returns their count. */
+        private static int unique(long[] sorted) {
+            int count = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (count == 0 || sorted[i] != sorted[count - 1]) {
+                    sorted[count++] = sorted[i];
+                }
+            }
+            return count;
+        }
+
+        private static int unique(String[] sorted) {
+            int count = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (count == 0 || !sorted[i].equals(sorted[count - 1])) {
+                    sorted[count++] = sorted[i];
+                }
+            }
+            return count;
         }
     }
-    
-    public static class LaunchCountComparator implements Comparator<PkgUsageStats> {
-        public final int compare(PkgUsageStats a, PkgUsageStats b) {
-            // return by descending order
-            return b.launchCount - a.launchCount;
+
+    /**
+     * Application labels by package name, shared by every instance of the screen. A label is
+     * resolved again only after its package has been added, removed or changed, or the
+     * locale has changed.
+     */
+    private static final class LabelCache {
+        private static final HashMap<String, String> sLabels = new HashMap<String, String>();
+        private static Locale sLocale;
+        private static boolean sRegistered;
+
+        private static final BroadcastReceiver sPackageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                final Uri data = intent.getData();
+                if (data != null) {
+                    invalidate(data.getSchemeSpecificPart());
+                } else {
+                    invalidate(null);
+                }
+            }
+        };
+
+        static synchronized String getLabel(Context context, PackageManager pm,
+                String packageName) {
+            if (!sRegistered) {
+                final Context app = context.getApplicationContext();
+                final IntentFilter packageFilter = new IntentFilter();
+                packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+                packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+                packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+                packageFilter.addDataScheme("package");
+                app.registerReceiver(sPackageReceiver, packageFilter);
+                final IntentFilter externalFilter = new IntentFilter();
+                externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+                externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+                app.registerReceiver(sPackageReceiver, externalFilter);
+                sRegistered = true;
+            }
+            Locale locale = Locale.getDefault();
+            if (!locale.equals(sLocale)) {
+                sLabels.clear();
+                sLocale = locale;
+            }
+            String label = sLabels.get(packageName);
+            if (label != null) {
+                return label;
+            }
+            // load application label
+            try {
+                ApplicationInfo appInfo = pm.getApplicationInfo(packageName, 0);
+                label = appInfo.loadLabel(pm).toString();
+            } catch (NameNotFoundException e) {
+                label = packageName;
+            }
+            sLabels.put(packageName, label);
+            return label;
+        }
+
+        /** Drops the label of the package, or every label if packageName is null. */
+        static synchronized void invalidate(String packageName) {
+            if (packageName != null) {
+                sLabels.remove(packageName);
+            } else {
+                sLabels.clear();
+            }
         }
     }
-    
-    public static class UsageTimeComparator implements Comparator<PkgUsageStats> {
-        public final int compare(PkgUsageStats a, PkgUsageStats b) {
-            long ret = a.usageTime-b.usageTime;
-            if (ret == 0) {
-                return 0;
+
+    /**
+     * Loads the usage stats and labels off the UI thread. When reloaded with no stats
+     * changed, it hands back the previous snapshot so the list is left alone.
+     */
+    static class UsageStatsLoader extends AsyncTaskLoader<UsageSnapshot> {
+        private final IUsageStats mService;
+        private final PackageManager mPm;
+        private volatile UsageSnapshot mSnapshot;
+
+        UsageStatsLoader(Context context, IUsageStats service) {
+            super(context);
+            mService = service;
+            mPm = context.getPackageManager();
+        }
+
+        @Override
+        public UsageSnapshot loadInBackground() {
+            final UsageSnapshot previous = mSnapshot;
+            PkgUsageStats[] stats;
+            try {
+                stats = mService.getAllPkgUsageStats();
+            } catch (RemoteException e) {
+                Log.e(TAG, "Failed initializing usage stats service");
+                return previous != null ? previous : new UsageSnapshot(0);
             }
-            if (ret < 0) {
-                return 1;
+            if (stats == null) {
+                stats = new PkgUsageStats[0];
             }
-            return -1;
+            if (previous != null && previous.hasSameStats(stats)) {
+                if (localLOGV) Log.i(TAG, "Usage stats unchanged");
+                return previous;
+            }
+            UsageSnapshot snapshot = new UsageSnapshot(stats.length);
+            for (int i = 0; i < stats.length; i++) {
+                PkgUsageStats ps = stats[i];
+                snapshot.packageNames[i] = ps.packageName;
+                snapshot.labels[i] = LabelCache.getLabel(getContext(), mPm, ps.packageName);
+                snapshot.launchCounts[i] = ps.launchCount;
+                snapshot.usageTimes[i] = ps.usageTime;
+            }
+            snapshot.computeOrders();
+            return snapshot;
+        }
+
+        @Override
+        public void deliverResult(UsageSnapshot snapshot) {
+            if (isReset()) {
+                return;
+            }
+            mSnapshot = snapshot;
+            if (isStarted()) {
+                super.deliverResult(snapshot);
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (mSnapshot != null) {
+                deliverResult(mSnapshot);
+            }
+            if (takeContentChanged() || mSnapshot == null) {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            super.onReset();
+            onStopLoading();
+            mSnapshot = null;
         }
     }
-    
+
      // View Holder used when displaying views
     static class AppViewHolder {
         TextView pkgName;
@@ -101,54 +341,29 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
     
     class UsageStatsAdapter extends BaseAdapter {
          // Constants defining order for display order
-        private static final int _DISPLAY_ORDER_USAGE_TIME = 0;
-        private static final int _DISPLAY_ORDER_LAUNCH_COUNT = 1;
-        private static final int _DISPLAY_ORDER_APP_NAME = 2;
+        static final int _DISPLAY_ORDER_USAGE_TIME = 0;
+        static final int _DISPLAY_ORDER_LAUNCH_COUNT = 1;
+        static final int _DISPLAY_ORDER_APP_NAME = 2;
         
         private int mDisplayOrder = _DISPLAY_ORDER_USAGE_TIME;
-        private List<PkgUsageStats> mUsageStats;
-        private LaunchCountComparator mLaunchCountComparator;
-        private UsageTimeComparator mUsageTimeComparator;
-        private AppNameComparator mAppLabelComparator;
-        private HashMap<String, CharSequence> mAppLabelMap;
-        
-        UsageStatsAdapter() {
-            mUsageStats = new ArrayList<PkgUsageStats>();
-            mAppLabelMap = new HashMap<String, CharSequence>();
-            PkgUsageStats[] stats;
-            try {
-                stats = mUsageStatsService.getAllPkgUsageStats();
-            } catch (RemoteException e) {
-                Log.e(TAG, "Failed initializing usage stats service");
+        private UsageSnapshot mSnapshot;
+        private int[] mOrder;
+
+        void setSnapshot(UsageSnapshot snapshot) {
+            if (mSnapshot == snapshot) {
                 return;
             }
-           if (stats == null) {
-               return;
-           }
-           for (PkgUsageStats ps : stats) {
-               mUsageStats.add(ps);
-               // load application labels for each application
-               CharSequence label;
-               try {
-                   ApplicationInfo appInfo = mPm.getApplicationInfo(ps.packageName, 0);
-                   label = appInfo.loadLabel(mPm);
-                } catch (NameNotFoundException e) {
-                    label = ps.packageName;
-                }
-                mAppLabelMap.put(ps.packageName, label);
-           }
-           // Sort list
-           mLaunchCountComparator = new LaunchCountComparator();
-           mUsageTimeComparator = new UsageTimeComparator();
-           mAppLabelComparator = new AppNameComparator(mAppLabelMap);
-           sortList();
+            mSnapshot = snapshot;
+            mOrder = snapshot != null ? snapshot.orders[mDisplayOrder] : null;
+            notifyDataSetChanged();
         }
+
         public int getCount() {
-            return mUsageStats.size();
+            return mSnapshot != null ? mSnapshot.size() : 0;
         }
 
         public Object getItem(int position) {
-            return mUsageStats.get(position);
+            return mSnapshot.packageNames[mOrder[position]];
         }
 
         public long getItemId(int position) {
@@ -180,15 +395,10 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
             }
 
             // Bind the data efficiently with the holder
-            PkgUsageStats pkgStats = mUsageStats.get(position);
-            if (pkgStats != null) {
-                CharSequence label = mAppLabelMap.get(pkgStats.packageName);
-                holder.pkgName.setText(label);
-                holder.launchCount.setText(String.valueOf(pkgStats.launchCount));
-                holder.usageTime.setText(String.valueOf(pkgStats.usageTime)+" ms");
-            } else {
-                Log.w(TAG, "No usage stats info for package:" + position);
-            }
+            final int index = mOrder[position];
+            holder.pkgName.setText(mSnapshot.labels[index]);
+            holder.launchCount.setText(String.valueOf(mSnapshot.launchCounts[index]));
+            holder.usageTime.setText(String.valueOf(mSnapshot.usageTimes[index])+" ms");
             return convertView;
         }
         
@@ -197,21 +407,12 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
                 // do nothing
                 return;
             }
-            mDisplayOrder= sortOrder;
-            sortList();
-        }
-        private void sortList() {
-            if (mDisplayOrder == _DISPLAY_ORDER_USAGE_TIME) {
-                if (localLOGV) Log.i(TAG, "Sorting by usage time");
-                Collections.sort(mUsageStats, mUsageTimeComparator);
-            } else if (mDisplayOrder == _DISPLAY_ORDER_LAUNCH_COUNT) {
-                if (localLOGV) Log.i(TAG, "Sorting launch count");
-                Collections.sort(mUsageStats, mLaunchCountComparator);
-            } else if (mDisplayOrder == _DISPLAY_ORDER_APP_NAME) {
-                if (localLOGV) Log.i(TAG, "Sorting by application name");
-                Collections.sort(mUsageStats, mAppLabelComparator);
+            if (localLOGV) Log.i(TAG, "Switching to display order " + sortOrder);
+            mDisplayOrder = sortOrder;
+            if (mSnapshot != null) {
+                mOrder = mSnapshot.orders[sortOrder];
+                notifyDataSetChanged();
             }
-            notifyDataSetChanged();
         }
     }
 
@@ -224,7 +425,6 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
             return;
         }
         mInflater = (LayoutInflater)getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mPm = getPackageManager();
         
         setContentView(R.layout.usage_stats);
         mTypeSpinner = (Spinner) findViewById(R.id.typeSpinner);
@@ -235,6 +435,36 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
         
         mAdapter = new UsageStatsAdapter();
         mListView.setAdapter(mAdapter);
+        getLoaderManager().initLoader(LOADER_ID_USAGE_STATS, null, this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mUsageStatsService != null) {
+            mHandler.postDelayed(mRefreshRunnable, REFRESH_INTERVAL_MS);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mRefreshRunnable);
+    }
+
+    @Override
+    public Loader<UsageSnapshot> onCreateLoader(int id, Bundle args) {
+        return new UsageStatsLoader(this, mUsageStatsService);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<UsageSnapshot> loader, UsageSnapshot snapshot) {
+        mAdapter.setSnapshot(snapshot);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<UsageSnapshot> loader) {
+        mAdapter.setSnapshot(null);
     }
 
     public void onItemSelected(AdapterView<?> parent, View view, int position,
@@ -246,4 +476,3 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
         // do nothing
     }
 }
-
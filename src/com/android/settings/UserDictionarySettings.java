@@ -20,10 +20,15 @@ import com.android.settings.inputmethod.UserDictionaryAddWordContents;
 import com.android.settings.inputmethod.UserDictionarySettingsUtils;
 
 import android.app.ListFragment;
+import android.app.LoaderManager.LoaderCallbacks;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.CursorLoader;
 import android.content.Intent;
+import android.content.Loader;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
 import android.os.Bundle;
 import android.provider.UserDictionary;
 import android.text.TextUtils;
@@ -33,16 +38,15 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AlphabetIndexer;
-import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.SectionIndexer;
 import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 
+import java.text.Collator;
 import java.util.Locale;
 
-public class UserDictionarySettings extends ListFragment {
+public class UserDictionarySettings extends ListFragment implements LoaderCallbacks<Cursor> {
     private static final String TAG = "UserDictionarySettings";
 
     private static final String[] QUERY_PROJECTION = {
@@ -67,7 +71,17 @@ public class UserDictionarySettings extends ListFragment {
 
     private static final int OPTIONS_MENU_ADD = Menu.FIRST;
 
+    // The first page is loaded separately so the list can show up before a large dictionary
+    // has been read in full.
+    private static final int LOADER_ID_FIRST_PAGE = 1;
+    private static final int LOADER_ID_ALL_WORDS = 2;
+    private static final int FIRST_PAGE_SIZE = 100;
+
     private Cursor mCursor;
+    private MyAdapter mAdapter;
+    private int mWordColumn;
+    private int mShortcutColumn;
+    private boolean mAllWordsLoaded;
 
     protected String mLocale;
 
@@ -106,22 +120,63 @@ public class UserDictionarySettings extends ListFragment {
         }
 
         mLocale = locale;
-        mCursor = createCursor(locale);
         TextView emptyView = (TextView) getView().findViewById(android.R.id.empty);
         emptyView.setText(R.string.user_dict_settings_empty_text);
 
+        mAdapter = createAdapter();
         final ListView listView = getListView();
-        listView.setAdapter(createAdapter());
+        listView.setAdapter(mAdapter);
         listView.setFastScrollEnabled(true);
         listView.setEmptyView(emptyView);
 
+        mAllWordsLoaded = false;
+        getLoaderManager().initLoader(LOADER_ID_ALL_WORDS, null, this);
+        if (!mAllWordsLoaded) {
+            getLoaderManager().initLoader(LOADER_ID_FIRST_PAGE, null, this);
+        }
+
         setHasOptionsMenu(true);
         // Show the language as a subtitle of the action bar
         getActivity().getActionBar().setSubtitle(
                 UserDictionarySettingsUtils.getLocaleDisplayName(getActivity(), mLocale));
     }
 
-    private Cursor createCursor(final String locale) {
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        final String alphabet = getActivity().getString(
+                com.android.internal.R.string.fast_scroll_alphabet);
+        return createLoader(mLocale, id == LOADER_ID_FIRST_PAGE ? FIRST_PAGE_SIZE : 0, alphabet);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == LOADER_ID_FIRST_PAGE && mAllWordsLoaded) {
+            // The full list is already showing.
+            return;
+        }
+        mWordColumn = data.getColumnIndexOrThrow(UserDictionary.Words.WORD);
+        mShortcutColumn = data.getColumnIndexOrThrow(UserDictionary.Words.SHORTCUT);
+        mCursor = data;
+        mAdapter.swapCursor(data);
+        if (loader.getId() == LOADER_ID_ALL_WORDS && !mAllWordsLoaded) {
+            mAllWordsLoaded = true;
+            getLoaderManager().destroyLoader(LOADER_ID_FIRST_PAGE);
+        }
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // Resetting the first page after the full list replaced it must not clear the list.
+        if (loader.getId() == LOADER_ID_ALL_WORDS || !mAllWordsLoaded) {
+            mCursor = null;
+            mAdapter.swapCursor(null);
+        }
+    }
+
+    /**
+     * @param limit the maximum number of words to load, or 0 for all of them
+     */
+    private WordsLoader createLoader(final String locale, final int limit, String alphabet) {
         // Locale can be any of:
         // - The string representation of a locale, as returned by Locale#toString()
         // - The empty string. This means we want a cursor returning words valid for all locales.
@@ -132,22 +187,21 @@ public class UserDictionarySettings extends ListFragment {
         // TODO: it should be easy to make this more readable by making the special values
         // human-readable, like "all_locales" and "current_locales" strings, provided they
         // can be guaranteed not to match locales that may exist.
+        // Case-insensitive sort
+        final String sortOrder = "UPPER(" + UserDictionary.Words.WORD + ")";
         if ("".equals(locale)) {
-            // Case-insensitive sort
-            return getActivity().managedQuery(UserDictionary.Words.CONTENT_URI, QUERY_PROJECTION,
-                    QUERY_SELECTION_ALL_LOCALES, null,
-                    "UPPER(" + UserDictionary.Words.WORD + ")");
+            return new WordsLoader(getActivity(), QUERY_SELECTION_ALL_LOCALES, null, sortOrder,
+                    limit, limit == 0 ? alphabet : null);
         } else {
             final String queryLocale = null != locale ? locale : Locale.getDefault().toString();
-            return getActivity().managedQuery(UserDictionary.Words.CONTENT_URI, QUERY_PROJECTION,
-                    QUERY_SELECTION, new String[] { queryLocale },
-                    "UPPER(" + UserDictionary.Words.WORD + ")");
+            return new WordsLoader(getActivity(), QUERY_SELECTION, new String[] { queryLocale },
+                    sortOrder, limit, limit == 0 ? alphabet : null);
         }
     }
 
-    private ListAdapter createAdapter() {
+    private MyAdapter createAdapter() {
         return new MyAdapter(getActivity(),
-                R.layout.user_dictionary_item, mCursor,
+                R.layout.user_dictionary_item, null,
                 new String[] { UserDictionary.Words.WORD, UserDictionary.Words.SHORTCUT },
                 new int[] { android.R.id.text1, android.R.id.text2 }, this);
     }
@@ -205,8 +259,7 @@ public class UserDictionarySettings extends ListFragment {
         // Handle a possible race-condition
         if (mCursor.isAfterLast()) return null;
 
-        return mCursor.getString(
-                mCursor.getColumnIndexOrThrow(UserDictionary.Words.WORD));
+        return mCursor.getString(mWordColumn);
     }
 
     private String getShortcut(final int position) {
@@ -215,8 +268,7 @@ public class UserDictionarySettings extends ListFragment {
         // Handle a possible race-condition
         if (mCursor.isAfterLast()) return null;
 
-        return mCursor.getString(
-                mCursor.getColumnIndexOrThrow(UserDictionary.Words.SHORTCUT));
+        return mCursor.getString(mShortcutColumn);
     }
 
     public static void deleteWord(final String word, final String shortcut,
@@ -232,9 +284,118 @@ public class UserDictionarySettings extends ListFragment {
         }
     }
 
+    /**
+     * Loads the words in the background. For a full load, the fast scroll sections are also
+     * computed there, in a single pass over the sorted words.
+     */
+    private static class WordsLoader extends CursorLoader {
+        private final int mLimit;
+        private final String mAlphabet;
+
+        /**
+         * @param limit the maximum number of words to load, or 0 for all of them
+         * @param alphabet the fast scroll sections to compute, or null for none
+         */
+        WordsLoader(Context context, String selection, String[] selectionArgs, String sortOrder,
+                int limit, String alphabet) {
+            super(context, UserDictionary.Words.CONTENT_URI, QUERY_PROJECTION, selection,
+                    selectionArgs, sortOrder);
+            mLimit = limit;
+            mAlphabet = alphabet;
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            final Cursor cursor = super.loadInBackground();
+            if (cursor == null) {
+                return null;
+            }
+            if (mLimit > 0) {
+                return copyFirstRows(cursor, mLimit);
+            }
+            if (mAlphabet == null) {
+                return cursor;
+            }
+            return new SectionedCursor(cursor, mAlphabet, computeSectionPositions(cursor));
+        }
+
+        /**
+         * The provider has no way to limit a query, so the first rows are copied out here and
+         * the rest of the result let go.
+         */
+        private static Cursor copyFirstRows(Cursor cursor, int limit) {
+            try {
+                final MatrixCursor rows = new MatrixCursor(QUERY_PROJECTION,
+                        Math.min(limit, cursor.getCount()));
+                final int idColumn = cursor.getColumnIndexOrThrow(UserDictionary.Words._ID);
+                final int wordColumn = cursor.getColumnIndexOrThrow(UserDictionary.Words.WORD);
+                final int shortcutColumn =
+                        cursor.getColumnIndexOrThrow(UserDictionary.Words.SHORTCUT);
+                while (rows.getCount() < limit && cursor.moveToNext()) {
+                    rows.addRow(new Object[] {
+                        cursor.getLong(idColumn),
+                        cursor.getString(wordColumn),
+                        cursor.getString(shortcutColumn)
+                    });
+                }
+                return rows;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Returns, for each letter of the alphabet, the position of the first word that does
+         * not sort before it, like {@link android.widget.AlphabetIndexer} would find.
+         */
+        private int[] computeSectionPositions(Cursor cursor) {
+            final Collator collator = Collator.getInstance();
+            collator.setStrength(Collator.PRIMARY);
+            final int sectionCount = mAlphabet.length();
+            final int[] positions = new int[sectionCount];
+            final int wordColumn = cursor.getColumnIndexOrThrow(UserDictionary.Words.WORD);
+            final int count = cursor.getCount();
+            int position = 0;
+            String firstLetter = null;
+            for (int section = 0; section < sectionCount; section++) {
+                final String letter = Character.toString(mAlphabet.charAt(section));
+                while (position < count) {
+                    if (firstLetter == null) {
+                        cursor.moveToPosition(position);
+                        final String word = cursor.getString(wordColumn);
+                        firstLetter = TextUtils.isEmpty(word) ? " " : word.substring(0, 1);
+                    }
+                    if (collator.compare(firstLetter, letter) >= 0) break;
+                    position++;
+                    firstLetter = null;
+                }
+                positions[section] = position;
+            }
+            cursor.moveToPosition(-1);
+            return positions;
+        }
+    }
+
+    /**
+     * Cursor carrying fast scroll sections computed when it was loaded.
+     */
+    private static class SectionedCursor extends CursorWrapper {
+        final String[] sections;
+        final int[] sectionPositions;
+
+        SectionedCursor(Cursor cursor, String alphabet, int[] sectionPositions) {
+            super(cursor);
+            sections = new String[alphabet.length()];
+            for (int i = 0; i < sections.length; i++) {
+                sections[i] = Character.toString(alphabet.charAt(i));
+            }
+            this.sectionPositions = sectionPositions;
+        }
+    }
+
     private static class MyAdapter extends SimpleCursorAdapter implements SectionIndexer {
 
-        private AlphabetIndexer mIndexer;
+        private SectionedCursor mSectionedCursor;
 
         private final ViewBinder mViewBinder = new ViewBinder() {
 
@@ -258,30 +419,49 @@ public class UserDictionarySettings extends ListFragment {
 
         public MyAdapter(Context context, int layout, Cursor c, String[] from, int[] to,
                 UserDictionarySettings settings) {
-            super(context, layout, c, from, to);
-
-            if (null != c) {
-                final String alphabet = context.getString(
-                        com.android.internal.R.string.fast_scroll_alphabet);
-                final int wordColIndex = c.getColumnIndexOrThrow(UserDictionary.Words.WORD);
-                mIndexer = new AlphabetIndexer(c, wordColIndex, alphabet);
-            }
+            super(context, layout, c, from, to, 0);
             setViewBinder(mViewBinder);
         }
 
+        @Override
+        public Cursor swapCursor(Cursor c) {
+            // Only the full list has sections; a first page leaves fast scroll without any.
+            mSectionedCursor = c instanceof SectionedCursor ? (SectionedCursor) c : null;
+            return super.swapCursor(c);
+        }
+
         @Override
         public int getPositionForSection(int section) {
-            return null == mIndexer ? 0 : mIndexer.getPositionForSection(section);
+            if (null == mSectionedCursor) return 0;
+            final int[] positions = mSectionedCursor.sectionPositions;
+            if (section < 0) return 0;
+            if (section >= positions.length) return getCount();
+            return positions[section];
         }
 
         @Override
         public int getSectionForPosition(int position) {
-            return null == mIndexer ? 0 : mIndexer.getSectionForPosition(position);
+            if (null == mSectionedCursor) return 0;
+            // The last section starting at or before the position
+            final int[] positions = mSectionedCursor.sectionPositions;
+            int low = 0;
+            int high = positions.length - 1;
+            int section = 0;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (positions[mid] <= position) {
+                    section = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return section;
         }
 
         @Override
         public Object[] getSections() {
-            return null == mIndexer ? null : mIndexer.getSections();
+            return null == mSectionedCursor ? null : mSectionedCursor.sections;
         }
     }
 }
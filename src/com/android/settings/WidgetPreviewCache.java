@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps rendered app widget previews on disk, keyed by provider, package version and size,
+ * so the widget picker only renders a preview the first time it sees that widget. Previews
+ * that are not on disk yet are rendered on a small pool of background threads, the ones
+ * nearest the top of the grid first.
+ *
+ * <p>Bitmaps taken off views that scroll out of sight are handed back with
+ * {@link #recycle(Bitmap)} and decoded or drawn into again for the next preview.
+ *
+ * <p>The directory is kept under {@link #MAX_DIR_BYTES}, dropping the previews used least
+ * recently first, so those of uninstalled providers go away in time.
+ */
+final class WidgetPreviewCache {
+    private static final String TAG = "WidgetPreviewCache";
+
+    private static final String DIR_NAME = "widget_previews";
+    private static final String FILE_SUFFIX = ".png";
+    /** Can't appear in package or class names, so a provider's prefix is unambiguous. */
+    private static final char SEPARATOR = '@';
+
+    private static final int THREAD_COUNT = 2;
+    private static final int MAX_RECYCLED_BITMAPS = 6;
+    private static final long MAX_DIR_BYTES = 8 * 1024 * 1024;
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, TAG + " #" + mCount.getAndIncrement());
+        }
+    };
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            THREAD_COUNT, THREAD_COUNT, 1, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>(), sThreadFactory);
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Work for the background threads. Tasks with a lower priority value run first.
+     */
+    static abstract class Task implements Runnable, Comparable<Task> {
+        private final int mPriority;
+
+        Task(int priority) {
+            mPriority = priority;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            return mPriority < other.mPriority ? -1 : (mPriority == other.mPriority ? 0 : 1);
+        }
+    }
+
+    private final File mDir;
+    private final ArrayList<Bitmap> mRecycled = new ArrayList<Bitmap>();
+
+    WidgetPreviewCache(Context context) {
+        mDir = new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    void execute(Task task) {
+        sExecutor.execute(task);
+    }
+
+    /** Drops the task if it has not started yet. */
+    void cancel(Task task) {
+        sExecutor.remove(task);
+    }
+
+    /**
+     * Returns the key of the provider's preview at the given size, or null if its package
+     * is gone. Talks to the package manager, so call it off the UI thread.
+     */
+    static String getKey(PackageManager pm, ComponentName provider, int width, int height) {
+        final PackageInfo info;
+        try {
+            info = pm.getPackageInfo(provider.getPackageName(), 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        // lastUpdateTime catches reinstalls that keep the same versionCode.
+        return getPrefix(provider) + info.versionCode + SEPARATOR + info.lastUpdateTime
+                + SEPARATOR + width + "x" + height;
+    }
+
+    private static String getPrefix(ComponentName provider) {
+        return provider.getPackageName() + SEPARATOR + provider.getClassName() + SEPARATOR;
+    }
+
+    /**
+     * Returns the preview stored under key, or null if there is none. Runs on the
+     * background threads.
+     */
+    Bitmap get(String key) {
+        final File file = new File(mDir, key + FILE_SUFFIX);
+        if (!file.exists()) {
+            return null;
+        }
+        final byte[] bytes;
+        try {
+            bytes = readFully(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read widget preview " + file, e);
+            return null;
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            file.delete();
+            return null;
+        }
+        // Marks it as recently used for trim().
+        file.setLastModified(System.currentTimeMillis());
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = takeRecycled(options.outWidth, options.outHeight);
+        try {
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        } catch (IllegalArgumentException e) {
+            // The recycled bitmap couldn't be decoded into after all; keep it for another.
+            recycle(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        }
+    }
+
+    /**
+     * Stores the preview of provider under key, replacing those of its other versions and
+     * sizes. Runs on the background threads.
+     */
+    void put(ComponentName provider, String key, Bitmap preview) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Couldn't create " + mDir);
+            return;
+        }
+        final String prefix = getPrefix(provider);
+        final String name = key + FILE_SUFFIX;
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File other : files) {
+                final String otherName = other.getName();
+                if (otherName.startsWith(prefix) && otherName.endsWith(FILE_SUFFIX)
+                        && !otherName.equals(name)) {
+                    other.delete();
+                }
+            }
+        }
+
+        // Written under another name first so a half-written preview is never decoded.
+        FileOutputStream out = null;
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("preview", ".tmp", mDir);
+            out = new FileOutputStream(tmp);
+            preview.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(new File(mDir, name))) {
+                Log.w(TAG, "Couldn't save widget preview " + name);
+            }
+            trim();
+        } catch (IOException e) {
+            // Only costs rendering it again next time.
+            Log.w(TAG, "Couldn't save widget preview " + name, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used previews until the directory fits in
+     * {@link #MAX_DIR_BYTES}.
+     */
+    private void trim() {
+        final File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DIR_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final long ta = a.lastModified();
+                final long tb = b.lastModified();
+                return ta < tb ? -1 : (ta == tb ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_DIR_BYTES; i++) {
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * Returns a cleared mutable bitmap of the given size, reusing a recycled one if one is
+     * big enough.
+     */
+    Bitmap createBitmap(int width, int height) {
+        final Bitmap bitmap = takeRecycled(width, height);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Takes back a bitmap that is no longer shown anywhere, to be drawn into again.
+     */
+    void recycle(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        synchronized (mRecycled) {
+            if (mRecycled.size() < MAX_RECYCLED_BITMAPS) {
+                mRecycled.add(bitmap);
+            }
+        }
+    }
+
+    /** Lets go of the recycled bitmaps once the picker is gone. */
+    void clear() {
+        synchronized (mRecycled) {
+            mRecycled.clear();
+        }
+    }
+
+    private Bitmap takeRecycled(int width, int height) {
+        final int byteCount = width * height * 4;
+        synchronized (mRecycled) {
+            for (int i = 0; i < mRecycled.size(); i++) {
+                if (mRecycled.get(i).getAllocationByteCount() >= byteCount) {
+                    return mRecycled.remove(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -20,7 +20,6 @@ package com.android.settings;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
-import android.app.admin.DevicePolicyManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -58,6 +57,7 @@ import com.android.settings.ethernet.EthernetSettings;
 import android.net.ethernet.EthernetManager;
 
 import java.util.Collection;
+import java.util.HashSet;
 
 public class WirelessSettings extends RestrictedSettingsFragment
         implements OnPreferenceChangeListener {
@@ -284,42 +284,85 @@ public class WirelessSettings extends RestrictedSettingsFragment
         mTm = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
         mEthManager = EthernetManager.getInstance();
 
-        addPreferencesFromResource(R.xml.wireless_settings);
-
         final boolean isSecondaryUser = UserHandle.myUserId() != UserHandle.USER_OWNER;
 
         final Activity activity = getActivity();
-        mAirplaneModePreference = (CheckBoxPreference) findPreference(KEY_TOGGLE_AIRPLANE);
-        CheckBoxPreference nfc = (CheckBoxPreference) findPreference(KEY_TOGGLE_NFC);
-        PreferenceScreen androidBeam = (PreferenceScreen) findPreference(KEY_ANDROID_BEAM_SETTINGS);
-        CheckBoxPreference nsd = (CheckBoxPreference) findPreference(KEY_TOGGLE_NSD);
+        mNfcAdapter = NfcAdapter.getDefaultAdapter(activity);
+
+        //enable/disable wimax depending on the value in config.xml
+        boolean isWimaxEnabled = !isSecondaryUser && this.getResources().getBoolean(
+                com.android.internal.R.bool.config_wimaxEnabled);
+
+        // Enable link to CMAS app settings depending on the value in config.xml.
+        boolean isCellBroadcastAppLinkEnabled = this.getResources().getBoolean(
+                com.android.internal.R.bool.config_cellBroadcastAppLinks);
+        try {
+            if (isCellBroadcastAppLinkEnabled) {
+                PackageManager pm = getPackageManager();
+                if (pm.getApplicationEnabledSetting("com.android.cellbroadcastreceiver")
+                        == PackageManager.COMPONENT_ENABLED_STATE_DISABLED) {
+                    isCellBroadcastAppLinkEnabled = false;  // CMAS app disabled
+                }
+            }
+        } catch (IllegalArgumentException ignored) {
+            isCellBroadcastAppLinkEnabled = false;  // CMAS app not installed
+        }
+
+        ConnectivityManager cm =
+                (ConnectivityManager) activity.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        final HashSet<String> excludedKeys = new HashSet<String>();
+        // NSD checkbox is left out by default, and so is the proxy selector until we have
+        // better app support
+        excludedKeys.add(KEY_TOGGLE_NSD);
+        excludedKeys.add(KEY_PROXY_SETTINGS);
+        if (!isWimaxEnabled) {
+            excludedKeys.add(KEY_WIMAX_SETTINGS);
+        }
+        if (isSecondaryUser) { // Disable VPN
+            excludedKeys.add(KEY_VPN_SETTINGS);
+        }
+        // Leave out NFC if its not available
+        if (mNfcAdapter == null) {
+            excludedKeys.add(KEY_TOGGLE_NFC);
+            excludedKeys.add(KEY_ANDROID_BEAM_SETTINGS);
+        }
+        // Leave out Manage Mobile Plan if it's a wifi-only device.
+        if (isSecondaryUser || Utils.isWifiOnly(activity)
+                || SystemProperties.get("ro.sw.embeded.telephony").equals("false")) {
+            excludedKeys.add(KEY_MANAGE_MOBILE_PLAN);
+        }
+        // Leave out Tethering if it's not allowed or if it's a wifi-only device
+        if (isSecondaryUser || !cm.isTetheringSupported()) {
+            excludedKeys.add(KEY_TETHER_SETTINGS);
+        }
+        if (isSecondaryUser || !isCellBroadcastAppLinkEnabled) {
+            excludedKeys.add(KEY_CELL_BROADCAST_SETTINGS);
+        }
+
+        addPreferencesFromResource(R.xml.wireless_settings, excludedKeys);
 
+        mAirplaneModePreference = (CheckBoxPreference) findPreference(KEY_TOGGLE_AIRPLANE);
         mAirplaneModeEnabler = new AirplaneModeEnabler(activity, mAirplaneModePreference);
-        mNfcEnabler = new NfcEnabler(activity, nfc, androidBeam);
+        if (mNfcAdapter != null) {
+            CheckBoxPreference nfc = (CheckBoxPreference) findPreference(KEY_TOGGLE_NFC);
+            PreferenceScreen androidBeam =
+                    (PreferenceScreen) findPreference(KEY_ANDROID_BEAM_SETTINGS);
+            mNfcEnabler = new NfcEnabler(activity, nfc, androidBeam);
+        }
         mEthernetSettings = (PreferenceScreen) findPreference(KEY_ETHERNET_SETTINGS);
         mMobileNetworkSettings = (PreferenceScreen)findPreference(KEY_MOBILE_NETWORK_SETTINGS);
         mSmsApplicationPreference = (SmsListPreference) findPreference(KEY_SMS_APPLICATION);
         mSmsApplicationPreference.setOnPreferenceChangeListener(this);
         initSmsApplicationSetting();
 
-        // Remove NSD checkbox by default
-        getPreferenceScreen().removePreference(nsd);
-
         //mNsdEnabler = new NsdEnabler(activity, nsd);
 
         String toggleable = Settings.Global.getString(activity.getContentResolver(),
                 Settings.Global.AIRPLANE_MODE_TOGGLEABLE_RADIOS);
 
-        //enable/disable wimax depending on the value in config.xml
-        boolean isWimaxEnabled = !isSecondaryUser && this.getResources().getBoolean(
-                com.android.internal.R.bool.config_wimaxEnabled);
-        if (!isWimaxEnabled) {
-            PreferenceScreen root = getPreferenceScreen();
-            Preference ps = (Preference) findPreference(KEY_WIMAX_SETTINGS);
-            if (ps != null) root.removePreference(ps);
-        } else {
-            if (toggleable == null || !toggleable.contains(Settings.Global.RADIO_WIMAX )
-                    && isWimaxEnabled) {
+        if (isWimaxEnabled) {
+            if (toggleable == null || !toggleable.contains(Settings.Global.RADIO_WIMAX )) {
                 Preference ps = (Preference) findPreference(KEY_WIMAX_SETTINGS);
                 ps.setDependency(KEY_TOGGLE_AIRPLANE);
             }
@@ -327,12 +370,10 @@ public class WirelessSettings extends RestrictedSettingsFragment
         protectByRestrictions(KEY_WIMAX_SETTINGS);
 
         // Manually set dependencies for Wifi when not toggleable.
-        if (toggleable == null || !toggleable.contains(Settings.Global.RADIO_WIFI)) {
+        if (!isSecondaryUser
+                && (toggleable == null || !toggleable.contains(Settings.Global.RADIO_WIFI))) {
             findPreference(KEY_VPN_SETTINGS).setDependency(KEY_TOGGLE_AIRPLANE);
         }
-        if (isSecondaryUser) { // Disable VPN
-            removePreference(KEY_VPN_SETTINGS);
-        }
         protectByRestrictions(KEY_VPN_SETTINGS);
         // Manually set dependencies for Bluetooth when not toggleable.
         if (toggleable == null || !toggleable.contains(Settings.Global.RADIO_BLUETOOTH)) {
@@ -340,26 +381,16 @@ public class WirelessSettings extends RestrictedSettingsFragment
         }
 
         // Manually set dependencies for NFC when not toggleable.
-        if (toggleable == null || !toggleable.contains(Settings.Global.RADIO_NFC)) {
+        if (mNfcAdapter != null
+                && (toggleable == null || !toggleable.contains(Settings.Global.RADIO_NFC))) {
             findPreference(KEY_TOGGLE_NFC).setDependency(KEY_TOGGLE_AIRPLANE);
             findPreference(KEY_ANDROID_BEAM_SETTINGS).setDependency(KEY_TOGGLE_AIRPLANE);
         }
 
-        // Remove NFC if its not available
-        mNfcAdapter = NfcAdapter.getDefaultAdapter(activity);
-        if (mNfcAdapter == null) {
-            getPreferenceScreen().removePreference(nfc);
-            getPreferenceScreen().removePreference(androidBeam);
-            mNfcEnabler = null;
-        }
-
-        // Remove Mobile Network Settings and Manage Mobile Plan if it's a wifi-only device.
+        // Remove Mobile Network Settings if it's a wifi-only device. It is only removed after
+        // inflating since onResume adds it back when a modem shows up.
         if (isSecondaryUser || Utils.isWifiOnly(getActivity())) {
             removePreference(KEY_MOBILE_NETWORK_SETTINGS);  
-            removePreference(KEY_MANAGE_MOBILE_PLAN);
-        }
-        if(SystemProperties.get("ro.sw.embeded.telephony").equals("false")){
-        	removePreference(KEY_MANAGE_MOBILE_PLAN);
         }
         protectByRestrictions(KEY_MOBILE_NETWORK_SETTINGS);
         protectByRestrictions(KEY_MANAGE_MOBILE_PLAN);
@@ -370,48 +401,16 @@ public class WirelessSettings extends RestrictedSettingsFragment
         }
 
         // Remove Airplane Mode settings if it's a stationary device such as a TV.
+        // Removed rather than left out, as the dependencies above are on it.
         if (getActivity().getPackageManager().hasSystemFeature(PackageManager.FEATURE_TELEVISION)) {
             removePreference(KEY_TOGGLE_AIRPLANE);
         }
 
-        // Enable Proxy selector settings if allowed.
-        Preference mGlobalProxy = findPreference(KEY_PROXY_SETTINGS);
-        DevicePolicyManager mDPM = (DevicePolicyManager)
-                activity.getSystemService(Context.DEVICE_POLICY_SERVICE);
-        // proxy UI disabled until we have better app support
-        getPreferenceScreen().removePreference(mGlobalProxy);
-        mGlobalProxy.setEnabled(mDPM.getGlobalProxyAdmin() == null);
-
-        // Disable Tethering if it's not allowed or if it's a wifi-only device
-        ConnectivityManager cm =
-                (ConnectivityManager) activity.getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (isSecondaryUser || !cm.isTetheringSupported()) {
-            getPreferenceScreen().removePreference(findPreference(KEY_TETHER_SETTINGS));
-        } else {
+        if (!excludedKeys.contains(KEY_TETHER_SETTINGS)) {
             Preference p = findPreference(KEY_TETHER_SETTINGS);
             p.setTitle(Utils.getTetheringLabel(cm));
         }
         protectByRestrictions(KEY_TETHER_SETTINGS);
-
-        // Enable link to CMAS app settings depending on the value in config.xml.
-        boolean isCellBroadcastAppLinkEnabled = this.getResources().getBoolean(
-                com.android.internal.R.bool.config_cellBroadcastAppLinks);
-        try {
-            if (isCellBroadcastAppLinkEnabled) {
-                PackageManager pm = getPackageManager();
-                if (pm.getApplicationEnabledSetting("com.android.cellbroadcastreceiver")
-                        == PackageManager.COMPONENT_ENABLED_STATE_DISABLED) {
-                    isCellBroadcastAppLinkEnabled = false;  // CMAS app disabled
-                }
-            }
-        } catch (IllegalArgumentException ignored) {
-            isCellBroadcastAppLinkEnabled = false;  // CMAS app not installed
-        }
-        if (isSecondaryUser || !isCellBroadcastAppLinkEnabled) {
-            PreferenceScreen root = getPreferenceScreen();
-            Preference ps = findPreference(KEY_CELL_BROADCAST_SETTINGS);
-            if (ps != null) root.removePreference(ps);
-        }
         protectByRestrictions(KEY_CELL_BROADCAST_SETTINGS);
     }
 
@@ -29,18 +29,16 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.ListView;
-import android.widget.SimpleAdapter;
+import android.widget.TextView;
 
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 import java.util.TimeZone;
 
 /**
@@ -57,21 +55,19 @@ public class ZonePicker extends ListFragment {
         public void onZoneSelected(TimeZone tz);
     }
 
-    private static final String KEY_ID = "id";  // value: String
-    private static final String KEY_DISPLAYNAME = "name";  // value: String
-    private static final String KEY_GMT = "gmt";  // value: String
-    private static final String KEY_OFFSET = "offset";  // value: int (Integer)
     private static final String XMLTAG_TIMEZONE = "timezone";
 
     private static final int HOURS_1 = 60 * 60000;
+    /** Zone transitions happen on a quarter hour UTC. */
+    private static final int MINUTES_15 = 15 * 60000;
 
     private static final int MENU_TIMEZONE = Menu.FIRST+1;
     private static final int MENU_ALPHABETICAL = Menu.FIRST;
 
     private boolean mSortedByTimezone;
 
-    private SimpleAdapter mTimezoneSortedAdapter;
-    private SimpleAdapter mAlphabeticalAdapter;
+    private ZoneAdapter mTimezoneSortedAdapter;
+    private ZoneAdapter mAlphabeticalAdapter;
 
     private ZoneSelectionListener mListener;
 
@@ -80,7 +76,7 @@ public class ZonePicker extends ListFragment {
      *
      * @param sortedByName use Name for sorting the list.
      */
-    public static SimpleAdapter constructTimezoneAdapter(Context context,
+    public static ZoneAdapter constructTimezoneAdapter(Context context,
             boolean sortedByName) {
         return constructTimezoneAdapter(context, sortedByName,
                 R.layout.date_time_setup_custom_list_item_2);
@@ -91,47 +87,23 @@ public class ZonePicker extends ListFragment {
      *
      * @param sortedByName use Name for sorting the list.
      */
-    public static SimpleAdapter constructTimezoneAdapter(Context context,
+    public static ZoneAdapter constructTimezoneAdapter(Context context,
             boolean sortedByName, int layoutId) {
-        final String[] from = new String[] {KEY_DISPLAYNAME, KEY_GMT};
-        final int[] to = new int[] {android.R.id.text1, android.R.id.text2};
-
-        final String sortKey = (sortedByName ? KEY_DISPLAYNAME : KEY_OFFSET);
-        final MyComparator comparator = new MyComparator(sortKey);
-        final List<HashMap<String, Object>> sortedList = getZones(context);
-        Collections.sort(sortedList, comparator);
-        final SimpleAdapter adapter = new SimpleAdapter(context,
-                sortedList,
-                layoutId,
-                from,
-                to);
-
-        return adapter;
+        return new ZoneAdapter(context, ZoneIndex.get(context), sortedByName, layoutId);
     }
 
     /**
-     * Searches {@link TimeZone} from the given {@link SimpleAdapter} object, and returns
+     * Searches {@link TimeZone} from the given {@link ZoneAdapter} object, and returns
      * the index for the TimeZone.
      *
-     * @param adapter SimpleAdapter constructed by
+     * @param adapter ZoneAdapter constructed by
      * {@link #constructTimezoneAdapter(Context, boolean)}.
      * @param tz TimeZone to be searched.
      * @return Index for the given TimeZone. -1 when there's no corresponding list item.
      * returned.
      */
-    public static int getTimeZoneIndex(SimpleAdapter adapter, TimeZone tz) {
-        final String defaultId = tz.getID();
-        final int listSize = adapter.getCount();
-        for (int i = 0; i < listSize; i++) {
-            // Using HashMap<String, Object> induces unnecessary warning.
-            final HashMap<?,?> map = (HashMap<?,?>)adapter.getItem(i);
-            final String id = (String)map.get(KEY_ID);
-            if (defaultId.equals(id)) {
-                // If current timezone is in this list, move focus to it
-                return i;
-            }
-        }
-        return -1;
+    public static int getTimeZoneIndex(ZoneAdapter adapter, TimeZone tz) {
+        return adapter.getPosition(tz.getID());
     }
 
     /**
@@ -140,7 +112,7 @@ public class ZonePicker extends ListFragment {
      * @return TimeZone object corresponding to the item.
      */
     public static TimeZone obtainTimeZoneFromItem(Object item) {
-        return TimeZone.getTimeZone((String)((Map<?, ?>)item).get(KEY_ID));
+        return TimeZone.getTimeZone((String) item);
     }
 
     @Override
@@ -156,6 +128,14 @@ public class ZonePicker extends ListFragment {
         setHasOptionsMenu(true);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        // Offsets may have changed while we were away.
+        mTimezoneSortedAdapter.refresh();
+        mAlphabeticalAdapter.refresh();
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
@@ -207,8 +187,9 @@ public class ZonePicker extends ListFragment {
     }
 
     private void setSorting(boolean sortByTimezone) {
-        final SimpleAdapter adapter =
+        final ZoneAdapter adapter =
                 sortByTimezone ? mTimezoneSortedAdapter : mAlphabeticalAdapter;
+        adapter.refresh();
         setListAdapter(adapter);
         mSortedByTimezone = sortByTimezone;
         final int defaultIndex = getTimeZoneIndex(adapter, TimeZone.getDefault());
@@ -217,124 +198,279 @@ public class ZonePicker extends ListFragment {
         }
     }
 
-    private static List<HashMap<String, Object>> getZones(Context context) {
-        final List<HashMap<String, Object>> myData = new ArrayList<HashMap<String, Object>>();
-        final long date = Calendar.getInstance().getTimeInMillis();
-        try {
-            XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
-            while (xrp.next() != XmlResourceParser.START_TAG)
-                continue;
-            xrp.next();
-            while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                while (xrp.getEventType() != XmlResourceParser.START_TAG) {
-                    if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
-                        return myData;
+    @Override
+    public void onListItemClick(ListView listView, View v, int position, long id) {
+        // Ignore extra clicks
+        if (!isResumed()) return;
+        final String tzId = (String) listView.getItemAtPosition(position);
+
+        // Update the system timezone value
+        final Activity activity = getActivity();
+        final AlarmManager alarm = (AlarmManager) activity.getSystemService(Context.ALARM_SERVICE);
+        alarm.setTimeZone(tzId);
+        final TimeZone tz = TimeZone.getTimeZone(tzId);
+        if (mListener != null) {
+            mListener.onZoneSelected(tz);
+        } else {
+            getActivity().onBackPressed();
+        }
+    }
+
+    /**
+     * The zones listed in R.xml.timezones, parsed once per locale and kept in parallel arrays
+     * along with both sort orders. Offsets are only looked up when first needed, so the
+     * alphabetical list never loads zone data for rows that are not shown.
+     */
+    static final class ZoneIndex {
+        private static ZoneIndex sCachedIndex;
+
+        private final Locale mLocale;
+        private final String[] mIds;
+        private final String[] mDisplayNames;
+        private final int[] mNameOrder;
+
+        /** Quarter hour (since epoch) the offsets below were computed in */
+        private long mOffsetPeriod = -1;
+        /** Time the offsets below were computed at */
+        private long mOffsetTime;
+        /** Offsets including daylight time at mOffsetTime, filled in on demand */
+        private int[] mOffsets;
+        private boolean[] mHasOffset;
+        private String[] mGmtStrings;
+        private int[] mOffsetOrder;
+
+        static synchronized ZoneIndex get(Context context) {
+            final Locale locale = context.getResources().getConfiguration().locale;
+            if (sCachedIndex == null || !sCachedIndex.mLocale.equals(locale)) {
+                sCachedIndex = load(context, locale);
+            }
+            sCachedIndex.checkOffsetsCurrent();
+            return sCachedIndex;
+        }
+
+        private static ZoneIndex load(Context context, Locale locale) {
+            final ArrayList<String> ids = new ArrayList<String>();
+            final ArrayList<String> names = new ArrayList<String>();
+            try {
+                XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
+                while (xrp.next() != XmlResourceParser.START_TAG)
+                    continue;
+                xrp.next();
+                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
+                    while (xrp.getEventType() != XmlResourceParser.START_TAG) {
+                        if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
+                            return new ZoneIndex(locale, ids, names);
+                        }
+                        xrp.next();
+                    }
+                    if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
+                        ids.add(xrp.getAttributeValue(0));
+                        names.add(xrp.nextText());
+                    }
+                    while (xrp.getEventType() != XmlResourceParser.END_TAG) {
+                        xrp.next();
                     }
                     xrp.next();
                 }
-                if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
-                    String id = xrp.getAttributeValue(0);
-                    String displayName = xrp.nextText();
-                    addItem(myData, id, displayName, date);
-                }
-                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                    xrp.next();
+                xrp.close();
+            } catch (XmlPullParserException xppe) {
+                Log.e(TAG, "Ill-formatted timezones.xml file");
+            } catch (java.io.IOException ioe) {
+                Log.e(TAG, "Unable to read timezones.xml file");
+            }
+            return new ZoneIndex(locale, ids, names);
+        }
+
+        private ZoneIndex(Locale locale, List<String> ids, List<String> names) {
+            final int count = ids.size();
+            mLocale = locale;
+            mIds = ids.toArray(new String[count]);
+            mDisplayNames = names.toArray(new String[count]);
+            mNameOrder = new int[count];
+            for (int i = 0; i < count; i++) {
+                mNameOrder[i] = i;
+            }
+            // Stable insertion sort; the list is short and this avoids boxing.
+            for (int i = 1; i < count; i++) {
+                final int zone = mNameOrder[i];
+                int j = i - 1;
+                while (j >= 0 && mDisplayNames[mNameOrder[j]].compareTo(mDisplayNames[zone]) > 0) {
+                    mNameOrder[j + 1] = mNameOrder[j];
+                    j--;
                 }
-                xrp.next();
+                mNameOrder[j + 1] = zone;
             }
-            xrp.close();
-        } catch (XmlPullParserException xppe) {
-            Log.e(TAG, "Ill-formatted timezones.xml file");
-        } catch (java.io.IOException ioe) {
-            Log.e(TAG, "Unable to read timezones.xml file");
         }
 
-        return myData;
-    }
+        /**
+         * Drops the daylight-time dependent data once the quarter hour changes, since a
+         * transition may have happened since it was computed.
+         */
+        private synchronized void checkOffsetsCurrent() {
+            final long now = System.currentTimeMillis();
+            final long period = now / MINUTES_15;
+            if (period != mOffsetPeriod) {
+                mOffsetPeriod = period;
+                mOffsetTime = now;
+                mOffsets = new int[mIds.length];
+                mHasOffset = new boolean[mIds.length];
+                mGmtStrings = new String[mIds.length];
+                mOffsetOrder = null;
+            }
+        }
 
-    private static void addItem(
-            List<HashMap<String, Object>> myData, String id, String displayName, long date) {
-        final HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put(KEY_ID, id);
-        map.put(KEY_DISPLAYNAME, displayName);
-        final TimeZone tz = TimeZone.getTimeZone(id);
-        final int offset = tz.getOffset(date);
-        final int p = Math.abs(offset);
-        final StringBuilder name = new StringBuilder();
-        name.append("GMT");
-
-        if (offset < 0) {
-            name.append('-');
-        } else {
-            name.append('+');
+        int size() {
+            return mIds.length;
         }
 
-        name.append(p / (HOURS_1));
-        name.append(':');
+        synchronized long getOffsetTime() {
+            return mOffsetTime;
+        }
 
-        int min = p / 60000;
-        min %= 60;
+        String getId(int zone) {
+            return mIds[zone];
+        }
 
-        if (min < 10) {
-            name.append('0');
+        String getDisplayName(int zone) {
+            return mDisplayNames[zone];
         }
-        name.append(min);
 
-        map.put(KEY_GMT, name.toString());
-        map.put(KEY_OFFSET, offset);
+        synchronized int getOffset(int zone) {
+            if (!mHasOffset[zone]) {
+                mOffsets[zone] = TimeZone.getTimeZone(mIds[zone]).getOffset(mOffsetTime);
+                mHasOffset[zone] = true;
+            }
+            return mOffsets[zone];
+        }
 
-        myData.add(map);
-    }
+        synchronized String getGmtString(int zone) {
+            if (mGmtStrings[zone] == null) {
+                mGmtStrings[zone] = formatOffset(getOffset(zone));
+            }
+            return mGmtStrings[zone];
+        }
 
-    @Override
-    public void onListItemClick(ListView listView, View v, int position, long id) {
-        // Ignore extra clicks
-        if (!isResumed()) return;
-        final Map<?, ?> map = (Map<?, ?>)listView.getItemAtPosition(position);
-        final String tzId = (String) map.get(KEY_ID);
+        int[] getNameOrder() {
+            return mNameOrder;
+        }
 
-        // Update the system timezone value
-        final Activity activity = getActivity();
-        final AlarmManager alarm = (AlarmManager) activity.getSystemService(Context.ALARM_SERVICE);
-        alarm.setTimeZone(tzId);
-        final TimeZone tz = TimeZone.getTimeZone(tzId);
-        if (mListener != null) {
-            mListener.onZoneSelected(tz);
-        } else {
-            getActivity().onBackPressed();
+        /** Zones ordered by their current offset, ties kept in the order of timezones.xml. */
+        synchronized int[] getOffsetOrder() {
+            if (mOffsetOrder == null) {
+                final int count = mIds.length;
+                // Pack offset and position into one primitive key so a plain sort is stable.
+                final long[] keys = new long[count];
+                for (int i = 0; i < count; i++) {
+                    keys[i] = ((long) getOffset(i) << 32) | i;
+                }
+                Arrays.sort(keys);
+                final int[] order = new int[count];
+                for (int i = 0; i < count; i++) {
+                    order[i] = (int) keys[i];
+                }
+                mOffsetOrder = order;
+            }
+            return mOffsetOrder;
         }
-    }
 
-    private static class MyComparator implements Comparator<HashMap<?, ?>> {
-        private String mSortingKey;
+        private static String formatOffset(int offset) {
+            final int p = Math.abs(offset);
+            final StringBuilder name = new StringBuilder();
+            name.append("GMT");
+
+            if (offset < 0) {
+                name.append('-');
+            } else {
+                name.append('+');
+            }
+
+            name.append(p / (HOURS_1));
+            name.append(':');
 
-        public MyComparator(String sortingKey) {
-            mSortingKey = sortingKey;
+            int min = p / 60000;
+            min %= 60;
+
+            if (min < 10) {
+                name.append('0');
+            }
+            name.append(min);
+            return name.toString();
         }
+    }
 
-        public void setSortingKey(String sortingKey) {
-            mSortingKey = sortingKey;
+    /**
+     * Lists the zones of a {@link ZoneIndex} in one of its sort orders. Items are zone ids.
+     */
+    public static class ZoneAdapter extends BaseAdapter {
+        private final LayoutInflater mInflater;
+        private final ZoneIndex mIndex;
+        private final boolean mSortedByName;
+        private final int mLayoutId;
+        private int[] mOrder;
+        /** Time the offsets shown were computed at */
+        private long mOffsetTime;
+
+        ZoneAdapter(Context context, ZoneIndex index, boolean sortedByName, int layoutId) {
+            mInflater = (LayoutInflater) context.getSystemService(
+                    Context.LAYOUT_INFLATER_SERVICE);
+            mIndex = index;
+            mSortedByName = sortedByName;
+            mLayoutId = layoutId;
+            mOffsetTime = index.getOffsetTime();
+            mOrder = sortedByName ? index.getNameOrder() : index.getOffsetOrder();
         }
 
-        public int compare(HashMap<?, ?> map1, HashMap<?, ?> map2) {
-            Object value1 = map1.get(mSortingKey);
-            Object value2 = map2.get(mSortingKey);
-
-            /*
-             * This should never happen, but just in-case, put non-comparable
-             * items at the end.
-             */
-            if (!isComparable(value1)) {
-                return isComparable(value2) ? 1 : 0;
-            } else if (!isComparable(value2)) {
-                return -1;
+        /**
+         * Brings the offsets up to date, re-sorting the list if it is ordered by them. Call
+         * before showing the list again.
+         */
+        public void refresh() {
+            mIndex.checkOffsetsCurrent();
+            final long offsetTime = mIndex.getOffsetTime();
+            if (offsetTime != mOffsetTime) {
+                mOffsetTime = offsetTime;
+                if (!mSortedByName) {
+                    mOrder = mIndex.getOffsetOrder();
+                }
+                notifyDataSetChanged();
             }
+        }
+
+        @Override
+        public int getCount() {
+            return mOrder.length;
+        }
+
+        @Override
+        public String getItem(int position) {
+            return mIndex.getId(mOrder[position]);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mOrder[position];
+        }
 
-            return ((Comparable) value1).compareTo(value2);
+        /** Returns the position of the zone with the given id, or -1. */
+        public int getPosition(String id) {
+            for (int i = 0; i < mOrder.length; i++) {
+                if (mIndex.getId(mOrder[i]).equals(id)) {
+                    return i;
+                }
+            }
+            return -1;
         }
 
-        private boolean isComparable(Object value) {
-            return (value != null) && (value instanceof Comparable); 
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View view = convertView != null
+                    ? convertView : mInflater.inflate(mLayoutId, parent, false);
+            final int zone = mOrder[position];
+            ((TextView) view.findViewById(android.R.id.text1)).setText(
+                    mIndex.getDisplayName(zone));
+            ((TextView) view.findViewById(android.R.id.text2)).setText(
+                    mIndex.getGmtString(zone));
+            return view;
         }
     }
 }
@@ -63,11 +63,24 @@ public class ApplicationsState {
             = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
 
     public static String normalize(String str) {
+        if (isAscii(str)) {
+            // Nothing to decompose or strip; skip the normalizer and the regex.
+            return str.toLowerCase();
+        }
         String tmp = Normalizer.normalize(str, Form.NFD);
         return REMOVE_DIACRITICALS_PATTERN.matcher(tmp)
                 .replaceAll("").toLowerCase();
     }
 
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static class SizeInfo {
         long cacheSize;
         long codeSize;
@@ -97,11 +110,12 @@ public class ApplicationsState {
         boolean mounted;
         
         String getNormalizedLabel() {
-            if (normalizedLabel != null) {
-                return normalizedLabel;
+            String normalized = normalizedLabel;
+            if (normalized == null) {
+                normalized = normalize(label);
+                normalizedLabel = normalized;
             }
-            normalizedLabel = normalize(label);
-            return normalizedLabel;
+            return normalized;
         }
 
         // Need to synchronize on 'this' for the following.
@@ -126,6 +140,7 @@ public class ApplicationsState {
         
         void ensureLabel(Context context) {
             if (this.label == null || !this.mounted) {
+                final String oldLabel = this.label;
                 if (!this.apkFile.exists()) {
                     this.mounted = false;
                     this.label = info.packageName;
@@ -134,6 +149,9 @@ public class ApplicationsState {
                     CharSequence label = info.loadLabel(context.getPackageManager());
                     this.label = label != null ? label.toString() : info.packageName;
                 }
+                if (!this.label.equals(oldLabel)) {
+                    this.normalizedLabel = null;
+                }
             }
         }
         
@@ -577,6 +595,9 @@ public class ApplicationsState {
                         if (DEBUG_LOCKING) Log.v(TAG, "rebuild acquired lock");
                         AppEntry entry = getEntryLocked(info);
                         entry.ensureLabel(mContext);
+                        // Normalize here, off the main thread, rather than on the first
+                        // keystroke of a type-to-filter.
+                        entry.getNormalizedLabel();
                         if (DEBUG) Log.i(TAG, "Using " + info.packageName + ": " + entry);
                         filteredApps.add(entry);
                         if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
@@ -16,15 +16,10 @@
 
 package com.android.settings.applications;
 
-import static android.net.NetworkPolicyManager.POLICY_NONE;
-import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
-
 import android.app.Activity;
-import android.app.ActivityManager;
 import android.app.AlertDialog;
-import android.app.AppOpsManager;
 import android.app.Fragment;
-import android.app.INotificationManager;
+import android.app.ProgressDialog;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -34,16 +29,11 @@ import android.content.ServiceConnection;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.net.NetworkPolicyManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.os.ServiceManager;
-import android.os.UserHandle;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceFrameLayout;
 import android.provider.Settings;
@@ -79,8 +69,8 @@ import com.android.settings.deviceinfo.StorageMeasurement;
 import com.android.settings.Utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.List;
 
 final class CanBeOnSdCardChecker {
     final IPackageManager mPm;
@@ -136,7 +126,7 @@ interface AppClickListener {
  */
 public class ManageApplications extends Fragment implements
         AppClickListener, DialogInterface.OnClickListener,
-        DialogInterface.OnDismissListener {
+        DialogInterface.OnDismissListener, ResetAppPreferencesTask.Callbacks {
 
     static final String TAG = "ManageApplications";
     static final boolean DEBUG = false;
@@ -464,6 +454,8 @@ public class ManageApplications extends Fragment implements
     private ViewPager mViewPager;
 
     AlertDialog mResetDialog;
+    ResetAppPreferencesTask mResetTask;
+    ProgressDialog mResetProgressDialog;
 
     class MyPagerAdapter extends PagerAdapter
             implements ViewPager.OnPageChangeListener {
@@ -521,6 +513,143 @@ public class ManageApplications extends Fragment implements
         }
     }
 
+    /**
+     * Word-start index over the normalized labels of one list of app entries, used for
+     * type-to-filter. An entry matches a prefix if its label, or any word of it following a
+     * space, starts with the prefix. Called from both the filter thread and the UI thread.
+     */
+    static class LabelPrefixIndex {
+        private ArrayList<ApplicationsState.AppEntry> mEntries;
+        /** Label suffixes beginning at each word start, sorted. */
+        private String[] mKeys;
+        /** Position in mEntries of the label each key came from. */
+        private int[] mKeyPositions;
+
+        private String mLastPrefix;
+        private ArrayList<ApplicationsState.AppEntry> mLastResult;
+
+        /**
+         * Returns the entries, in their original order, matching an already normalized
+         * prefix. The returned list must not be modified.
+         */
+        synchronized ArrayList<ApplicationsState.AppEntry> filter(String prefix,
+                ArrayList<ApplicationsState.AppEntry> entries) {
+            ArrayList<ApplicationsState.AppEntry> result;
+            if (entries == mEntries && mLastPrefix != null && prefix.startsWith(mLastPrefix)) {
+                // Typing more can only drop entries, so narrow the last result.
+                result = prefix.length() == mLastPrefix.length()
+                        ? mLastResult : narrow(mLastResult, prefix);
+            } else {
+                if (entries != mEntries) {
+                    build(entries);
+                }
+                result = query(prefix);
+            }
+            mLastPrefix = prefix;
+            mLastResult = result;
+            return result;
+        }
+
+        private void build(ArrayList<ApplicationsState.AppEntry> entries) {
+            final int N = entries.size();
+            final String[] labels = new String[N];
+            int count = 0;
+            for (int i = 0; i < N; i++) {
+                labels[i] = entries.get(i).getNormalizedLabel();
+                count += countWordStarts(labels[i]);
+            }
+            final String[] keys = new String[count];
+            final int[] positions = new int[count];
+            final Integer[] order = new Integer[count];
+            int k = 0;
+            for (int i = 0; i < N; i++) {
+                final String label = labels[i];
+                for (int start = 0; start >= 0; start = nextWordStart(label, start)) {
+                    keys[k] = label.substring(start);
+                    positions[k] = i;
+                    order[k] = k;
+                    k++;
+                }
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return keys[lhs].compareTo(keys[rhs]);
+                }
+            });
+            mKeys = new String[count];
+            mKeyPositions = new int[count];
+            for (int i = 0; i < count; i++) {
+                mKeys[i] = keys[order[i]];
+                mKeyPositions[i] = positions[order[i]];
+            }
+            mEntries = entries;
+            mLastPrefix = null;
+            mLastResult = null;
+        }
+
+        private ArrayList<ApplicationsState.AppEntry> query(String prefix) {
+            // Find the first key >= prefix; every key starting with it follows contiguously.
+            int lo = 0;
+            int hi = mKeys.length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (mKeys[mid].compareTo(prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int end = lo;
+            while (end < mKeys.length && mKeys[end].startsWith(prefix)) {
+                end++;
+            }
+            final int[] positions = Arrays.copyOfRange(mKeyPositions, lo, end);
+            Arrays.sort(positions);
+            final ArrayList<ApplicationsState.AppEntry> result
+                    = new ArrayList<ApplicationsState.AppEntry>(positions.length);
+            int last = -1;
+            for (int position : positions) {
+                // A label with several matching words shows up once.
+                if (position != last) {
+                    result.add(mEntries.get(position));
+                    last = position;
+                }
+            }
+            return result;
+        }
+
+        private static ArrayList<ApplicationsState.AppEntry> narrow(
+                ArrayList<ApplicationsState.AppEntry> entries, String prefix) {
+            final String spacePrefix = " " + prefix;
+            final ArrayList<ApplicationsState.AppEntry> result
+                    = new ArrayList<ApplicationsState.AppEntry>();
+            for (int i = 0; i < entries.size(); i++) {
+                final ApplicationsState.AppEntry entry = entries.get(i);
+                final String label = entry.getNormalizedLabel();
+                if (label.startsWith(prefix) || label.indexOf(spacePrefix) != -1) {
+                    result.add(entry);
+                }
+            }
+            return result;
+        }
+
+        private static int countWordStarts(String label) {
+            int count = 1;
+            for (int i = 0; i < label.length(); i++) {
+                if (label.charAt(i) == ' ') {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static int nextWordStart(String label, int from) {
+            final int space = label.indexOf(' ', from);
+            return space < 0 ? -1 : space + 1;
+        }
+    }
+
     /*
      * Custom adapter implementation for the ListView
      * This adapter maintains a map for each displayed application and its properties
@@ -545,6 +674,7 @@ public class ManageApplications extends Fragment implements
         private boolean mWaitingForData;
         private int mWhichSize = SIZE_TOTAL;
         CharSequence mCurFilterPrefix;
+        private final LabelPrefixIndex mPrefixIndex = new LabelPrefixIndex();
 
         private Filter mFilter = new Filter() {
             @Override
@@ -675,20 +805,9 @@ public class ManageApplications extends Fragment implements
                 ArrayList<ApplicationsState.AppEntry> origEntries) {
             if (prefix == null || prefix.length() == 0) {
                 return origEntries;
-            } else {
-                String prefixStr = ApplicationsState.normalize(prefix.toString());
-                final String spacePrefixStr = " " + prefixStr;
-                ArrayList<ApplicationsState.AppEntry> newEntries
-                        = new ArrayList<ApplicationsState.AppEntry>();
-                for (int i=0; i<origEntries.size(); i++) {
-                    ApplicationsState.AppEntry entry = origEntries.get(i);
-                    String nlabel = entry.getNormalizedLabel();
-                    if (nlabel.startsWith(prefixStr) || nlabel.indexOf(spacePrefixStr) != -1) {
-                        newEntries.add(entry);
-                    }
-                }
-                return newEntries;
             }
+            return mPrefixIndex.filter(ApplicationsState.normalize(prefix.toString()),
+                    origEntries);
         }
 
         @Override
@@ -858,6 +977,12 @@ public class ManageApplications extends Fragment implements
 
         mDefaultListType = defaultListType;
 
+        // A reset started before the screen was recreated is still running.
+        mResetTask = ResetAppPreferencesTask.getRunning();
+        if (mResetTask != null) {
+            mResetTask.setCallbacks(this);
+        }
+
         final Intent containerIntent = new Intent().setComponent(
                 StorageMeasurement.DEFAULT_CONTAINER_COMPONENT);
         getActivity().bindService(containerIntent, mContainerConnection, Context.BIND_AUTO_CREATE);
@@ -949,6 +1074,9 @@ public class ManageApplications extends Fragment implements
         updateCurrentTab(mViewPager.getCurrentItem());
         updateNumTabs();
         updateOptionsMenu();
+        if (mResetTask != null) {
+            showResetProgress(mResetTask.getDone(), mResetTask.getTotal());
+        }
     }
 
     @Override
@@ -980,6 +1108,7 @@ public class ManageApplications extends Fragment implements
             mResetDialog.dismiss();
             mResetDialog = null;
         }
+        dismissResetProgress();
     }
 
     @Override
@@ -1064,6 +1193,13 @@ public class ManageApplications extends Fragment implements
     @Override
     public void onDestroy() {
         getActivity().unbindService(mContainerConnection);
+        if (mResetTask != null) {
+            // Let the reset finish; the screen that replaces this one picks it up again.
+            if (mResetTask.getCallbacks() == this) {
+                mResetTask.setCallbacks(null);
+            }
+            mResetTask = null;
+        }
         super.onDestroy();
     }
 
@@ -1116,72 +1252,59 @@ public class ManageApplications extends Fragment implements
 
     @Override
     public void onClick(DialogInterface dialog, int which) {
-        if (mResetDialog == dialog) {
-            final PackageManager pm = getActivity().getPackageManager();
-            final IPackageManager mIPm = IPackageManager.Stub.asInterface(
-                    ServiceManager.getService("package"));
-            final INotificationManager nm = INotificationManager.Stub.asInterface(
-                    ServiceManager.getService(Context.NOTIFICATION_SERVICE));
-            final NetworkPolicyManager npm = NetworkPolicyManager.from(getActivity());
-            final AppOpsManager aom = (AppOpsManager)getActivity().getSystemService(
-                    Context.APP_OPS_SERVICE);
-            final Handler handler = new Handler(getActivity().getMainLooper());
-            (new AsyncTask<Void, Void, Void>() {
-                @Override protected Void doInBackground(Void... params) {
-                    List<ApplicationInfo> apps = pm.getInstalledApplications(
-                            PackageManager.GET_DISABLED_COMPONENTS);
-                    for (int i=0; i<apps.size(); i++) {
-                        ApplicationInfo app = apps.get(i);
-                        try {
-                            if (DEBUG) Log.v(TAG, "Enabling notifications: " + app.packageName);
-                            nm.setNotificationsEnabledForPackage(app.packageName, app.uid, true);
-                        } catch (android.os.RemoteException ex) {
-                        }
-                        if (!app.enabled) {
-                            if (DEBUG) Log.v(TAG, "Enabling app: " + app.packageName);
-                            if (pm.getApplicationEnabledSetting(app.packageName)
-                                    == PackageManager.COMPONENT_ENABLED_STATE_DISABLED_USER) {
-                                pm.setApplicationEnabledSetting(app.packageName,
-                                        PackageManager.COMPONENT_ENABLED_STATE_DEFAULT,
-                                        PackageManager.DONT_KILL_APP);
-                            }
-                        }
-                    }
-                    try {
-                        mIPm.resetPreferredActivities(UserHandle.myUserId());
-                    } catch (RemoteException e) {
-                    }
-                    aom.resetAllModes();
-                    final int[] restrictedUids = npm.getUidsWithPolicy(
-                            POLICY_REJECT_METERED_BACKGROUND);
-                    final int currentUserId = ActivityManager.getCurrentUser();
-                    for (int uid : restrictedUids) {
-                        // Only reset for current user
-                        if (UserHandle.getUserId(uid) == currentUserId) {
-                            if (DEBUG) Log.v(TAG, "Clearing data policy: " + uid);
-                            npm.setUidPolicy(uid, POLICY_NONE);
-                        }
-                    }
-                    handler.post(new Runnable() {
-                        @Override public void run() {
-                            if (DEBUG) Log.v(TAG, "Done clearing");
-                            if (getActivity() != null && mActivityResumed) {
-                                if (DEBUG) Log.v(TAG, "Updating UI!");
-                                for (int i=0; i<mTabs.size(); i++) {
-                                    TabInfo tab = mTabs.get(i);
-                                    if (tab.mApplications != null) {
-                                        tab.mApplications.pause();
-                                    }
-                                }
-                                if (mCurTab != null) {
-                                    mCurTab.resume(mSortOrder);
-                                }
-                            }
-                        }
-                    });
-                    return null;
+        if (mResetDialog == dialog && mResetTask == null
+                && ResetAppPreferencesTask.getRunning() == null) {
+            mResetTask = new ResetAppPreferencesTask(getActivity(), this);
+            mResetTask.execute();
+        }
+    }
+
+    @Override
+    public void onResetProgress(int done, int total) {
+        if (mActivityResumed) {
+            showResetProgress(done, total);
+        }
+    }
+
+    @Override
+    public void onResetComplete(boolean appsChanged) {
+        mResetTask = null;
+        dismissResetProgress();
+        if (appsChanged && getActivity() != null && mActivityResumed) {
+            // Re-enabled apps move between lists; rebuild once rather than per package.
+            if (DEBUG) Log.v(TAG, "Updating UI!");
+            for (int i=0; i<mTabs.size(); i++) {
+                TabInfo tab = mTabs.get(i);
+                if (tab.mApplications != null) {
+                    tab.mApplications.pause();
                 }
-            }).execute();
+            }
+            if (mCurTab != null) {
+                mCurTab.resume(mSortOrder);
+            }
+        }
+    }
+
+    private void showResetProgress(int done, int total) {
+        if (mResetProgressDialog == null) {
+            mResetProgressDialog = new ProgressDialog(getActivity());
+            mResetProgressDialog.setTitle(R.string.reset_app_preferences);
+            mResetProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mResetProgressDialog.setCancelable(false);
+            mResetProgressDialog.show();
+        }
+        // The total isn't known until the task has listed the installed apps.
+        mResetProgressDialog.setIndeterminate(total == 0);
+        if (total > 0) {
+            mResetProgressDialog.setMax(total);
+            mResetProgressDialog.setProgress(done);
+        }
+    }
+
+    private void dismissResetProgress() {
+        if (mResetProgressDialog != null) {
+            mResetProgressDialog.dismiss();
+            mResetProgressDialog = null;
         }
     }
 
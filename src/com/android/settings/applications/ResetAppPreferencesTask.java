@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static android.net.NetworkPolicyManager.POLICY_NONE;
+import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
+
+import android.app.ActivityManager;
+import android.app.AppOpsManager;
+import android.app.INotificationManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.net.NetworkPolicyManager;
+import android.os.AsyncTask;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resets the current user's app preferences: re-enables notifications and apps the user
+ * disabled, clears preferred activities, app ops and background data restrictions.
+ *
+ * <p>Apps are checked first and only written to when something actually needs resetting.
+ * The per-app checks and the global resets run in parallel on a small pool, and progress is
+ * reported as units of work finish, at most every {@link #PROGRESS_INTERVAL_MS}.
+ *
+ * <p>Only one reset runs at a time. It outlives the screen that started it, and a recreated
+ * screen picks it up again with {@link #getRunning()}.
+ */
+class ResetAppPreferencesTask extends AsyncTask<Void, Integer, Boolean> {
+    static final String TAG = "ResetAppPreferencesTask";
+    static final boolean DEBUG = false;
+
+    /** Keep this small: the work is binder calls into a handful of system services. */
+    private static final int THREAD_COUNT = 4;
+    private static final int APPS_PER_BATCH = 16;
+    /** Preferred activities, app ops and data policies, each reported as one unit. */
+    private static final int GLOBAL_STEPS = 3;
+    /** Apps are checked far faster than the progress bar can be redrawn. */
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    private static ResetAppPreferencesTask sRunning;
+
+    interface Callbacks {
+        /** Called once the amount of work is known, and again as it completes. */
+        void onResetProgress(int done, int total);
+
+        /**
+         * Called when everything has been reset. appsChanged is true if any app was
+         * re-enabled, which changes what the app lists contain.
+         */
+        void onResetComplete(boolean appsChanged);
+    }
+
+    private final PackageManager mPm;
+    private final IPackageManager mIPm;
+    private final INotificationManager mNm;
+    private final NetworkPolicyManager mNpm;
+    private final AppOpsManager mAom;
+
+    private final AtomicInteger mDone = new AtomicInteger();
+    private final AtomicLong mLastProgress = new AtomicLong();
+    private final AtomicBoolean mAppsChanged = new AtomicBoolean();
+    private volatile int mTotal;
+    private Callbacks mCallbacks;
+
+    ResetAppPreferencesTask(Context context, Callbacks callbacks) {
+        mPm = context.getPackageManager();
+        mIPm = IPackageManager.Stub.asInterface(ServiceManager.getService("package"));
+        mNm = INotificationManager.Stub.asInterface(
+                ServiceManager.getService(Context.NOTIFICATION_SERVICE));
+        mNpm = NetworkPolicyManager.from(context);
+        mAom = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mCallbacks = callbacks;
+    }
+
+    /** Returns the reset that is still running, or null. Only call from the UI thread. */
+    static ResetAppPreferencesTask getRunning() {
+        return sRunning;
+    }
+
+    /**
+     * Reports to callbacks from now on, or to nobody if it is null; the reset itself still
+     * runs to completion.
+     */
+    void setCallbacks(Callbacks callbacks) {
+        mCallbacks = callbacks;
+    }
+
+    Callbacks getCallbacks() {
+        return mCallbacks;
+    }
+
+    int getDone() {
+        return mDone.get();
+    }
+
+    int getTotal() {
+        return mTotal;
+    }
+
+    @Override
+    protected void onPreExecute() {
+        sRunning = this;
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        final List<ApplicationInfo> apps = mPm.getInstalledApplications(
+                PackageManager.GET_DISABLED_COMPONENTS);
+        mTotal = apps.size() + GLOBAL_STEPS;
+        publishProgress();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            futures.add(executor.submit(new Runnable() {
+                @Override public void run() {
+                    try {
+                        mIPm.resetPreferredActivities(UserHandle.myUserId());
+                    } catch (RemoteException e) {
+                    }
+                    stepDone();
+                }
+            }));
+            futures.add(executor.submit(new Runnable() {
+                @Override public void run() {
+                    mAom.resetAllModes();
+                    stepDone();
+                }
+            }));
+            futures.add(executor.submit(new Runnable() {
+                @Override public void run() {
+                    resetDataPolicies();
+                    stepDone();
+                }
+            }));
+            for (int start = 0; start < apps.size(); start += APPS_PER_BATCH) {
+                final List<ApplicationInfo> batch = apps.subList(start,
+                        Math.min(start + APPS_PER_BATCH, apps.size()));
+                futures.add(executor.submit(new Runnable() {
+                    @Override public void run() {
+                        for (int i = 0; i < batch.size(); i++) {
+                            resetApp(batch.get(i));
+                            stepDone();
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Failed resetting app preferences", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return mAppsChanged.get();
+    }
+
+    private void resetApp(ApplicationInfo app) {
+        try {
+            if (!mNm.areNotificationsEnabledForPackage(app.packageName, app.uid)) {
+                if (DEBUG) Log.v(TAG, "Enabling notifications: " + app.packageName);
+                mNm.setNotificationsEnabledForPackage(app.packageName, app.uid, true);
+            }
+        } catch (RemoteException ex) {
+        }
+        if (!app.enabled) {
+            if (mPm.getApplicationEnabledSetting(app.packageName)
+                    == PackageManager.COMPONENT_ENABLED_STATE_DISABLED_USER) {
+                if (DEBUG) Log.v(TAG, "Enabling app: " + app.packageName);
+                mPm.setApplicationEnabledSetting(app.packageName,
+                        PackageManager.COMPONENT_ENABLED_STATE_DEFAULT,
+                        PackageManager.DONT_KILL_APP);
+                mAppsChanged.set(true);
+            }
+        }
+    }
+
+    private void resetDataPolicies() {
+        final int[] restrictedUids = mNpm.getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND);
+        final int currentUserId = ActivityManager.getCurrentUser();
+        for (int uid : restrictedUids) {
+            // Only reset for current user
+            if (UserHandle.getUserId(uid) == currentUserId) {
+                if (DEBUG) Log.v(TAG, "Clearing data policy: " + uid);
+                mNpm.setUidPolicy(uid, POLICY_NONE);
+            }
+        }
+    }
+
+    private void stepDone() {
+        final int done = mDone.incrementAndGet();
+        final long now = SystemClock.uptimeMillis();
+        final long last = mLastProgress.get();
+        // Whichever worker wins the exchange reports for the others.
+        if ((done == mTotal || now - last >= PROGRESS_INTERVAL_MS)
+                && mLastProgress.compareAndSet(last, now)) {
+            publishProgress();
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (mCallbacks != null) {
+            // Workers finish out of order, so report the live count rather than the value
+            // that was current when this update was posted.
+            mCallbacks.onResetProgress(mDone.get(), mTotal);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Boolean appsChanged) {
+        if (DEBUG) Log.v(TAG, "Done clearing");
+        if (sRunning == this) {
+            sRunning = null;
+        }
+        if (mCallbacks != null) {
+            mCallbacks.onResetComplete(appsChanged);
+        }
+    }
+}
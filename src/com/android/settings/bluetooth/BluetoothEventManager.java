@@ -270,6 +270,7 @@ final class BluetoothEventManager {
                 }
             }
 
+            cachedDevice.updateBondState(bondState);
             synchronized (mCallbacks) {
                 for (BluetoothCallback callback : mCallbacks) {
                     callback.onDeviceBondStateChanged(cachedDevice, bondState);
@@ -280,8 +281,8 @@ final class BluetoothEventManager {
             if (bondState == BluetoothDevice.BOND_NONE) {
                 if (device.isBluetoothDock()) {
                     // After a dock is unpaired, we will forget the settings
-                    LocalBluetoothPreferences
-                            .removeDockAutoConnectSetting(context, device.getAddress());
+                    BluetoothPermissionStore.getInstance(context)
+                            .removeDockAutoConnect(device.getAddress());
 
                     // if the device is undocked, remove it from the list as well
                     if (!device.getAddress().equals(getDockedDeviceAddress(context))) {
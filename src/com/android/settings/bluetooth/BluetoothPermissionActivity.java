@@ -269,6 +269,9 @@ public class BluetoothPermissionActivity extends AlertActivity implements
         }else if (permissionType == BluetoothDevice.REQUEST_TYPE_MESSAGE_ACCESS){
             cachedDevice.setMessagePermissionChoice(permissionChoice);
         }
+        // We finish right after, so make sure the choice is on disk, as it was when it was
+        // committed to its own preference file.
+        BluetoothPermissionStore.getInstance(this).flush();
     }
 
 }
@@ -175,19 +175,16 @@ public final class BluetoothPermissionRequest extends BroadcastReceiver {
             return processed;
         }
 
-        LocalBluetoothManager bluetoothManager = LocalBluetoothManager.getInstance(mContext);
-        CachedBluetoothDeviceManager cachedDeviceManager =
-            bluetoothManager.getCachedDeviceManager();
-        CachedBluetoothDevice cachedDevice = cachedDeviceManager.findDevice(mDevice);
-
-        if (cachedDevice == null) {
-            cachedDevice = cachedDeviceManager.addDevice(bluetoothManager.getBluetoothAdapter(),
-                bluetoothManager.getProfileManager(), mDevice);
+        // Read the remembered choice straight from the store rather than setting up the
+        // local Bluetooth manager and a cached device just to ask it.
+        if (mDevice == null) {
+            return processed;
         }
+        BluetoothPermissionStore store = BluetoothPermissionStore.getInstance(mContext);
 
         if(mRequestType == BluetoothDevice.REQUEST_TYPE_PHONEBOOK_ACCESS) {
 
-            int phonebookPermission = cachedDevice.getPhonebookPermissionChoice();
+            int phonebookPermission = store.getPhonebookPermission(mDevice.getAddress());
 
             if (phonebookPermission == CachedBluetoothDevice.ACCESS_UNKNOWN) {
                 return processed;
@@ -207,7 +204,7 @@ public final class BluetoothPermissionRequest extends BroadcastReceiver {
 
         } else if(mRequestType == BluetoothDevice.REQUEST_TYPE_MESSAGE_ACCESS) {
 
-            int messagePermission = cachedDevice.getMessagePermissionChoice();
+            int messagePermission = store.getMessagePermission(mDevice.getAddress());
 
             if (messagePermission == CachedBluetoothDevice.ACCESS_UNKNOWN) {
                 return processed;
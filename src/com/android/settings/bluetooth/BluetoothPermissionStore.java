@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.bluetooth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Per-device choices remembered by Settings: phonebook and message access permissions,
+ * how often the user rejected each, and the dock auto-connect setting.
+ *
+ * <p>All of a device's state is packed into one int, kept in arrays sorted by the device
+ * address as a number. The store is read once per process. Each change schedules a write
+ * of the whole store on a background thread, which may run between two changes made one
+ * after the other, so they can reach disk in separate writes. Callers recording a user's
+ * decision just before they may go away call {@link #flush()} so it is on disk before they
+ * return.
+ */
+final class BluetoothPermissionStore {
+    private static final String TAG = "BluetoothPermissionStore";
+
+    private static final String FILE_NAME = "bluetooth_permissions";
+    private static final int FILE_VERSION = 1;
+
+    // Layout of the packed state of a device.
+    private static final int PHONEBOOK_SHIFT = 0;
+    private static final int MESSAGE_SHIFT = 2;
+    private static final int CHOICE_MASK = 0x3;
+    private static final int PHONEBOOK_REJECTS_SHIFT = 4;
+    private static final int MESSAGE_REJECTS_SHIFT = 8;
+    private static final int REJECTS_MASK = 0xf;
+    private static final int DOCK_AUTO_CONNECT_SET = 1 << 12;
+    private static final int DOCK_AUTO_CONNECT = 1 << 13;
+
+    // Where this state used to be kept.
+    private static final String LEGACY_PHONEBOOK_PREFS = "bluetooth_phonebook_permission";
+    private static final String LEGACY_MESSAGE_PREFS = "bluetooth_message_permission";
+    private static final String LEGACY_PHONEBOOK_REJECTS = "bluetooth_phonebook_reject";
+    private static final String LEGACY_MESSAGE_REJECTS = "bluetooth_message_reject";
+    private static final String LEGACY_SETTINGS_PREFS = "bluetooth_settings";
+    private static final String LEGACY_DOCK_AUTO_CONNECT = "auto_connect_to_dock";
+
+    private static BluetoothPermissionStore sInstance;
+
+    private final AtomicFile mFile;
+    private final Handler mWriteHandler;
+    /** Held while writing, so a later snapshot is never overwritten by an earlier one. */
+    private final Object mWriteLock = new Object();
+
+    /** Device addresses, sorted; guarded by this. */
+    private long[] mAddresses = new long[8];
+    /** Packed state of the device at the same index; guarded by this. */
+    private int[] mStates = new int[8];
+    private int mSize;
+    private boolean mWritePending;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writeNow(false);
+        }
+    };
+
+    static synchronized BluetoothPermissionStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BluetoothPermissionStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BluetoothPermissionStore(Context context) {
+        final HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWriteHandler = new Handler(thread.getLooper());
+
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        final boolean exists = file.exists();
+        mFile = new AtomicFile(file);
+        if (exists) {
+            read();
+        } else {
+            migrateLegacyPreferences(context);
+        }
+    }
+
+    /** Writes any changes not on disk yet, on the calling thread. */
+    void flush() {
+        synchronized (this) {
+            if (!mWritePending) {
+                return;
+            }
+            mWriteHandler.removeCallbacks(mWriteRunnable);
+        }
+        writeNow(false);
+    }
+
+    int getPhonebookPermission(String address) {
+        return getField(address, PHONEBOOK_SHIFT, CHOICE_MASK);
+    }
+
+    void setPhonebookPermission(String address, int choice) {
+        setField(address, PHONEBOOK_SHIFT, CHOICE_MASK, choice);
+    }
+
+    int getMessagePermission(String address) {
+        return getField(address, MESSAGE_SHIFT, CHOICE_MASK);
+    }
+
+    void setMessagePermission(String address, int choice) {
+        setField(address, MESSAGE_SHIFT, CHOICE_MASK, choice);
+    }
+
+    int getPhonebookRejectTimes(String address) {
+        return getField(address, PHONEBOOK_REJECTS_SHIFT, REJECTS_MASK);
+    }
+
+    void setPhonebookRejectTimes(String address, int times) {
+        setField(address, PHONEBOOK_REJECTS_SHIFT, REJECTS_MASK,
+                Math.min(times, REJECTS_MASK));
+    }
+
+    int getMessageRejectTimes(String address) {
+        return getField(address, MESSAGE_REJECTS_SHIFT, REJECTS_MASK);
+    }
+
+    void setMessageRejectTimes(String address, int times) {
+        setField(address, MESSAGE_REJECTS_SHIFT, REJECTS_MASK,
+                Math.min(times, REJECTS_MASK));
+    }
+
+    /** Forgets the access choices and reject counts of a device, e.g. when it is unpaired. */
+    synchronized void clearPermissions(String address) {
+        final int mask = (CHOICE_MASK << PHONEBOOK_SHIFT) | (CHOICE_MASK << MESSAGE_SHIFT)
+                | (REJECTS_MASK << PHONEBOOK_REJECTS_SHIFT)
+                | (REJECTS_MASK << MESSAGE_REJECTS_SHIFT);
+        final long key = toKey(address);
+        putState(key, getState(key) & ~mask);
+    }
+
+    synchronized boolean hasDockAutoConnect(String address) {
+        return (getState(toKey(address)) & DOCK_AUTO_CONNECT_SET) != 0;
+    }
+
+    synchronized boolean getDockAutoConnect(String address) {
+        return (getState(toKey(address)) & DOCK_AUTO_CONNECT) != 0;
+    }
+
+    synchronized void setDockAutoConnect(String address, boolean autoConnect) {
+        final long key = toKey(address);
+        int state = getState(key) | DOCK_AUTO_CONNECT_SET;
+        state = autoConnect ? state | DOCK_AUTO_CONNECT : state & ~DOCK_AUTO_CONNECT;
+        putState(key, state);
+    }
+
+    synchronized void removeDockAutoConnect(String address) {
+        final long key = toKey(address);
+        putState(key, getState(key) & ~(DOCK_AUTO_CONNECT_SET | DOCK_AUTO_CONNECT));
+    }
+
+    private synchronized int getField(String address, int shift, int mask) {
+        return (getState(toKey(address)) >> shift) & mask;
+    }
+
+    private synchronized void setField(String address, int shift, int mask, int value) {
+        final long key = toKey(address);
+        putState(key, (getState(key) & ~(mask << shift)) | ((value & mask) << shift));
+    }
+
+    private int getState(long key) {
+        final int index = Arrays.binarySearch(mAddresses, 0, mSize, key);
+        return index >= 0 ? mStates[index] : 0;
+    }
+
+    /** Stores the state of a device, dropping it when nothing is left to remember. */
+    private void putState(long key, int state) {
+        final int index = Arrays.binarySearch(mAddresses, 0, mSize, key);
+        if (index >= 0) {
+            if (mStates[index] == state) {
+                return;
+            }
+            if (state != 0) {
+                mStates[index] = state;
+            } else {
+                System.arraycopy(mAddresses, index + 1, mAddresses, index, mSize - index - 1);
+                System.arraycopy(mStates, index + 1, mStates, index, mSize - index - 1);
+                mSize--;
+            }
+        } else {
+            if (state == 0) {
+                return;
+            }
+            final int insert = ~index;
+            if (mSize == mAddresses.length) {
+                mAddresses = Arrays.copyOf(mAddresses, mSize * 2);
+                mStates = Arrays.copyOf(mStates, mSize * 2);
+            }
+            System.arraycopy(mAddresses, insert, mAddresses, insert + 1, mSize - insert);
+            System.arraycopy(mStates, insert, mStates, insert + 1, mSize - insert);
+            mAddresses[insert] = key;
+            mStates[insert] = state;
+            mSize++;
+        }
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (!mWritePending) {
+            mWritePending = true;
+            mWriteHandler.post(mWriteRunnable);
+        }
+    }
+
+    /**
+     * Writes the current state if there are changes not on disk yet, or always if force is
+     * set. Returns false if writing failed.
+     */
+    private boolean writeNow(boolean force) {
+        synchronized (mWriteLock) {
+            final long[] addresses;
+            final int[] states;
+            synchronized (this) {
+                if (!mWritePending && !force) {
+                    return true;
+                }
+                mWritePending = false;
+                addresses = Arrays.copyOf(mAddresses, mSize);
+                states = Arrays.copyOf(mStates, mSize);
+            }
+            return write(addresses, states);
+        }
+    }
+
+    /** "00:11:22:AA:BB:CC" as the number 0x001122AABBCC. */
+    private static long toKey(String address) {
+        long key = 0;
+        for (int i = 0; i < address.length(); i++) {
+            final int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0) {
+                key = (key << 4) | digit;
+            }
+        }
+        return key;
+    }
+
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Ignoring " + FILE_NAME + " of unknown version");
+                return;
+            }
+            final int size = in.readInt();
+            final long[] addresses = new long[Math.max(size, 8)];
+            final int[] states = new int[addresses.length];
+            for (int i = 0; i < size; i++) {
+                addresses[i] = in.readLong();
+                states[i] = in.readInt();
+            }
+            synchronized (this) {
+                mAddresses = addresses;
+                mStates = states;
+                mSize = size;
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing remembered yet.
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + FILE_NAME, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private boolean write(long[] addresses, int[] states) {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(addresses.length);
+            for (int i = 0; i < addresses.length; i++) {
+                out.writeLong(addresses[i]);
+                out.writeInt(states[i]);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing " + FILE_NAME, e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Moves what was kept in separate preference files into the store, once. The old files
+     * are only cleared after the store has been written, so nothing is lost if we die midway.
+     */
+    private void migrateLegacyPreferences(Context context) {
+        final SharedPreferences[] legacy = {
+            migrateInts(context, LEGACY_PHONEBOOK_PREFS, PHONEBOOK_SHIFT, CHOICE_MASK),
+            migrateInts(context, LEGACY_MESSAGE_PREFS, MESSAGE_SHIFT, CHOICE_MASK),
+            migrateInts(context, LEGACY_PHONEBOOK_REJECTS, PHONEBOOK_REJECTS_SHIFT, REJECTS_MASK),
+            migrateInts(context, LEGACY_MESSAGE_REJECTS, MESSAGE_REJECTS_SHIFT, REJECTS_MASK),
+        };
+
+        final SharedPreferences settings =
+                context.getSharedPreferences(LEGACY_SETTINGS_PREFS, Context.MODE_PRIVATE);
+        final ArrayList<String> dockKeys = new ArrayList<String>();
+        for (Map.Entry<String, ?> entry : settings.getAll().entrySet()) {
+            final String key = entry.getKey();
+            if (key.startsWith(LEGACY_DOCK_AUTO_CONNECT)
+                    && entry.getValue() instanceof Boolean) {
+                setDockAutoConnect(key.substring(LEGACY_DOCK_AUTO_CONNECT.length()),
+                        (Boolean) entry.getValue());
+                dockKeys.add(key);
+            }
+        }
+
+        // Written even if there was nothing to move so this isn't tried again.
+        if (!writeNow(true)) {
+            return;
+        }
+        for (SharedPreferences prefs : legacy) {
+            prefs.edit().clear().apply();
+        }
+        final SharedPreferences.Editor editor = settings.edit();
+        for (String key : dockKeys) {
+            editor.remove(key);
+        }
+        editor.apply();
+    }
+
+    private SharedPreferences migrateInts(Context context, String name, int shift, int mask) {
+        final SharedPreferences prefs = context.getSharedPreferences(name, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof Integer) {
+                setField(entry.getKey(), shift, mask,
+                        Math.min((Integer) entry.getValue(), mask));
+            }
+        }
+        return prefs;
+    }
+}
@@ -20,7 +20,6 @@ import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.ParcelUuid;
 import android.os.SystemClock;
 import android.text.TextUtils;
@@ -64,6 +63,12 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
 
     private boolean mVisible;
 
+    // Snapshot of the bond and connection state, kept current from the bond state and
+    // profile state broadcasts so that sorting and rendering make no binder calls.
+    private int mBondState;
+    private boolean mConnected;
+    private boolean mProfileBusy;
+
     private int mPhonebookPermissionChoice;
 
     private int mMessagePermissionChoice;
@@ -85,10 +90,7 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
     // how many times did User reject the connection to make the rejected persist.
     final static int PERSIST_REJECTED_TIMES_LIMIT = 2;
 
-    private final static String PHONEBOOK_PREFS_NAME = "bluetooth_phonebook_permission";
-    private final static String MESSAGE_PREFS_NAME = "bluetooth_message_permission";
-    private final static String PHONEBOOK_REJECT_TIMES = "bluetooth_phonebook_reject";
-    private final static String MESSAGE_REJECT_TIMES = "bluetooth_message_reject";
+    private final BluetoothPermissionStore mPermissionStore;
 
     /**
      * When we connect to multiple profiles, we only want to display a single
@@ -165,6 +167,7 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
             mRemovedProfiles.add(profile);
             mLocalNapRoleConnected = false;
         }
+        updateConnectionSnapshot();
     }
 
     CachedBluetoothDevice(Context context,
@@ -175,6 +178,7 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
         mLocalAdapter = adapter;
         mProfileManager = profileManager;
         mDevice = device;
+        mPermissionStore = BluetoothPermissionStore.getInstance(context);
         mProfileConnectionState = new HashMap<LocalBluetoothProfile, Integer>();
         fillData();
     }
@@ -363,17 +367,36 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
         for (LocalBluetoothProfile profile :getProfiles()) {
             mProfileConnectionState.put(profile, BluetoothProfile.STATE_DISCONNECTED);
         }
+        updateConnectionSnapshot();
+    }
+
+    /**
+     * Recomputes the aggregate connection state from the per-profile states. Only profiles
+     * whose state was never reported are queried.
+     */
+    private void updateConnectionSnapshot() {
+        boolean connected = false;
+        boolean busy = false;
+        for (LocalBluetoothProfile profile : mProfiles) {
+            int status = getProfileConnectionState(profile);
+            if (status == BluetoothProfile.STATE_CONNECTED) {
+                connected = true;
+            } else if (status == BluetoothProfile.STATE_CONNECTING
+                    || status == BluetoothProfile.STATE_DISCONNECTING) {
+                busy = true;
+            }
+        }
+        mConnected = connected;
+        mProfileBusy = busy;
     }
 
     // TODO: do any of these need to run async on a background thread?
     private void fillData() {
         fetchName();
         fetchBtClass();
+        fetchBondState();
         updateProfiles();
-        fetchPhonebookPermissionChoice();
-        fetchMessagePermissionChoice();
-        fetchPhonebookRejectTimes();
-        fetchMessageRejectTimes();
+        fetchPermissions();
 
         mVisible = false;
         dispatchAttributesChanged();
@@ -430,7 +453,22 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
     }
 
     int getBondState() {
-        return mDevice.getBondState();
+        return mBondState;
+    }
+
+    /**
+     * Updates the cached bond state. Called as soon as a bond state change is received, before
+     * anyone is told about it.
+     */
+    void updateBondState(int bondState) {
+        mBondState = bondState;
+    }
+
+    /**
+     * Re-reads the bond state from the framework, for when broadcasts may have been missed.
+     */
+    void fetchBondState() {
+        mBondState = mDevice.getBondState();
     }
 
     void setRssi(short rssi) {
@@ -446,14 +484,7 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
      * @return Whether it is connected.
      */
     boolean isConnected() {
-        for (LocalBluetoothProfile profile : mProfiles) {
-            int status = getProfileConnectionState(profile);
-            if (status == BluetoothProfile.STATE_CONNECTED) {
-                return true;
-            }
-        }
-
-        return false;
+        return mConnected;
     }
 
     boolean isConnectedProfile(LocalBluetoothProfile profile) {
@@ -463,14 +494,7 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
     }
 
     boolean isBusy() {
-        for (LocalBluetoothProfile profile : mProfiles) {
-            int status = getProfileConnectionState(profile);
-            if (status == BluetoothProfile.STATE_CONNECTING
-                    || status == BluetoothProfile.STATE_DISCONNECTING) {
-                return true;
-            }
-        }
-        return getBondState() == BluetoothDevice.BOND_BONDING;
+        return mProfileBusy || mBondState == BluetoothDevice.BOND_BONDING;
     }
 
     /**
@@ -489,6 +513,7 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
 
         mProfileManager.updateProfiles(uuids, localUuids, mProfiles, mRemovedProfiles,
                                        mLocalNapRoleConnected, mDevice);
+        updateConnectionSnapshot();
 
         if (DEBUG) {
             Log.e(TAG, "updating profiles for " + mDevice.getAliasName());
@@ -536,15 +561,16 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
     }
 
     void onBondingStateChanged(int bondState) {
+        mBondState = bondState;
         if (bondState == BluetoothDevice.BOND_NONE) {
             mProfiles.clear();
+            updateConnectionSnapshot();
             mConnectAfterPairing = false;  // cancel auto-connect
-            setPhonebookPermissionChoice(ACCESS_UNKNOWN);
-            setMessagePermissionChoice(ACCESS_UNKNOWN);
+            mPhonebookPermissionChoice = ACCESS_UNKNOWN;
+            mMessagePermissionChoice = ACCESS_UNKNOWN;
             mPhonebookRejectedTimes = 0;
-            savePhonebookRejectTimes();
             mMessageRejectedTimes = 0;
-            saveMessageRejectTimes();
+            mPermissionStore.clearPermissions(mDevice.getAddress());
         }
 
         refresh();
@@ -632,12 +658,12 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
     // will completely refresh the device list when this happens.
     public int compareTo(CachedBluetoothDevice another) {
         // Connected above not connected
-        int comparison = (another.isConnected() ? 1 : 0) - (isConnected() ? 1 : 0);
+        int comparison = (another.mConnected ? 1 : 0) - (mConnected ? 1 : 0);
         if (comparison != 0) return comparison;
 
         // Paired above not paired
-        comparison = (another.getBondState() == BluetoothDevice.BOND_BONDED ? 1 : 0) -
-            (getBondState() == BluetoothDevice.BOND_BONDED ? 1 : 0);
+        comparison = (another.mBondState == BluetoothDevice.BOND_BONDED ? 1 : 0) -
+            (mBondState == BluetoothDevice.BOND_BONDED ? 1 : 0);
         if (comparison != 0) return comparison;
 
         // Visible above not visible
@@ -664,47 +690,15 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
         // if user reject it, only save it when reject exceed limit.
         if (permissionChoice == ACCESS_REJECTED) {
             mPhonebookRejectedTimes++;
-            savePhonebookRejectTimes();
+            mPermissionStore.setPhonebookRejectTimes(mDevice.getAddress(),
+                    mPhonebookRejectedTimes);
             if (mPhonebookRejectedTimes < PERSIST_REJECTED_TIMES_LIMIT) {
                 return;
             }
         }
 
         mPhonebookPermissionChoice = permissionChoice;
-
-        SharedPreferences.Editor editor =
-            mContext.getSharedPreferences(PHONEBOOK_PREFS_NAME, Context.MODE_PRIVATE).edit();
-        if (permissionChoice == ACCESS_UNKNOWN) {
-            editor.remove(mDevice.getAddress());
-        } else {
-            editor.putInt(mDevice.getAddress(), permissionChoice);
-        }
-        editor.commit();
-    }
-
-    private void fetchPhonebookPermissionChoice() {
-        SharedPreferences preference = mContext.getSharedPreferences(PHONEBOOK_PREFS_NAME,
-                                                                     Context.MODE_PRIVATE);
-        mPhonebookPermissionChoice = preference.getInt(mDevice.getAddress(),
-                                                       ACCESS_UNKNOWN);
-    }
-
-    private void fetchPhonebookRejectTimes() {
-        SharedPreferences preference = mContext.getSharedPreferences(PHONEBOOK_REJECT_TIMES,
-                                                                     Context.MODE_PRIVATE);
-        mPhonebookRejectedTimes = preference.getInt(mDevice.getAddress(), 0);
-    }
-
-    private void savePhonebookRejectTimes() {
-        SharedPreferences.Editor editor =
-            mContext.getSharedPreferences(PHONEBOOK_REJECT_TIMES,
-                                          Context.MODE_PRIVATE).edit();
-        if (mPhonebookRejectedTimes == 0) {
-            editor.remove(mDevice.getAddress());
-        } else {
-            editor.putInt(mDevice.getAddress(), mPhonebookRejectedTimes);
-        }
-        editor.commit();
+        mPermissionStore.setPhonebookPermission(mDevice.getAddress(), permissionChoice);
     }
 
     int getMessagePermissionChoice() {
@@ -715,46 +709,21 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
         // if user reject it, only save it when reject exceed limit.
         if (permissionChoice == ACCESS_REJECTED) {
             mMessageRejectedTimes++;
-            saveMessageRejectTimes();
+            mPermissionStore.setMessageRejectTimes(mDevice.getAddress(), mMessageRejectedTimes);
             if (mMessageRejectedTimes < PERSIST_REJECTED_TIMES_LIMIT) {
                 return;
             }
         }
 
         mMessagePermissionChoice = permissionChoice;
-
-        SharedPreferences.Editor editor =
-            mContext.getSharedPreferences(MESSAGE_PREFS_NAME, Context.MODE_PRIVATE).edit();
-        if (permissionChoice == ACCESS_UNKNOWN) {
-            editor.remove(mDevice.getAddress());
-        } else {
-            editor.putInt(mDevice.getAddress(), permissionChoice);
-        }
-        editor.commit();
-    }
-
-    private void fetchMessagePermissionChoice() {
-        SharedPreferences preference = mContext.getSharedPreferences(MESSAGE_PREFS_NAME,
-                                                                     Context.MODE_PRIVATE);
-        mMessagePermissionChoice = preference.getInt(mDevice.getAddress(),
-                                                       ACCESS_UNKNOWN);
-    }
-
-    private void fetchMessageRejectTimes() {
-        SharedPreferences preference = mContext.getSharedPreferences(MESSAGE_REJECT_TIMES,
-                                                                     Context.MODE_PRIVATE);
-        mMessageRejectedTimes = preference.getInt(mDevice.getAddress(), 0);
+        mPermissionStore.setMessagePermission(mDevice.getAddress(), permissionChoice);
     }
 
-    private void saveMessageRejectTimes() {
-        SharedPreferences.Editor editor =
-            mContext.getSharedPreferences(MESSAGE_REJECT_TIMES, Context.MODE_PRIVATE).edit();
-        if (mMessageRejectedTimes == 0) {
-            editor.remove(mDevice.getAddress());
-        } else {
-            editor.putInt(mDevice.getAddress(), mMessageRejectedTimes);
-        }
-        editor.commit();
+    private void fetchPermissions() {
+        final String address = mDevice.getAddress();
+        mPhonebookPermissionChoice = mPermissionStore.getPhonebookPermission(address);
+        mMessagePermissionChoice = mPermissionStore.getMessagePermission(address);
+        mPhonebookRejectedTimes = mPermissionStore.getPhonebookRejectTimes(address);
+        mMessageRejectedTimes = mPermissionStore.getMessageRejectTimes(address);
     }
-
 }
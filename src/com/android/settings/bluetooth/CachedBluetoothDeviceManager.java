@@ -151,6 +151,11 @@ final class CachedBluetoothDeviceManager {
                     cachedDevice.clearProfileConnectionState();
                 }
             }
+        } else if (bluetoothState == BluetoothAdapter.STATE_ON) {
+            // Bond state reads as BOND_NONE while the adapter is off; refresh the snapshot.
+            for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
+                cachedDevice.fetchBondState();
+            }
         }
     }
     private void log(String msg) {
@@ -102,6 +102,7 @@ public final class DockService extends Service implements ServiceListener {
     private LocalBluetoothAdapter mLocalAdapter;
     private CachedBluetoothDeviceManager mDeviceManager;
     private LocalBluetoothProfileManager mProfileManager;
+    private BluetoothPermissionStore mPermissionStore;
 
     // Normally set after getting a docked event and unset when the connection
     // is severed. One exception is that mDevice could be null if the service
@@ -126,6 +127,8 @@ public final class DockService extends Service implements ServiceListener {
     public void onCreate() {
         if (DEBUG) Log.d(TAG, "onCreate");
 
+        mPermissionStore = BluetoothPermissionStore.getInstance(this);
+
         LocalBluetoothManager manager = LocalBluetoothManager.getInstance(this);
         if (manager == null) {
             Log.e(TAG, "Can't get LocalBluetoothManager: exiting");
@@ -506,7 +509,7 @@ public final class DockService extends Service implements ServiceListener {
         if (device != null) {
             // Device in a new dock.
             boolean firstTime =
-                    !LocalBluetoothPreferences.hasDockAutoConnectSetting(this, device.getAddress());
+                    !mPermissionStore.hasDockAutoConnect(device.getAddress());
 
             CharSequence[] items = initBtSettings(device, state, firstTime);
 
@@ -521,12 +524,12 @@ public final class DockService extends Service implements ServiceListener {
 
             // check "Remember setting" by default if no value was saved
             boolean checked = firstTime ||
-                    LocalBluetoothPreferences.getDockAutoConnectSetting(this, device.getAddress());
+                    mPermissionStore.getDockAutoConnect(device.getAddress());
             rememberCheckbox.setChecked(checked);
             rememberCheckbox.setOnCheckedChangeListener(mCheckedChangeListener);
             if (DEBUG) {
                 Log.d(TAG, "Auto connect = "
-                  + LocalBluetoothPreferences.getDockAutoConnectSetting(this, device.getAddress()));
+                  + mPermissionStore.getDockAutoConnect(device.getAddress()));
             }
         } else {
             ab.setTitle(getString(R.string.bluetooth_dock_settings_title));
@@ -577,8 +580,7 @@ public final class DockService extends Service implements ServiceListener {
                         Log.d(TAG, "onCheckedChanged: Remember Settings = " + isChecked);
                     }
                     if (mDevice != null) {
-                        LocalBluetoothPreferences.saveDockAutoConnectSetting(
-                                DockService.this, mDevice.getAddress(), isChecked);
+                        mPermissionStore.setDockAutoConnect(mDevice.getAddress(), isChecked);
                     } else {
                         Settings.Global.putInt(getContentResolver(),
                                 Settings.Global.DOCK_AUDIO_MEDIA_ENABLED, isChecked ? 1 : 0);
@@ -607,15 +609,11 @@ public final class DockService extends Service implements ServiceListener {
                 public void onClick(DialogInterface dialog, int which) {
                     if (which == DialogInterface.BUTTON_POSITIVE) {
                         if (mDevice != null) {
-                            if (!LocalBluetoothPreferences
-                                    .hasDockAutoConnectSetting(
-                                            DockService.this,
-                                            mDevice.getAddress())) {
-                                LocalBluetoothPreferences
-                                        .saveDockAutoConnectSetting(
-                                                DockService.this,
-                                                mDevice.getAddress(), true);
+                            if (!mPermissionStore.hasDockAutoConnect(mDevice.getAddress())) {
+                                mPermissionStore.setDockAutoConnect(mDevice.getAddress(), true);
                             }
+                            // The service may be stopped as soon as the settings are applied.
+                            mPermissionStore.flush();
 
                             applyBtSettings(mDevice, mStartIdAssociatedWithDialog);
                         } else if (mAudioMediaCheckbox != null) {
@@ -875,7 +873,7 @@ public final class DockService extends Service implements ServiceListener {
     private synchronized void handleDocked(BluetoothDevice device, int state,
             int startId) {
         if (device != null &&
-                LocalBluetoothPreferences.getDockAutoConnectSetting(this, device.getAddress())) {
+                mPermissionStore.getDockAutoConnect(device.getAddress())) {
             // Setting == auto connect
             initBtSettings(device, state, false);
             applyBtSettings(mDevice, startId);
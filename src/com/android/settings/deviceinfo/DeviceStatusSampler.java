@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.telephony.PhoneStateListener;
+import android.telephony.SignalStrength;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+
+/**
+ * Samples the frequently changing parts of the device status - uptime, battery, signal
+ * strength, network type and data state - and tells listeners only about the fields that
+ * actually changed.
+ *
+ * <p>There is one sampler per process. Status runs in the phone process and BatteryInfo in
+ * the Settings process, so each of them gets its own.
+ *
+ * <p>Each field is only watched while some listener wants it. Uptime is sampled on every
+ * second boundary; the other fields come from broadcasts and phone state callbacks, and
+ * fields that can change many times a second are passed on at most once per their minimum
+ * interval. All calls, including to listeners, happen on the main thread.
+ */
+public class DeviceStatusSampler {
+    /** {@link #getUptimeSeconds()}. */
+    public static final int FIELD_UPTIME = 1 << 0;
+    /** Battery level, scale, status and plug type in {@link #getBatteryIntent()}. */
+    public static final int FIELD_BATTERY = 1 << 1;
+    /** Battery health, voltage, temperature and technology in {@link #getBatteryIntent()}. */
+    public static final int FIELD_BATTERY_DETAILS = 1 << 2;
+    /** {@link #getSignalDbm()} and {@link #getSignalAsu()}. */
+    public static final int FIELD_SIGNAL = 1 << 3;
+    /** {@link #getNetworkType()}. */
+    public static final int FIELD_NETWORK_TYPE = 1 << 4;
+    /** {@link #getDataState()}. */
+    public static final int FIELD_DATA_STATE = 1 << 5;
+
+    private static final int FIELD_COUNT = 6;
+
+    /** Minimum time between two notifications of each field, by bit position. */
+    private static final long[] MIN_INTERVAL_MS = {
+        0,      // uptime, already sampled once a second
+        0,      // battery
+        2000,   // battery details, voltage and temperature move constantly
+        1000,   // signal
+        0,      // network type
+        0,      // data state
+    };
+
+    private static final int MSG_TICK = 1;
+    private static final int MSG_DISPATCH = 2;
+
+    public interface Listener {
+        /** The given fields changed, or are known for the first time since registering. */
+        void onDeviceStatusChanged(int fields);
+    }
+
+    private static DeviceStatusSampler sInstance;
+
+    private final Context mContext;
+    private final TelephonyManager mTelephonyManager;
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private final ArrayList<Integer> mListenerFields = new ArrayList<Integer>();
+
+    private int mWatchedFields;
+    private int mKnownFields;
+    private int mPendingFields;
+    private final long[] mLastDispatch = new long[FIELD_COUNT];
+
+    private long mUptimeSeconds = -1;
+    private Intent mBatteryIntent;
+    private int mSignalDbm;
+    private int mSignalAsu;
+    private int mNetworkType = TelephonyManager.NETWORK_TYPE_UNKNOWN;
+    private int mDataState = TelephonyManager.DATA_UNKNOWN;
+
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_TICK:
+                    sampleUptime();
+                    scheduleTick();
+                    break;
+                case MSG_DISPATCH:
+                    dispatch();
+                    break;
+            }
+        }
+    };
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onBatteryChanged(intent);
+        }
+    };
+
+    private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
+        @Override
+        public void onSignalStrengthsChanged(SignalStrength signalStrength) {
+            int dbm = signalStrength.getDbm();
+            int asu = signalStrength.getAsuLevel();
+            if (dbm == -1) dbm = 0;
+            if (asu == -1) asu = 0;
+            if (dbm != mSignalDbm || asu != mSignalAsu || (mKnownFields & FIELD_SIGNAL) == 0) {
+                mSignalDbm = dbm;
+                mSignalAsu = asu;
+                markChanged(FIELD_SIGNAL);
+            }
+        }
+
+        @Override
+        public void onDataConnectionStateChanged(int state, int networkType) {
+            if (networkType != mNetworkType || (mKnownFields & FIELD_NETWORK_TYPE) == 0) {
+                mNetworkType = networkType;
+                markChanged(FIELD_NETWORK_TYPE);
+            }
+            if (state != mDataState || (mKnownFields & FIELD_DATA_STATE) == 0) {
+                mDataState = state;
+                markChanged(FIELD_DATA_STATE);
+            }
+        }
+    };
+
+    public static DeviceStatusSampler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DeviceStatusSampler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DeviceStatusSampler(Context context) {
+        mContext = context;
+        mTelephonyManager = (TelephonyManager) context.getSystemService(
+                Context.TELEPHONY_SERVICE);
+    }
+
+    /**
+     * Starts telling the listener about changes to the given fields. The fields already known
+     * are reported right away.
+     */
+    public void addListener(Listener listener, int fields) {
+        removeListener(listener);
+        mListeners.add(listener);
+        mListenerFields.add(fields);
+        updateWatchedFields();
+        // Fields waiting to be dispatched reach the new listener with everyone else.
+        final int known = fields & mKnownFields & ~mPendingFields;
+        if (known != 0) {
+            listener.onDeviceStatusChanged(known);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        final int index = mListeners.indexOf(listener);
+        if (index >= 0) {
+            mListeners.remove(index);
+            mListenerFields.remove(index);
+            updateWatchedFields();
+        }
+    }
+
+    /** Time since boot, including deep sleep. */
+    public long getUptimeSeconds() {
+        return mUptimeSeconds;
+    }
+
+    /** The last battery status broadcast, or null if none was seen yet. */
+    public Intent getBatteryIntent() {
+        return mBatteryIntent;
+    }
+
+    public int getSignalDbm() {
+        return mSignalDbm;
+    }
+
+    public int getSignalAsu() {
+        return mSignalAsu;
+    }
+
+    /** One of the TelephonyManager.NETWORK_TYPE_* constants. */
+    public int getNetworkType() {
+        return mNetworkType;
+    }
+
+    /** One of the TelephonyManager.DATA_* constants. */
+    public int getDataState() {
+        return mDataState;
+    }
+
+    private void updateWatchedFields() {
+        int fields = 0;
+        for (int listenerFields : mListenerFields) {
+            fields |= listenerFields;
+        }
+        final int oldFields = mWatchedFields;
+        mWatchedFields = fields;
+        mPendingFields &= fields;
+
+        // Fields whose source stops are forgotten, since their values would go stale.
+        if ((fields & FIELD_UPTIME) != 0 && (oldFields & FIELD_UPTIME) == 0) {
+            mUptimeSeconds = -1;
+            sampleUptime();
+            scheduleTick();
+        } else if ((fields & FIELD_UPTIME) == 0 && (oldFields & FIELD_UPTIME) != 0) {
+            mHandler.removeMessages(MSG_TICK);
+            mKnownFields &= ~FIELD_UPTIME;
+        }
+
+        final int battery = FIELD_BATTERY | FIELD_BATTERY_DETAILS;
+        if ((fields & battery) != 0 && (oldFields & battery) == 0) {
+            // The sticky broadcast comes back right away.
+            final Intent intent = mContext.registerReceiver(mBatteryReceiver,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (intent != null) {
+                onBatteryChanged(intent);
+            }
+        } else if ((fields & battery) == 0 && (oldFields & battery) != 0) {
+            mContext.unregisterReceiver(mBatteryReceiver);
+            mBatteryIntent = null;
+            mKnownFields &= ~battery;
+        }
+
+        final int oldEvents = getPhoneEvents(oldFields);
+        final int events = getPhoneEvents(fields);
+        if (events != oldEvents && mTelephonyManager != null) {
+            if ((events & PhoneStateListener.LISTEN_SIGNAL_STRENGTHS) == 0) {
+                mKnownFields &= ~FIELD_SIGNAL;
+            }
+            if ((events & PhoneStateListener.LISTEN_DATA_CONNECTION_STATE) == 0) {
+                mKnownFields &= ~(FIELD_NETWORK_TYPE | FIELD_DATA_STATE);
+            }
+            // Newly listened events are reported with their current values.
+            mTelephonyManager.listen(mPhoneStateListener, events);
+        }
+    }
+
+    private static int getPhoneEvents(int fields) {
+        int events = PhoneStateListener.LISTEN_NONE;
+        if ((fields & FIELD_SIGNAL) != 0) {
+            events |= PhoneStateListener.LISTEN_SIGNAL_STRENGTHS;
+        }
+        if ((fields & (FIELD_NETWORK_TYPE | FIELD_DATA_STATE)) != 0) {
+            events |= PhoneStateListener.LISTEN_DATA_CONNECTION_STATE;
+        }
+        return events;
+    }
+
+    private void scheduleTick() {
+        // Land just after the next full second so the display never skips one.
+        final long delay = 1000 - SystemClock.elapsedRealtime() % 1000;
+        mHandler.removeMessages(MSG_TICK);
+        mHandler.sendEmptyMessageDelayed(MSG_TICK, delay);
+    }
+
+    private void sampleUptime() {
+        final long seconds = Math.max(1, SystemClock.elapsedRealtime() / 1000);
+        if (seconds != mUptimeSeconds) {
+            mUptimeSeconds = seconds;
+            markChanged(FIELD_UPTIME);
+        }
+    }
+
+    private void onBatteryChanged(Intent intent) {
+        final Intent old = mBatteryIntent;
+        mBatteryIntent = intent;
+        if (old == null
+                || differs(old, intent, BatteryManager.EXTRA_LEVEL)
+                || differs(old, intent, BatteryManager.EXTRA_SCALE)
+                || differs(old, intent, BatteryManager.EXTRA_STATUS)
+                || differs(old, intent, BatteryManager.EXTRA_PLUGGED)) {
+            markChanged(FIELD_BATTERY);
+        }
+        if (old == null
+                || differs(old, intent, BatteryManager.EXTRA_HEALTH)
+                || differs(old, intent, BatteryManager.EXTRA_VOLTAGE)
+                || differs(old, intent, BatteryManager.EXTRA_TEMPERATURE)
+                || !TextUtils.equals(old.getStringExtra(BatteryManager.EXTRA_TECHNOLOGY),
+                        intent.getStringExtra(BatteryManager.EXTRA_TECHNOLOGY))) {
+            markChanged(FIELD_BATTERY_DETAILS);
+        }
+    }
+
+    private static boolean differs(Intent a, Intent b, String extra) {
+        return a.getIntExtra(extra, 0) != b.getIntExtra(extra, 0);
+    }
+
+    private void markChanged(int field) {
+        mKnownFields |= field;
+        mPendingFields |= field & mWatchedFields;
+        scheduleDispatch();
+    }
+
+    private void scheduleDispatch() {
+        if (mPendingFields == 0) return;
+        final long now = SystemClock.uptimeMillis();
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if ((mPendingFields & (1 << i)) != 0) {
+                next = Math.min(next, mLastDispatch[i] + MIN_INTERVAL_MS[i]);
+            }
+        }
+        mHandler.removeMessages(MSG_DISPATCH);
+        mHandler.sendEmptyMessageDelayed(MSG_DISPATCH, Math.max(0, next - now));
+    }
+
+    private void dispatch() {
+        final long now = SystemClock.uptimeMillis();
+        int ready = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            final int field = 1 << i;
+            if ((mPendingFields & field) != 0 && mLastDispatch[i] + MIN_INTERVAL_MS[i] <= now) {
+                ready |= field;
+                mLastDispatch[i] = now;
+            }
+        }
+        mPendingFields &= ~ready;
+
+        // Listeners may unregister while being called.
+        final Listener[] listeners = mListeners.toArray(new Listener[mListeners.size()]);
+        final Integer[] listenerFields = mListenerFields.toArray(
+                new Integer[mListenerFields.size()]);
+        for (int i = 0; i < listeners.length; i++) {
+            final int fields = ready & listenerFields[i];
+            if (fields != 0 && mListeners.contains(listeners[i])) {
+                listeners[i].onDeviceStatusChanged(fields);
+            }
+        }
+        scheduleDispatch();
+    }
+}
@@ -30,7 +30,6 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.preference.Preference;
@@ -38,7 +37,6 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
 import android.telephony.CellBroadcastMessage;
 import android.telephony.PhoneNumberUtils;
-import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
@@ -120,12 +118,10 @@ public class Status extends PreferenceActivity {
     static final String CB_AREA_INFO_SENDER_PERMISSION =
             "android.permission.RECEIVE_EMERGENCY_BROADCAST";
 
-    private static final int EVENT_SIGNAL_STRENGTH_CHANGED = 200;
     private static final int EVENT_SERVICE_STATE_CHANGED = 300;
 
-    private static final int EVENT_UPDATE_STATS = 500;
-
     private TelephonyManager mTelephonyManager;
+    private DeviceStatusSampler mSampler;
     private Phone mPhone = null;
     private PhoneStateIntentReceiver mPhoneStateReceiver;
     private Resources mRes;
@@ -156,19 +152,10 @@ public class Status extends PreferenceActivity {
             }
 
             switch (msg.what) {
-                case EVENT_SIGNAL_STRENGTH_CHANGED:
-                    status.updateSignalStrength();
-                    break;
-
                 case EVENT_SERVICE_STATE_CHANGED:
                     ServiceState serviceState = status.mPhoneStateReceiver.getServiceState();
                     status.updateServiceState(serviceState);
                     break;
-
-                case EVENT_UPDATE_STATS:
-                    status.updateTimes();
-                    sendEmptyMessageDelayed(EVENT_UPDATE_STATS, 1000);
-                    break;
             }
         }
     }
@@ -210,23 +197,26 @@ public class Status extends PreferenceActivity {
         }
     };
 
-    private BroadcastReceiver mBatteryInfoReceiver = new BroadcastReceiver() {
-
+    private DeviceStatusSampler.Listener mStatusListener = new DeviceStatusSampler.Listener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            if (Intent.ACTION_BATTERY_CHANGED.equals(action)) {
+        public void onDeviceStatusChanged(int fields) {
+            if ((fields & DeviceStatusSampler.FIELD_UPTIME) != 0) {
+                updateTimes();
+            }
+            if ((fields & DeviceStatusSampler.FIELD_BATTERY) != 0) {
+                Intent intent = mSampler.getBatteryIntent();
                 mBatteryLevel.setSummary(Utils.getBatteryPercentage(intent));
                 mBatteryStatus.setSummary(Utils.getBatteryStatus(getResources(), intent));
             }
-        }
-    };
-
-    private PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
-        @Override
-        public void onDataConnectionStateChanged(int state) {
-            updateDataState();
-            updateNetworkType();
+            if ((fields & DeviceStatusSampler.FIELD_SIGNAL) != 0) {
+                updateSignalStrength();
+            }
+            if ((fields & DeviceStatusSampler.FIELD_NETWORK_TYPE) != 0) {
+                updateNetworkType();
+            }
+            if ((fields & DeviceStatusSampler.FIELD_DATA_STATE) != 0) {
+                updateDataState();
+            }
         }
     };
 
@@ -255,6 +245,7 @@ public class Status extends PreferenceActivity {
         mHandler = new MyHandler(this);
 
         mTelephonyManager = (TelephonyManager)getSystemService(TELEPHONY_SERVICE);
+        mSampler = DeviceStatusSampler.getInstance(this);
 
         addPreferencesFromResource(R.xml.device_info_status);
         mBatteryLevel = findPreference(KEY_BATTERY_LEVEL);
@@ -324,7 +315,6 @@ public class Status extends PreferenceActivity {
             setSummaryText(KEY_PHONE_NUMBER, formattedNumber);
 
             mPhoneStateReceiver = new PhoneStateIntentReceiver(this, mHandler);
-            mPhoneStateReceiver.notifySignalStrength(EVENT_SIGNAL_STRENGTH_CHANGED);
             mPhoneStateReceiver.notifyServiceState(EVENT_SERVICE_STATE_CHANGED);
 
             if (!mShowLatestAreaInfo) {
@@ -359,14 +349,13 @@ public class Status extends PreferenceActivity {
     protected void onResume() {
         super.onResume();
 
+        int fields = DeviceStatusSampler.FIELD_UPTIME | DeviceStatusSampler.FIELD_BATTERY;
         if (mPhone != null && !Utils.isWifiOnly(getApplicationContext())) {
             mPhoneStateReceiver.registerIntent();
 
-            updateSignalStrength();
             updateServiceState(mPhone.getServiceState());
-            updateDataState();
-            mTelephonyManager.listen(mPhoneStateListener,
-                    PhoneStateListener.LISTEN_DATA_CONNECTION_STATE);
+            fields |= DeviceStatusSampler.FIELD_SIGNAL | DeviceStatusSampler.FIELD_NETWORK_TYPE
+                    | DeviceStatusSampler.FIELD_DATA_STATE;
             if (mShowLatestAreaInfo) {
                 registerReceiver(mAreaInfoReceiver, new IntentFilter(CB_AREA_INFO_RECEIVED_ACTION),
                         CB_AREA_INFO_SENDER_PERMISSION, null);
@@ -376,9 +365,9 @@ public class Status extends PreferenceActivity {
                         CB_AREA_INFO_SENDER_PERMISSION);
             }
         }
-        registerReceiver(mBatteryInfoReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
         registerReceiver(mSimStateReceiver, new IntentFilter(TelephonyIntents.ACTION_SIM_STATE_CHANGED));
-        mHandler.sendEmptyMessage(EVENT_UPDATE_STATS);
+        // Only the fields that changed since they were last shown get updated.
+        mSampler.addListener(mStatusListener, fields);
     }
 
     @Override
@@ -387,14 +376,12 @@ public class Status extends PreferenceActivity {
 
         if (mPhone != null && !Utils.isWifiOnly(getApplicationContext())) {
             mPhoneStateReceiver.unregisterIntent();
-            mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
         }
         if (mShowLatestAreaInfo) {
             unregisterReceiver(mAreaInfoReceiver);
         }
-        unregisterReceiver(mBatteryInfoReceiver);
         unregisterReceiver(mSimStateReceiver);
-        mHandler.removeMessages(EVENT_UPDATE_STATS);
+        mSampler.removeListener(mStatusListener);
     }
 
     /**
@@ -435,14 +422,15 @@ public class Status extends PreferenceActivity {
     private void updateNetworkType() {
         // Whether EDGE, UMTS, etc...
         String networktype = null;
-        if (TelephonyManager.NETWORK_TYPE_UNKNOWN != mTelephonyManager.getNetworkType()) {
-            networktype = mTelephonyManager.getNetworkTypeName();
+        int type = mSampler.getNetworkType();
+        if (TelephonyManager.NETWORK_TYPE_UNKNOWN != type) {
+            networktype = TelephonyManager.getNetworkTypeName(type);
         }
         setSummaryText(KEY_NETWORK_TYPE, networktype);
     }
 
     private void updateDataState() {
-        int state = mTelephonyManager.getDataState();
+        int state = mSampler.getDataState();
         String display = mRes.getString(R.string.radioInfo_unknown);
 
         switch (state) {
@@ -497,27 +485,12 @@ public class Status extends PreferenceActivity {
     }
 
     void updateSignalStrength() {
-        // TODO PhoneStateIntentReceiver is deprecated and PhoneStateListener
-        // should probably used instead.
-
         // not loaded in some versions of the code (e.g., zaku)
         if (mSignalStrength != null) {
-            int state =
-                    mPhoneStateReceiver.getServiceState().getState();
             Resources r = getResources();
 
-            if ((ServiceState.STATE_OUT_OF_SERVICE == state) ||
-                    (ServiceState.STATE_POWER_OFF == state)) {
-                mSignalStrength.setSummary("0");
-            }
-
-            int signalDbm = mPhoneStateReceiver.getSignalStrengthDbm();
-
-            if (-1 == signalDbm) signalDbm = 0;
-
-            int signalAsu = mPhoneStateReceiver.getSignalStrengthLevelAsu();
-
-            if (-1 == signalAsu) signalAsu = 0;
+            int signalDbm = mSampler.getSignalDbm();
+            int signalAsu = mSampler.getSignalAsu();
 
             mSignalStrength.setSummary(String.valueOf(signalDbm) + " "
                         + r.getString(R.string.radioInfo_display_dbm) + "   "
@@ -577,14 +550,7 @@ public class Status extends PreferenceActivity {
     }
 
     void updateTimes() {
-        long at = SystemClock.uptimeMillis() / 1000;
-        long ut = SystemClock.elapsedRealtime() / 1000;
-
-        if (ut == 0) {
-            ut = 1;
-        }
-
-        mUptime.setSummary(convert(ut));
+        mUptime.setSummary(convert(mSampler.getUptimeSeconds()));
     }
 
     private String pad(int n) {
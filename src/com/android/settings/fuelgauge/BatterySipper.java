@@ -172,8 +172,20 @@ public class BatterySipper implements Comparable<BatterySipper> {
         if (uidObj == null) {
             return;
         }
-        PackageManager pm = mContext.getPackageManager();
         final int uid = uidObj.getUid();
+        final UidToDetail cached = sUidCache.get(Integer.toString(uid));
+        if (cached != null) {
+            // Resolved for an earlier sipper of the same uid while this one was queued.
+            defaultPackageName = cached.packageName;
+            name = cached.name;
+            icon = cached.icon;
+            if (mHandler != null) {
+                mHandler.sendMessage(
+                        mHandler.obtainMessage(BatteryStatsHelper.MSG_UPDATE_NAME_ICON, this));
+            }
+            return;
+        }
+        PackageManager pm = mContext.getPackageManager();
         final Drawable defaultActivityIcon = pm.getDefaultActivityIcon();
         mPackages = pm.getPackagesForUid(uid);
         if (mPackages == null) {
@@ -102,7 +102,9 @@ public class BatteryStatsHelper {
     private Handler mHandler;
 
     private class NameAndIconLoader extends Thread {
-        private boolean mAbort = false;
+        private volatile boolean mAbort = false;
+        /** Set once the loader has taken its last request, guarded by mRequestQueue. */
+        private boolean mDone = false;
 
         public NameAndIconLoader() {
             super("BatteryUsage Icon Loader");
@@ -112,12 +114,18 @@ public class BatteryStatsHelper {
             mAbort = true;
         }
 
+        /** Whether requests added to the queue now will still be picked up by this loader. */
+        boolean isTakingRequests() {
+            return !mAbort && !mDone;
+        }
+
         @Override
         public void run() {
             while (true) {
                 BatterySipper bs;
                 synchronized (mRequestQueue) {
                     if (mRequestQueue.isEmpty() || mAbort) {
+                        mDone = true;
                         mHandler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
                         return;
                     }
@@ -341,6 +349,12 @@ public class BatteryStatsHelper {
         mUserSippers.clear();
         mUserPower.clear();
 
+        // Sippers still waiting from the last refresh are about to be replaced; the ones for
+        // uids that are still unresolved get queued again below.
+        synchronized (mRequestQueue) {
+            mRequestQueue.clear();
+        }
+
         processAppUsage(includeZeroConsumption);
         processMiscUsage();
 
@@ -348,14 +362,14 @@ public class BatteryStatsHelper {
 
         if (mHandler != null) {
             synchronized (mRequestQueue) {
-                if (!mRequestQueue.isEmpty()) {
-                    if (mRequestThread != null) {
-                        mRequestThread.abort();
-                    }
+                // Keep using a loader that is still working through the queue instead of
+                // starting over; requests for uids it already resolved are answered from
+                // the cache.
+                if (!mRequestQueue.isEmpty()
+                        && (mRequestThread == null || !mRequestThread.isTakingRequests())) {
                     mRequestThread = new NameAndIconLoader();
                     mRequestThread.setPriority(Thread.MIN_PRIORITY);
                     mRequestThread.start();
-                    mRequestQueue.notify();
                 }
             }
         }
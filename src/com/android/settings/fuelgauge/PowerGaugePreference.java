@@ -43,16 +43,25 @@ public class PowerGaugePreference extends Preference {
     }
 
     public void setPercent(double percentOfMax, double percentOfTotal) {
-        mProgress = (int) Math.ceil(percentOfMax);
-        mProgressText = getContext().getResources().getString(
+        final int progress = (int) Math.ceil(percentOfMax);
+        final String progressText = getContext().getResources().getString(
                 R.string.percentage, (int) Math.ceil(percentOfTotal));
-        notifyChanged();
+        if (progress != mProgress || !progressText.equals(mProgressText)) {
+            mProgress = progress;
+            mProgressText = progressText;
+            notifyChanged();
+        }
     }
 
     BatterySipper getInfo() {
         return mInfo;
     }
 
+    /** Points this preference at the sipper of the same app or subsystem after a refresh. */
+    void setInfo(BatterySipper info) {
+        mInfo = info;
+    }
+
     @Override
     protected void onBindView(View view) {
         super.onBindView(view);
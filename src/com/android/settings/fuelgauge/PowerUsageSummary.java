@@ -21,11 +21,13 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.BatteryManager;
 import android.os.BatteryStats;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.Parcel;
+import android.os.SystemClock;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceFragment;
@@ -39,7 +41,9 @@ import android.view.MenuItem;
 import com.android.internal.os.PowerProfile;
 import com.android.settings.HelpUtils;
 import com.android.settings.R;
+import com.android.settings.fuelgauge.PowerUsageDetail.DrainType;
 
+import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -67,22 +71,52 @@ public class PowerUsageSummary extends PreferenceFragment {
     private static final int MIN_POWER_THRESHOLD = 5;
     private static final int MAX_ITEMS_TO_LIST = 10;
 
+    /** Reloading the stats is expensive; don't do it more often than this. */
+    private static final long MIN_REFRESH_INTERVAL_MS = 2000;
+
+    // After BatteryStatsHelper's messages.
+    private static final int MSG_REFRESH_STATS = 100;
+
     private BatteryStatsHelper mStatsHelper;
 
+    /** Battery state the list was last refreshed for; -1 until the first broadcast. */
+    private int mBatteryLevel = -1;
+    private int mBatteryPlugged = -1;
+    private int mBatteryStatus = -1;
+    private long mLastRefreshTime;
+
+    private BatteryHistoryPreference mHistPref;
+    private Preference mNotAvailablePref;
+    private final HashMap<String, PowerGaugePreference> mGaugePrefs =
+            new HashMap<String, PowerGaugePreference>();
+
     private BroadcastReceiver mBatteryInfoReceiver = new BroadcastReceiver() {
 
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (Intent.ACTION_BATTERY_CHANGED.equals(action)) {
+                // This is sent for every voltage and temperature change as well, which happens
+                // all the time while charging; only the level and charging state matter here.
+                final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0);
+                final int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+                final int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS,
+                        BatteryManager.BATTERY_STATUS_UNKNOWN);
+                if (level == mBatteryLevel && plugged == mBatteryPlugged
+                        && status == mBatteryStatus) {
+                    return;
+                }
+                mBatteryLevel = level;
+                mBatteryPlugged = plugged;
+                mBatteryStatus = status;
+
                 String batteryLevel = com.android.settings.Utils.getBatteryPercentage(intent);
                 String batteryStatus = com.android.settings.Utils.getBatteryStatus(getResources(),
                         intent);
                 String batterySummary = context.getResources().getString(
                         R.string.power_usage_level_and_status, batteryLevel, batteryStatus);
                 mBatteryStatusPref.setTitle(batterySummary);
-                mStatsHelper.clearStats();
-                refreshStats();
+                scheduleRefresh();
             }
         }
     };
@@ -107,15 +141,19 @@ public class PowerUsageSummary extends PreferenceFragment {
     @Override
     public void onResume() {
         super.onResume();
+        // The sticky broadcast delivered on registering counts as a change, so the stats are
+        // reloaded once on every resume.
+        mBatteryLevel = -1;
+        mLastRefreshTime = 0;
         getActivity().registerReceiver(mBatteryInfoReceiver,
                 new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-        refreshStats();
     }
 
     @Override
     public void onPause() {
         mStatsHelper.pause();
         mHandler.removeMessages(BatteryStatsHelper.MSG_UPDATE_NAME_ICON);
+        mHandler.removeMessages(MSG_REFRESH_STATS);
         getActivity().unregisterReceiver(mBatteryInfoReceiver);
         super.onPause();
     }
@@ -180,6 +218,7 @@ public class PowerUsageSummary extends PreferenceFragment {
                 refreshStats();
                 return true;
             case MENU_STATS_REFRESH:
+                mHandler.removeMessages(MSG_REFRESH_STATS);
                 mStatsHelper.clearStats();
                 refreshStats();
                 return true;
@@ -188,51 +227,100 @@ public class PowerUsageSummary extends PreferenceFragment {
         }
     }
 
-    private void addNotAvailableMessage() {
-        Preference notAvailable = new Preference(getActivity());
-        notAvailable.setTitle(R.string.power_usage_not_available);
-        mAppListGroup.addPreference(notAvailable);
+    /**
+     * Reloads the stats and refreshes the list, at most once every
+     * {@link #MIN_REFRESH_INTERVAL_MS}.
+     */
+    private void scheduleRefresh() {
+        if (mHandler.hasMessages(MSG_REFRESH_STATS)) {
+            return;
+        }
+        final long delay = mLastRefreshTime + MIN_REFRESH_INTERVAL_MS
+                - SystemClock.elapsedRealtime();
+        mHandler.sendEmptyMessageDelayed(MSG_REFRESH_STATS, Math.max(delay, 0));
     }
 
     private void refreshStats() {
-        mAppListGroup.removeAll();
+        mLastRefreshTime = SystemClock.elapsedRealtime();
         mAppListGroup.setOrderingAsAdded(false);
 
-        mBatteryStatusPref.setOrder(-2);
-        mAppListGroup.addPreference(mBatteryStatusPref);
-        BatteryHistoryPreference hist = new BatteryHistoryPreference(
-                getActivity(), mStatsHelper.getStats());
-        hist.setOrder(-1);
-        mAppListGroup.addPreference(hist);
+        if (mBatteryStatusPref.getOrder() != -2) {
+            mBatteryStatusPref.setOrder(-2);
+        }
+        if (mHistPref == null) {
+            mHistPref = new BatteryHistoryPreference(getActivity(), mStatsHelper.getStats());
+            mHistPref.setOrder(-1);
+            mAppListGroup.addPreference(mHistPref);
+        } else {
+            mHistPref.setStats(mStatsHelper.getStats());
+        }
 
         if (mStatsHelper.getPowerProfile().getAveragePower(
                 PowerProfile.POWER_SCREEN_FULL) < 10) {
-            addNotAvailableMessage();
+            if (mNotAvailablePref == null) {
+                mNotAvailablePref = new Preference(getActivity());
+                mNotAvailablePref.setTitle(R.string.power_usage_not_available);
+                mAppListGroup.addPreference(mNotAvailablePref);
+            }
             return;
         }
         mStatsHelper.refreshStats(false);
+
+        // Update the preferences of sippers that are still listed in place, and only add or
+        // remove the ones that came or went.
+        final HashMap<String, PowerGaugePreference> oldPrefs =
+                new HashMap<String, PowerGaugePreference>(mGaugePrefs);
+        mGaugePrefs.clear();
         List<BatterySipper> usageList = mStatsHelper.getUsageList();
         for (BatterySipper sipper : usageList) {
             if (sipper.getSortValue() < MIN_POWER_THRESHOLD) continue;
             final double percentOfTotal =
                     ((sipper.getSortValue() / mStatsHelper.getTotalPower()) * 100);
             if (percentOfTotal < 1) continue;
-            PowerGaugePreference pref =
-                    new PowerGaugePreference(getActivity(), sipper.getIcon(), sipper);
+            final String key = getPreferenceKey(sipper);
+            if (mGaugePrefs.containsKey(key)) continue;
+            PowerGaugePreference pref = oldPrefs.remove(key);
+            final boolean isNew = pref == null;
+            if (isNew) {
+                pref = new PowerGaugePreference(getActivity(), sipper.getIcon(), sipper);
+                pref.setKey(key);
+            } else {
+                pref.setInfo(sipper);
+                if (sipper.getIcon() != null) {
+                    pref.setIcon(sipper.getIcon());
+                }
+            }
             final double percentOfMax =
                     (sipper.getSortValue() * 100) / mStatsHelper.getMaxPower();
             sipper.percent = percentOfTotal;
             pref.setTitle(sipper.name);
             pref.setOrder(Integer.MAX_VALUE - (int) sipper.getSortValue()); // Invert the order
             pref.setPercent(percentOfMax, percentOfTotal);
-            if (sipper.uidObj != null) {
-                pref.setKey(Integer.toString(sipper.uidObj.getUid()));
+            if (isNew) {
+                mAppListGroup.addPreference(pref);
             }
-            mAppListGroup.addPreference(pref);
-            if (mAppListGroup.getPreferenceCount() > (MAX_ITEMS_TO_LIST+1)) break;
+            mGaugePrefs.put(key, pref);
+            if (mGaugePrefs.size() >= MAX_ITEMS_TO_LIST) break;
+        }
+        for (PowerGaugePreference pref : oldPrefs.values()) {
+            mAppListGroup.removePreference(pref);
         }
     }
 
+    /**
+     * Apps are keyed by uid, which is also how name and icon updates find their preference;
+     * everything else by what it is.
+     */
+    private static String getPreferenceKey(BatterySipper sipper) {
+        if (sipper.uidObj != null) {
+            return Integer.toString(sipper.uidObj.getUid());
+        }
+        if (sipper.drainType == DrainType.USER) {
+            return sipper.drainType + ":" + sipper.name;
+        }
+        return sipper.drainType.toString();
+    }
+
     Handler mHandler = new Handler() {
 
         @Override
@@ -254,6 +342,10 @@ public class PowerUsageSummary extends PreferenceFragment {
                         activity.reportFullyDrawn();
                     }
                     break;
+                case MSG_REFRESH_STATS:
+                    mStatsHelper.clearStats();
+                    refreshStats();
+                    break;
             }
             super.handleMessage(msg);
         }
@@ -71,6 +71,14 @@ public class DataUsageMeteredSettings extends SettingsPreferenceFragment {
         updateNetworks(context);
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        // send any policy edit still waiting to be coalesced
+        mPolicyEditor.flush();
+    }
+
     private void updateNetworks(Context context) {
         if (SHOW_MOBILE_CATEGORY && hasReadyMobileRadio(context)) {
             mMobileCategory.removeAll();
@@ -21,7 +21,6 @@ import static android.net.NetworkPolicy.LIMIT_DISABLED;
 import static android.net.NetworkPolicy.SNOOZE_NEVER;
 import static android.net.NetworkPolicy.WARNING_DISABLED;
 import static android.net.NetworkTemplate.MATCH_MOBILE_3G_LOWER;
-import static android.net.NetworkTemplate.MATCH_MOBILE_4G;
 import static android.net.NetworkTemplate.MATCH_WIFI;
 import static android.net.NetworkTemplate.buildTemplateMobile3gLower;
 import static android.net.NetworkTemplate.buildTemplateMobile4g;
@@ -33,38 +32,78 @@ import android.net.NetworkPolicyManager;
 import android.net.NetworkTemplate;
 import android.net.wifi.WifiInfo;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.text.format.Time;
 
-import com.android.internal.util.Objects;
 import com.google.android.collect.Lists;
-import com.google.android.collect.Sets;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Utility class to modify list of {@link NetworkPolicy}. Specifically knows
  * about which policies can coexist. This editor offers thread safety when
  * talking with {@link NetworkPolicyManager}.
+ * <p>
+ * Policies are indexed by {@link NetworkTemplate}. Changes are written back
+ * shortly after the last one, so a burst of edits costs a single write. Call
+ * {@link #flush()} before going away to send any pending write.
  */
 public class NetworkPolicyEditor {
     // TODO: be more robust when missing policies from service
 
     public static final boolean ENABLE_SPLIT_POLICIES = false;
 
+    /** Delay after the last change before policies are written back. */
+    private static final long WRITE_DELAY_MS = 300;
+
     private NetworkPolicyManager mPolicyManager;
     private ArrayList<NetworkPolicy> mPolicies = Lists.newArrayList();
+    private HashMap<NetworkTemplate, NetworkPolicy> mPolicyIndex =
+            new HashMap<NetworkTemplate, NetworkPolicy>();
+
+    /** Runs writes one at a time, in order, so {@link #read()} can wait for them. */
+    private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mWritePending;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mWritePending = false;
+            writeNow();
+        }
+    };
 
     public NetworkPolicyEditor(NetworkPolicyManager policyManager) {
         mPolicyManager = checkNotNull(policyManager);
     }
 
     public void read() {
+        // send any pending write and wait for it, so what we read includes it
+        flush();
+        try {
+            sWriteExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+        }
+
         final NetworkPolicy[] policies = mPolicyManager.getNetworkPolicies();
 
         boolean modified = false;
         mPolicies.clear();
+        mPolicyIndex.clear();
         for (NetworkPolicy policy : policies) {
             // TODO: find better place to clamp these
             if (policy.limitBytes < -1) {
@@ -76,7 +115,7 @@ public class NetworkPolicyEditor {
                 modified = true;
             }
 
-            mPolicies.add(policy);
+            addPolicy(policy);
         }
 
         // force combine any split policies when disabled
@@ -88,7 +127,28 @@ public class NetworkPolicyEditor {
         if (modified) writeAsync();
     }
 
+    /**
+     * Schedules writing back the current policies. Writes are delayed to
+     * coalesce bursts of edits.
+     */
     public void writeAsync() {
+        mWritePending = true;
+        mHandler.removeCallbacks(mWriteRunnable);
+        mHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MS);
+    }
+
+    /**
+     * Immediately starts any write that is still waiting on its delay.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mWriteRunnable);
+        if (mWritePending) {
+            mWritePending = false;
+            writeNow();
+        }
+    }
+
+    private void writeNow() {
         // TODO: consider making more robust by passing through service
         final NetworkPolicy[] policies = mPolicies.toArray(new NetworkPolicy[mPolicies.size()]);
         new AsyncTask<Void, Void, Void>() {
@@ -97,7 +157,7 @@ public class NetworkPolicyEditor {
                 write(policies);
                 return null;
             }
-        }.execute();
+        }.executeOnExecutor(sWriteExecutor);
     }
 
     public void write(NetworkPolicy[] policies) {
@@ -113,18 +173,28 @@ public class NetworkPolicyEditor {
         NetworkPolicy policy = getPolicy(template);
         if (policy == null) {
             policy = buildDefaultPolicy(template);
-            mPolicies.add(policy);
+            addPolicy(policy);
         }
         return policy;
     }
 
     public NetworkPolicy getPolicy(NetworkTemplate template) {
-        for (NetworkPolicy policy : mPolicies) {
-            if (policy.template.equals(template)) {
-                return policy;
-            }
+        return mPolicyIndex.get(template);
+    }
+
+    private void addPolicy(NetworkPolicy policy) {
+        final NetworkPolicy existing = mPolicyIndex.put(policy.template, policy);
+        if (existing != null) {
+            // keep a single policy per template, as the service does
+            mPolicies.remove(existing);
+        }
+        mPolicies.add(policy);
+    }
+
+    private void removePolicy(NetworkPolicy policy) {
+        if (policy != null && mPolicyIndex.remove(policy.template) != null) {
+            mPolicies.remove(policy);
         }
-        return null;
     }
 
     public NetworkPolicy getPolicyMaybeUnquoted(NetworkTemplate template) {
@@ -132,7 +202,8 @@ public class NetworkPolicyEditor {
         if (policy != null) {
             return policy;
         } else {
-            return getPolicy(buildUnquotedNetworkTemplate(template));
+            final NetworkTemplate unquoted = buildUnquotedNetworkTemplate(template);
+            return unquoted != null ? getPolicy(unquoted) : null;
         }
     }
 
@@ -214,7 +285,7 @@ public class NetworkPolicyEditor {
                 policy = buildDefaultPolicy(template);
                 policy.metered = true;
                 policy.inferred = false;
-                mPolicies.add(policy);
+                addPolicy(policy);
                 modified = true;
             } else if (!policy.metered) {
                 policy.metered = true;
@@ -234,9 +305,9 @@ public class NetworkPolicyEditor {
 
         // Remove legacy unquoted policies while we're here
         final NetworkTemplate unquoted = buildUnquotedNetworkTemplate(template);
-        final NetworkPolicy unquotedPolicy = getPolicy(unquoted);
+        final NetworkPolicy unquotedPolicy = unquoted != null ? getPolicy(unquoted) : null;
         if (unquotedPolicy != null) {
-            mPolicies.remove(unquotedPolicy);
+            removePolicy(unquotedPolicy);
             modified = true;
         }
 
@@ -247,9 +318,12 @@ public class NetworkPolicyEditor {
      * Remove any split {@link NetworkPolicy}.
      */
     private boolean forceMobilePolicyCombined() {
-        final HashSet<String> subscriberIds = Sets.newHashSet();
+        // a split always has a 3G policy, and there is one per subscriber
+        final ArrayList<String> subscriberIds = Lists.newArrayList();
         for (NetworkPolicy policy : mPolicies) {
-            subscriberIds.add(policy.template.getSubscriberId());
+            if (policy.template.getMatchRule() == MATCH_MOBILE_3G_LOWER) {
+                subscriberIds.add(policy.template.getSubscriberId());
+            }
         }
 
         boolean modified = false;
@@ -261,22 +335,8 @@ public class NetworkPolicyEditor {
 
     @Deprecated
     public boolean isMobilePolicySplit(String subscriberId) {
-        boolean has3g = false;
-        boolean has4g = false;
-        for (NetworkPolicy policy : mPolicies) {
-            final NetworkTemplate template = policy.template;
-            if (Objects.equal(subscriberId, template.getSubscriberId())) {
-                switch (template.getMatchRule()) {
-                    case MATCH_MOBILE_3G_LOWER:
-                        has3g = true;
-                        break;
-                    case MATCH_MOBILE_4G:
-                        has4g = true;
-                        break;
-                }
-            }
-        }
-        return has3g && has4g;
+        return mPolicyIndex.containsKey(buildTemplateMobile3gLower(subscriberId))
+                && mPolicyIndex.containsKey(buildTemplateMobile4g(subscriberId));
     }
 
     @Deprecated
@@ -311,9 +371,9 @@ public class NetworkPolicyEditor {
 
             final NetworkPolicy restrictive = policy3g.compareTo(policy4g) < 0 ? policy3g
                     : policy4g;
-            mPolicies.remove(policy3g);
-            mPolicies.remove(policy4g);
-            mPolicies.add(new NetworkPolicy(templateAll, restrictive.cycleDay,
+            removePolicy(policy3g);
+            removePolicy(policy4g);
+            addPolicy(new NetworkPolicy(templateAll, restrictive.cycleDay,
                     restrictive.cycleTimezone, restrictive.warningBytes, restrictive.limitBytes,
                     SNOOZE_NEVER, SNOOZE_NEVER, restrictive.metered, restrictive.inferred));
             return true;
@@ -321,11 +381,11 @@ public class NetworkPolicyEditor {
         } else if (!beforeSplit && split) {
             // duplicate existing policy into two rules
             final NetworkPolicy policyAll = getPolicy(templateAll);
-            mPolicies.remove(policyAll);
-            mPolicies.add(new NetworkPolicy(template3g, policyAll.cycleDay, policyAll.cycleTimezone,
+            removePolicy(policyAll);
+            addPolicy(new NetworkPolicy(template3g, policyAll.cycleDay, policyAll.cycleTimezone,
                     policyAll.warningBytes, policyAll.limitBytes, SNOOZE_NEVER, SNOOZE_NEVER,
                     policyAll.metered, policyAll.inferred));
-            mPolicies.add(new NetworkPolicy(template4g, policyAll.cycleDay, policyAll.cycleTimezone,
+            addPolicy(new NetworkPolicy(template4g, policyAll.cycleDay, policyAll.cycleTimezone,
                     policyAll.warningBytes, policyAll.limitBytes, SNOOZE_NEVER, SNOOZE_NEVER,
                     policyAll.metered, policyAll.inferred));
             return true;
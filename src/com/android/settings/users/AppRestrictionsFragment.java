@@ -28,10 +28,10 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageItemInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.ColorFilter;
 import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
@@ -94,6 +94,9 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
 
     private static final int MAX_APP_RESTRICTIONS = 100;
 
+    /** Number of app icons decoded by each icon loading task */
+    private static final int ICON_LOAD_BATCH_SIZE = 8;
+
     private static final String DELIMITER = ";";
 
     /** Key for extra passed in from calling fragment for the userId of the user being edited */
@@ -117,6 +120,7 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
     private List<SelectableAppInfo> mVisibleApps;
     private List<ApplicationInfo> mUserApps;
     private AsyncTask mAppLoadingTask;
+    private final List<IconLoadingTask> mIconLoadingTasks = new ArrayList<IconLoadingTask>();
 
     private BroadcastReceiver mUserBackgrounding = new BroadcastReceiver() {
         @Override
@@ -145,6 +149,14 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         CharSequence activityName;
         Drawable icon;
         SelectableAppInfo masterEntry;
+        /** Where to load the icon from, once the row is on screen */
+        PackageItemInfo iconSource;
+        /** The package as seen by the target user, or null if not available */
+        PackageInfo userPackageInfo;
+        boolean hasSettings;
+        /** Restrictions to send along when fetching defaults, for required apps only */
+        Bundle oldRestrictions;
+        AppRestrictionsPreference preference;
 
         @Override
         public String toString() {
@@ -180,14 +192,25 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
 
         @Override
         public void setChecked(boolean checked) {
-            if (checked) {
-                getIcon().setColorFilter(null);
-            } else {
-                getIcon().setColorFilter(grayscaleFilter);
-            }
+            updateIconFilter(checked);
             super.setChecked(checked);
         }
 
+        /**
+         * Replaces the placeholder icon once the real one is loaded, keeping the grayscale
+         * state in sync with the toggle.
+         */
+        void setAppIcon(Drawable icon) {
+            setIcon(icon);
+            updateIconFilter(isChecked());
+        }
+
+        private void updateIconFilter(boolean checked) {
+            Drawable icon = getIcon();
+            if (icon == null) return;
+            icon.setColorFilter(checked ? null : grayscaleFilter);
+        }
+
         void setRestrictions(ArrayList<RestrictionEntry> restrictions) {
             this.restrictions = restrictions;
         }
@@ -312,6 +335,12 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        cancelIconLoading();
+    }
+
     @Override
     public void onPause() {
         super.onPause();
@@ -346,13 +375,8 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
     }
 
     protected Drawable getCircularUserIcon() {
-        Bitmap userIcon = mUserManager.getUserIcon(mUser.getIdentifier());
-        if (userIcon == null) {
-            return null;
-        }
-        CircleFramedDrawable circularIcon =
-                CircleFramedDrawable.getInstance(this.getActivity(), userIcon);
-        return circularIcon;
+        return UserAvatarCache.getInstance(getActivity())
+                .getIcon(getActivity(), mUser.getIdentifier());
     }
 
     protected void clearSelectedApps() {
@@ -503,7 +527,7 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                     SelectableAppInfo info = new SelectableAppInfo();
                     info.packageName = app.activityInfo.packageName;
                     info.appName = app.activityInfo.applicationInfo.loadLabel(pm);
-                    info.icon = app.activityInfo.loadIcon(pm);
+                    info.iconSource = app.activityInfo;
                     info.activityName = app.activityInfo.loadLabel(pm);
                     if (info.activityName == null) info.activityName = info.appName;
 
@@ -542,7 +566,6 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
     }
 
     private void fetchAndMergeApps() {
-        mAppList.setOrderingAsAdded(false);
         mVisibleApps = new ArrayList<SelectableAppInfo>();
         final Context context = getActivity();
         if (context == null) return;
@@ -574,7 +597,7 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                 info.packageName = app.packageName;
                 info.appName = app.loadLabel(pm);
                 info.activityName = info.appName;
-                info.icon = app.loadIcon(pm);
+                info.iconSource = app;
                 mVisibleApps.add(info);
             } else {
                 try {
@@ -610,7 +633,7 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                     info.packageName = app.packageName;
                     info.appName = app.loadLabel(pm);
                     info.activityName = info.appName;
-                    info.icon = app.loadIcon(pm);
+                    info.iconSource = app;
                     mVisibleApps.add(info);
                 }
             }
@@ -643,6 +666,32 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                 packageMap.put(info.packageName, info);
             }
         }
+
+        // Resolve everything populateApps() needs per row here, off the UI thread, so that the
+        // list can be shown right away. Icons are loaded later, once the rows exist.
+        Intent restrictionsIntent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
+        final List<ResolveInfo> receivers = pm.queryBroadcastReceivers(restrictionsIntent, 0);
+        for (SelectableAppInfo info : mVisibleApps) {
+            if (info.packageName == null) continue;
+            info.hasSettings = resolveInfoListHasPackage(receivers, info.packageName);
+            if (info.masterEntry != null) {
+                info.userPackageInfo = info.masterEntry.userPackageInfo;
+                info.oldRestrictions = info.masterEntry.oldRestrictions;
+                continue;
+            }
+            try {
+                info.userPackageInfo = ipm.getPackageInfo(info.packageName,
+                        PackageManager.GET_UNINSTALLED_PACKAGES
+                        | PackageManager.GET_SIGNATURES, mUser.getIdentifier());
+            } catch (RemoteException e) {
+            }
+            final PackageInfo pi = info.userPackageInfo;
+            if (info.hasSettings && pi != null
+                    && (pi.requiredForAllUsers || isPlatformSigned(pi))) {
+                info.oldRestrictions =
+                        mUserManager.getApplicationRestrictions(info.packageName, mUser);
+            }
+        }
     }
 
     private boolean isPlatformSigned(PackageInfo pi) {
@@ -662,11 +711,12 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         final Context context = getActivity();
         if (context == null) return;
         final PackageManager pm = mPackageManager;
-        final IPackageManager ipm = mIPm;
 
+        cancelIconLoading();
+        mAppList.setOrderingAsAdded(false);
         mAppList.removeAll();
-        Intent restrictionsIntent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
-        final List<ResolveInfo> receivers = pm.queryBroadcastReceivers(restrictionsIntent, 0);
+        final List<SelectableAppInfo> pendingIcons = new ArrayList<SelectableAppInfo>();
+        final List<SelectableAppInfo> pendingRestrictions = new ArrayList<SelectableAppInfo>();
         int i = 0;
         if (mVisibleApps.size() > 0) {
             for (SelectableAppInfo app : mVisibleApps) {
@@ -674,8 +724,15 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                 if (packageName == null) continue;
                 final boolean isSettingsApp = packageName.equals(context.getPackageName());
                 AppRestrictionsPreference p = new AppRestrictionsPreference(context, this);
-                final boolean hasSettings = resolveInfoListHasPackage(receivers, packageName);
-                p.setIcon(app.icon != null ? app.icon.mutate() : null);
+                final boolean hasSettings = app.hasSettings;
+                if (app.icon != null) {
+                    p.setIcon(app.icon.mutate());
+                } else {
+                    // Placeholder until IconLoadingTask gets to this row
+                    p.setIcon(pm.getDefaultActivityIcon().mutate());
+                    pendingIcons.add(app);
+                }
+                app.preference = p;
                 p.setChecked(false);
                 p.setTitle(app.activityName);
                 if (app.masterEntry != null) {
@@ -687,13 +744,7 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                 p.setPersistent(false);
                 p.setOnPreferenceChangeListener(this);
                 p.setOnPreferenceClickListener(this);
-                PackageInfo pi = null;
-                try {
-                    pi = ipm.getPackageInfo(packageName,
-                            PackageManager.GET_UNINSTALLED_PACKAGES
-                            | PackageManager.GET_SIGNATURES, mUser.getIdentifier());
-                } catch (RemoteException e) {
-                }
+                final PackageInfo pi = app.userPackageInfo;
                 if (pi != null && (pi.requiredForAllUsers || isPlatformSigned(pi))) {
                     p.setChecked(true);
                     p.setImmutable(true);
@@ -703,7 +754,7 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                     // able to toggle this app ON (it's ON by default and immutable).
                     // Only do this for restricted profiles, not single-user restrictions
                     if (hasSettings) {
-                        requestRestrictionsForApp(packageName, p, false);
+                        pendingRestrictions.add(app);
                     }
                 } else if (!mNewUser && isAppEnabledForUser(pi)) {
                     p.setChecked(true);
@@ -732,6 +783,13 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                 i++;
             }
         }
+        // Now that every row is in place, fetch the defaults of required apps in one pass,
+        // reusing the restrictions read in the background.
+        for (SelectableAppInfo app : pendingRestrictions) {
+            requestRestrictionsForApp(app.packageName, app.preference, false,
+                    app.oldRestrictions);
+        }
+        loadIconsAsync(pendingIcons);
         // If this is the first time for a new profile, install/uninstall default apps for profile
         // to avoid taking the hit in onPause(), which can cause race conditions on user switch.
         if (mNewUser && mFirstTime) {
@@ -740,6 +798,57 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         }
     }
 
+    /**
+     * Loads icons for the given rows in parallel batches. Batches are queued in list order,
+     * so the rows at the top of the screen get their icons first.
+     */
+    private void loadIconsAsync(List<SelectableAppInfo> apps) {
+        final int count = apps.size();
+        for (int start = 0; start < count; start += ICON_LOAD_BATCH_SIZE) {
+            List<SelectableAppInfo> batch = new ArrayList<SelectableAppInfo>(
+                    apps.subList(start, Math.min(start + ICON_LOAD_BATCH_SIZE, count)));
+            IconLoadingTask task = new IconLoadingTask();
+            mIconLoadingTasks.add(task);
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, batch);
+        }
+    }
+
+    private void cancelIconLoading() {
+        for (IconLoadingTask task : mIconLoadingTasks) {
+            task.cancel(false);
+        }
+        mIconLoadingTasks.clear();
+    }
+
+    private class IconLoadingTask
+            extends AsyncTask<List<SelectableAppInfo>, SelectableAppInfo, Void> {
+        private final PackageManager mPm = mPackageManager;
+
+        @Override
+        protected Void doInBackground(List<SelectableAppInfo>... params) {
+            for (SelectableAppInfo app : params[0]) {
+                if (isCancelled()) break;
+                app.icon = app.iconSource.loadIcon(mPm);
+                publishProgress(app);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(SelectableAppInfo... values) {
+            for (SelectableAppInfo app : values) {
+                if (app.preference != null && app.icon != null) {
+                    app.preference.setAppIcon(app.icon.mutate());
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mIconLoadingTasks.remove(this);
+        }
+    }
+
     private String getKeyForPackage(String packageName) {
         return PKG_PREFIX + packageName;
     }
@@ -883,8 +992,17 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
      */
     private void requestRestrictionsForApp(String packageName,
             AppRestrictionsPreference preference, boolean invokeIfCustom) {
-        Bundle oldEntries =
-                mUserManager.getApplicationRestrictions(packageName, mUser);
+        requestRestrictionsForApp(packageName, preference, invokeIfCustom, null);
+    }
+
+    /**
+     * @param oldEntries the app's current restrictions if already known, or null to read them
+     */
+    private void requestRestrictionsForApp(String packageName,
+            AppRestrictionsPreference preference, boolean invokeIfCustom, Bundle oldEntries) {
+        if (oldEntries == null) {
+            oldEntries = mUserManager.getApplicationRestrictions(packageName, mUser);
+        }
         Intent intent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
         intent.setPackage(packageName);
         intent.putExtra(Intent.EXTRA_RESTRICTIONS_BUNDLE, oldEntries);
@@ -70,10 +70,34 @@ class CircleFramedDrawable extends Drawable {
         return instance;
     }
 
+    /**
+     * Wraps a bitmap previously returned by {@link #getCircleBitmap()} without clipping it
+     * again. The bitmap must have been composed at the current avatar size.
+     */
+    static CircleFramedDrawable getPrecomposedInstance(Context context, Bitmap circle) {
+        Resources res = context.getResources();
+        float strokeWidth = res.getDimension(R.dimen.circle_avatar_frame_stroke_width);
+        float shadowRadius = res.getDimension(R.dimen.circle_avatar_frame_shadow_radius);
+        int frameColor = res.getColor(R.color.circle_avatar_frame_color);
+        int frameShadowColor = res.getColor(R.color.circle_avatar_frame_shadow_color);
+        int highlightColor = res.getColor(R.color.circle_avatar_frame_pressed_color);
+
+        return new CircleFramedDrawable(circle.getWidth(), frameColor, strokeWidth,
+                frameShadowColor, shadowRadius, highlightColor, circle);
+    }
+
     public CircleFramedDrawable(Bitmap icon, int size,
             int frameColor, float strokeWidth,
             int frameShadowColor, float shadowRadius,
             int highlightColor) {
+        this(size, frameColor, strokeWidth, frameShadowColor, shadowRadius, highlightColor,
+                composeCircle(icon, size, strokeWidth, shadowRadius));
+    }
+
+    private CircleFramedDrawable(int size,
+            int frameColor, float strokeWidth,
+            int frameShadowColor, float shadowRadius,
+            int highlightColor, Bitmap circle) {
         super();
         mSize = size;
         mShadowRadius = shadowRadius;
@@ -81,18 +105,35 @@ class CircleFramedDrawable extends Drawable {
         mFrameShadowColor = frameShadowColor;
         mStrokeWidth = strokeWidth;
         mHighlightColor = highlightColor;
+        mBitmap = circle;
+
+        // prepare paint for frame drawing
+        mPaint = new Paint();
+        mPaint.setAntiAlias(true);
+
+        mScale = 1f;
 
-        mBitmap = Bitmap.createBitmap(mSize, mSize, Bitmap.Config.ARGB_8888);
-        final Canvas canvas = new Canvas(mBitmap);
+        mSrcRect = new Rect(0, 0, mSize, mSize);
+        mDstRect = new RectF(0, 0, mSize, mSize);
+        mFrameRect = new RectF(mDstRect);
+        mFramePath = new Path();
+    }
+
+    /**
+     * Returns a new size x size bitmap holding the icon clipped to the avatar circle.
+     */
+    static Bitmap composeCircle(Bitmap icon, int size, float strokeWidth, float shadowRadius) {
+        final Bitmap circle = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(circle);
 
         final int width = icon.getWidth();
         final int height = icon.getHeight();
         final int square = Math.min(width, height);
 
         final Rect cropRect = new Rect((width - square) / 2, (height - square) / 2, square, square);
-        final RectF circleRect = new RectF(0f, 0f, mSize, mSize);
-        circleRect.inset(mStrokeWidth / 2f, mStrokeWidth / 2f);
-        circleRect.inset(mShadowRadius, mShadowRadius);
+        final RectF circleRect = new RectF(0f, 0f, size, size);
+        circleRect.inset(strokeWidth / 2f, strokeWidth / 2f);
+        circleRect.inset(shadowRadius, shadowRadius);
 
         final Path fillPath = new Path();
         fillPath.addArc(circleRect, 0f, 360f);
@@ -100,25 +141,23 @@ class CircleFramedDrawable extends Drawable {
         canvas.drawColor(0, PorterDuff.Mode.CLEAR);
 
         // opaque circle matte
-        mPaint = new Paint();
-        mPaint.setAntiAlias(true);
-        mPaint.setColor(Color.BLACK);
-        mPaint.setStyle(Paint.Style.FILL);
-        canvas.drawPath(fillPath, mPaint);
+        final Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setColor(Color.BLACK);
+        paint.setStyle(Paint.Style.FILL);
+        canvas.drawPath(fillPath, paint);
 
         // mask in the icon where the bitmap is opaque
-        mPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_ATOP));
-        canvas.drawBitmap(icon, cropRect, circleRect, mPaint);
-
-        // prepare paint for frame drawing
-        mPaint.setXfermode(null);
-
-        mScale = 1f;
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_ATOP));
+        canvas.drawBitmap(icon, cropRect, circleRect, paint);
+        return circle;
+    }
 
-        mSrcRect = new Rect(0, 0, mSize, mSize);
-        mDstRect = new RectF(0, 0, mSize, mSize);
-        mFrameRect = new RectF(mDstRect);
-        mFramePath = new Path();
+    /**
+     * Returns the circle-clipped avatar, without the frame. Callers must not modify it.
+     */
+    Bitmap getCircleBitmap() {
+        return mBitmap;
     }
 
     @Override
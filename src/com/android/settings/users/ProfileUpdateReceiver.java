@@ -39,7 +39,9 @@ public class ProfileUpdateReceiver extends BroadcastReceiver {
         // Profile changed, lets get the photo and write to user manager
         new Thread() {
             public void run() {
-                Utils.copyMeProfilePhoto(context, null);
+                if (Utils.copyMeProfilePhoto(context, null)) {
+                    UserAvatarCache.getInstance(context).invalidate(UserHandle.myUserId());
+                }
                 copyProfileName(context);
             }
         }.start();
@@ -227,11 +227,14 @@ public class RestrictedProfileSettings extends AppRestrictionsFragment {
                             if (drawable != null && bitmap != null
                                     && !drawable.equals(mUserIconView.getDrawable())) {
                                 mUserIconView.setImageDrawable(drawable);
+                                final UserAvatarCache avatarCache =
+                                        UserAvatarCache.getInstance(getActivity());
                                 new AsyncTask<Void, Void, Void>() {
                                     @Override
                                     protected Void doInBackground(Void... params) {
                                         mUserManager.setUserIcon(mUser.getIdentifier(),
                                                 mEditUserPhotoController.getNewUserPhotoBitmap());
+                                        avatarCache.invalidate(mUser.getIdentifier());
                                         return null;
                                     }
                                 }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.users;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.android.settings.R;
+
+/**
+ * Process-wide cache of user avatars, already clipped to the avatar circle at display size.
+ * Entries are keyed by user id and an icon generation that is bumped whenever the user's
+ * icon may have changed, so a decode that races with an invalidation is never published.
+ *
+ * <p>{@link #getCachedIcon} never touches UserManager and is safe on the UI thread;
+ * {@link #getIcon} may decode and should be called from a background thread on a miss.
+ */
+public class UserAvatarCache {
+
+    private static final Object sLock = new Object();
+    private static UserAvatarCache sInstance;
+
+    private final Context mContext;
+    private final UserManager mUserManager;
+
+    /** Circle bitmaps by user id, guarded by this. */
+    private final SparseArray<Bitmap> mEntries = new SparseArray<Bitmap>();
+    /** Current icon generation by user id, guarded by this. */
+    private final SparseIntArray mGenerations = new SparseIntArray();
+    /** Bumped when every entry is dropped at once, guarded by this. */
+    private int mAllGeneration;
+    /** Circle bitmaps of default avatars by resource id, guarded by this. */
+    private final SparseArray<Bitmap> mDefaultIcons = new SparseArray<Bitmap>();
+    /** Avatar size the cached bitmaps were composed at, guarded by this. */
+    private int mIconSize;
+
+    private final BroadcastReceiver mUserChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int userHandle = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, -1);
+            if (userHandle != -1) {
+                invalidate(userHandle);
+            } else {
+                invalidateAll();
+            }
+        }
+    };
+
+    public static UserAvatarCache getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new UserAvatarCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private UserAvatarCache(Context context) {
+        mContext = context;
+        mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        IntentFilter filter = new IntentFilter(Intent.ACTION_USER_REMOVED);
+        filter.addAction(Intent.ACTION_USER_INFO_CHANGED);
+        mContext.registerReceiverAsUser(mUserChangeReceiver, UserHandle.ALL, filter, null, null);
+    }
+
+    /**
+     * Returns the cached avatar for the user, or null if it has not been loaded yet.
+     */
+    public Drawable getCachedIcon(Context context, int userId) {
+        Bitmap circle;
+        synchronized (this) {
+            checkIconSizeLocked(context.getResources());
+            circle = mEntries.get(userId);
+            if (circle == null) return null;
+        }
+        return CircleFramedDrawable.getPrecomposedInstance(context, circle);
+    }
+
+    /**
+     * Returns the avatar for the user, decoding and caching it on a miss. Returns null if the
+     * user has no icon.
+     */
+    public Drawable getIcon(Context context, int userId) {
+        final Resources res = context.getResources();
+        final int generation;
+        final int allGeneration;
+        synchronized (this) {
+            checkIconSizeLocked(res);
+            Bitmap circle = mEntries.get(userId);
+            if (circle != null) {
+                return CircleFramedDrawable.getPrecomposedInstance(context, circle);
+            }
+            generation = mGenerations.get(userId);
+            allGeneration = mAllGeneration;
+        }
+
+        Bitmap icon = mUserManager.getUserIcon(userId);
+        if (icon == null) return null;
+        Bitmap circle = composeCircle(res, icon);
+
+        synchronized (this) {
+            // Only publish if nobody invalidated this user (or resized) while we were decoding.
+            if (mGenerations.get(userId) == generation && mAllGeneration == allGeneration) {
+                mEntries.put(userId, circle);
+            }
+        }
+        return CircleFramedDrawable.getPrecomposedInstance(context, circle);
+    }
+
+    /**
+     * Returns one of the default avatars, such as {@link R.drawable#avatar_default_1}, clipped
+     * to the avatar circle.
+     */
+    public Drawable getDefaultIcon(Context context, int iconResId) {
+        final Resources res = context.getResources();
+        Bitmap circle;
+        synchronized (this) {
+            checkIconSizeLocked(res);
+            circle = mDefaultIcons.get(iconResId);
+        }
+        if (circle == null) {
+            circle = composeCircle(res, BitmapFactory.decodeResource(res, iconResId));
+            synchronized (this) {
+                if (mIconSize == getIconSize(res)) {
+                    mDefaultIcons.put(iconResId, circle);
+                }
+            }
+        }
+        return CircleFramedDrawable.getPrecomposedInstance(context, circle);
+    }
+
+    /**
+     * Drops the cached avatar of a user. Call this after changing the user's icon.
+     */
+    public void invalidate(int userId) {
+        synchronized (this) {
+            mEntries.remove(userId);
+            mGenerations.put(userId, mGenerations.get(userId) + 1);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (this) {
+            mEntries.clear();
+            mAllGeneration++;
+        }
+    }
+
+    private void checkIconSizeLocked(Resources res) {
+        final int size = getIconSize(res);
+        if (size != mIconSize) {
+            // Display metrics changed; everything was composed at the wrong size.
+            mEntries.clear();
+            mAllGeneration++;
+            mDefaultIcons.clear();
+            mIconSize = size;
+        }
+    }
+
+    private static int getIconSize(Resources res) {
+        return (int) res.getDimension(R.dimen.circle_avatar_size);
+    }
+
+    private static Bitmap composeCircle(Resources res, Bitmap icon) {
+        return CircleFramedDrawable.composeCircle(icon, getIconSize(res),
+                res.getDimension(R.dimen.circle_avatar_frame_stroke_width),
+                res.getDimension(R.dimen.circle_avatar_frame_shadow_radius));
+    }
+}
@@ -34,7 +34,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.UserInfo;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
@@ -53,7 +52,6 @@ import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
 import android.provider.Settings.Secure;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -131,7 +129,7 @@ public class UserSettings extends RestrictedSettingsFragment
 
     private final Object mUserLock = new Object();
     private UserManager mUserManager;
-    private SparseArray<Bitmap> mUserIcons = new SparseArray<Bitmap>();
+    private UserAvatarCache mAvatarCache;
     private boolean mIsOwner = UserHandle.myUserId() == UserHandle.USER_OWNER;
 
     public UserSettings() {
@@ -163,7 +161,7 @@ public class UserSettings extends RestrictedSettingsFragment
             } else if (intent.getAction().equals(Intent.ACTION_USER_INFO_CHANGED)) {
                 int userHandle = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, -1);
                 if (userHandle != -1) {
-                    mUserIcons.remove(userHandle);
+                    mAvatarCache.invalidate(userHandle);
                 }
             }
             mHandler.sendEmptyMessage(MESSAGE_UPDATE_LIST);
@@ -184,6 +182,7 @@ public class UserSettings extends RestrictedSettingsFragment
         }
 
         mUserManager = (UserManager) getActivity().getSystemService(Context.USER_SERVICE);
+        mAvatarCache = UserAvatarCache.getInstance(getActivity());
         addPreferencesFromResource(R.xml.user_settings);
         mUserListCategory = (PreferenceGroup) findPreference(KEY_USER_LIST);
         mMePreference = new UserPreference(getActivity(), null, UserHandle.myUserId(),
@@ -252,6 +251,7 @@ public class UserSettings extends RestrictedSettingsFragment
 
     private void loadProfile() {
         mProfileExists = false;
+        final Context context = getActivity();
         new AsyncTask<Void, Void, String>() {
             @Override
             protected void onPostExecute(String result) {
@@ -263,7 +263,10 @@ public class UserSettings extends RestrictedSettingsFragment
                 UserInfo user = mUserManager.getUserInfo(UserHandle.myUserId());
                 if (user.iconPath == null || user.iconPath.equals("")) {
                     assignProfilePhoto(user);
+                    mAvatarCache.invalidate(user.id);
                 }
+                // Warm the avatar cache so finishLoadProfile doesn't decode on the UI thread
+                mAvatarCache.getIcon(context, user.id);
                 String profileName = getProfileName();
                 if (profileName == null) {
                     profileName = user.name;
@@ -276,11 +279,9 @@ public class UserSettings extends RestrictedSettingsFragment
     private void finishLoadProfile(String profileName) {
         if (getActivity() == null) return;
         mMePreference.setTitle(getString(R.string.user_you, profileName));
-        int myUserId = UserHandle.myUserId();
-        Bitmap b = mUserManager.getUserIcon(myUserId);
-        if (b != null) {
-            mMePreference.setIcon(encircle(b));
-            mUserIcons.put(myUserId, b);
+        Drawable icon = mAvatarCache.getCachedIcon(getActivity(), UserHandle.myUserId());
+        if (icon != null) {
+            mMePreference.setIcon(icon);
         }
     }
 
@@ -351,6 +352,7 @@ public class UserSettings extends RestrictedSettingsFragment
                 UserSettings.USER_DRAWABLES[
                         userId % UserSettings.USER_DRAWABLES.length]);
         mUserManager.setUserIcon(userId, bitmap);
+        mAvatarCache.invalidate(userId);
         // Add shared accounts
         AccountManager am = AccountManager.get(getActivity());
         Account [] accounts = am.getAccounts();
@@ -637,11 +639,12 @@ public class UserSettings extends RestrictedSettingsFragment
                 pref.setSummary(R.string.user_summary_restricted_profile);
             }
             if (user.iconPath != null) {
-                if (mUserIcons.get(user.id) == null) {
+                Drawable icon = mAvatarCache.getCachedIcon(getActivity(), user.id);
+                if (icon == null) {
                     missingIcons.add(user.id);
-                    pref.setIcon(encircle(R.drawable.avatar_default_1));
+                    pref.setIcon(getDefaultIcon());
                 } else {
-                    setPhotoId(pref, user);
+                    pref.setIcon(icon);
                 }
             }
         }
@@ -651,7 +654,7 @@ public class UserSettings extends RestrictedSettingsFragment
                     null, null);
             pref.setEnabled(false);
             pref.setTitle(R.string.user_new_user_name);
-            pref.setIcon(encircle(R.drawable.avatar_default_1));
+            pref.setIcon(getDefaultIcon());
             mUserListCategory.addPreference(pref);
         }
         getActivity().invalidateOptionsMenu();
@@ -665,7 +668,7 @@ public class UserSettings extends RestrictedSettingsFragment
     }
 
     private void loadIconsAsync(List<Integer> missingIcons) {
-        final Resources resources = getResources();
+        final Context context = getActivity();
         new AsyncTask<List<Integer>, Void, Void>() {
             @Override
             protected void onPostExecute(Void result) {
@@ -675,8 +678,7 @@ public class UserSettings extends RestrictedSettingsFragment
             @Override
             protected Void doInBackground(List<Integer>... values) {
                 for (int userId : values[0]) {
-                    Bitmap bitmap = mUserManager.getUserIcon(userId);
-                    mUserIcons.append(userId, bitmap);
+                    mAvatarCache.getIcon(context, userId);
                 }
                 return null;
             }
@@ -701,13 +703,7 @@ public class UserSettings extends RestrictedSettingsFragment
         Bitmap bitmap = BitmapFactory.decodeResource(getResources(),
                 USER_DRAWABLES[user.id % USER_DRAWABLES.length]);
         mUserManager.setUserIcon(user.id, bitmap);
-    }
-
-    private void setPhotoId(Preference pref, UserInfo user) {
-        Bitmap bitmap = mUserIcons.get(user.id);
-        if (bitmap != null) {
-            pref.setIcon(encircle(bitmap));
-        }
+        mAvatarCache.invalidate(user.id);
     }
 
     private void setUserName(String name) {
@@ -761,14 +757,8 @@ public class UserSettings extends RestrictedSettingsFragment
         return (user.flags & UserInfo.FLAG_INITIALIZED) != 0;
     }
 
-    private Drawable encircle(int iconResId) {
-        Bitmap icon = BitmapFactory.decodeResource(getResources(), iconResId);
-        return encircle(icon);
-    }
-
-    private Drawable encircle(Bitmap icon) {
-        Drawable circled = CircleFramedDrawable.getInstance(getActivity(), icon);
-        return circled;
+    private Drawable getDefaultIcon() {
+        return mAvatarCache.getDefaultIcon(getActivity(), R.drawable.avatar_default_1);
     }
 
     @Override
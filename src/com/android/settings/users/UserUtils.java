@@ -19,16 +19,12 @@ package com.android.settings.users;
 import android.content.Context;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.UserManager;
 
 public class UserUtils {
     public static Drawable getUserIcon(Context context, UserManager um, UserInfo user, Resources res) {
         if (user.iconPath == null) return null;
-        Bitmap icon = um.getUserIcon(user.id);
-        if (icon == null) return null;
-        return CircleFramedDrawable.getInstance(context, icon);
+        return UserAvatarCache.getInstance(context).getIcon(context, user.id);
     }
 }
@@ -19,8 +19,11 @@ package com.android.settings.vpn2;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.net.ConnectivityManager;
 import android.net.IConnectivityManager;
@@ -56,6 +59,7 @@ import com.android.settings.SettingsPreferenceFragment;
 import com.google.android.collect.Lists;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -68,6 +72,26 @@ public class VpnSettings extends SettingsPreferenceFragment implements
 
     private static final String EXTRA_PICK_LOCKDOWN = "android.net.vpn.PICK_LOCKDOWN";
 
+    private static final int MSG_UPDATE_STATE = 0;
+
+    /**
+     * The legacy VPN state is polled quickly while it is changing on its own (initializing or
+     * connecting), starting at this interval and doubling up to POLL_MAX_DELAY_MS. While
+     * connected it is polled every POLL_MAX_DELAY_MS, as a connection that drops or fails is
+     * not broadcast. Otherwise we wait for a connectivity change or for the user to connect
+     * or disconnect.
+     */
+    private static final long POLL_INITIAL_DELAY_MS = 500;
+    private static final long POLL_MAX_DELAY_MS = 8000;
+
+    /**
+     * Decoded profiles by key, shared by every instance. We are the only writer of VPN
+     * profiles in KeyStore, so an entry only changes through our own saves and deletes; keys
+     * that are gone from KeyStore, e.g. after a credential reset, are dropped on load.
+     */
+    private static final HashMap<String, VpnProfile> sProfileCache =
+            new HashMap<String, VpnProfile>();
+
     // TODO: migrate to using DialogFragment when editing
 
     private final IConnectivityManager mService = IConnectivityManager.Stub
@@ -77,9 +101,18 @@ public class VpnSettings extends SettingsPreferenceFragment implements
 
     private HashMap<String, VpnPreference> mPreferences = new HashMap<String, VpnPreference>();
     private VpnDialog mDialog;
+    private boolean mReceiverRegistered;
 
     private Handler mUpdater;
     private LegacyVpnInfo mInfo;
+    private long mPollDelay = POLL_INITIAL_DELAY_MS;
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            requestStateUpdate();
+        }
+    };
 
     // The key of the profile for the current ContextMenu.
     private String mSelectedKey;
@@ -204,7 +237,10 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         if (mUpdater == null) {
             mUpdater = new Handler(this);
         }
-        mUpdater.sendEmptyMessage(0);
+        getActivity().registerReceiver(mConnectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        mReceiverRegistered = true;
+        requestStateUpdate();
 
         // Register for context menu. Hmmm, getListView() is hidden?
         registerForContextMenu(getListView());
@@ -224,6 +260,15 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         if (getView() != null) {
             unregisterForContextMenu(getListView());
         }
+
+        // Stop monitoring.
+        if (mReceiverRegistered) {
+            getActivity().unregisterReceiver(mConnectivityReceiver);
+            mReceiverRegistered = false;
+        }
+        if (mUpdater != null) {
+            mUpdater.removeMessages(MSG_UPDATE_STATE);
+        }
     }
 
     @Override
@@ -237,8 +282,12 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         if (button == DialogInterface.BUTTON_POSITIVE) {
             // Always save the profile.
             VpnProfile profile = mDialog.getProfile();
-            mKeyStore.put(Credentials.VPN + profile.key, profile.encode(), KeyStore.UID_SELF,
-                    KeyStore.FLAG_ENCRYPTED);
+            if (mKeyStore.put(Credentials.VPN + profile.key, profile.encode(), KeyStore.UID_SELF,
+                    KeyStore.FLAG_ENCRYPTED)) {
+                synchronized (sProfileCache) {
+                    sProfileCache.put(profile.key, profile);
+                }
+            }
 
             // Update the preference.
             VpnPreference preference = mPreferences.get(profile.key);
@@ -307,6 +356,9 @@ public class VpnSettings extends SettingsPreferenceFragment implements
                 getPreferenceScreen().removePreference(preference);
                 mPreferences.remove(mSelectedKey);
                 mKeyStore.delete(Credentials.VPN + mSelectedKey);
+                synchronized (sProfileCache) {
+                    sProfileCache.remove(mSelectedKey);
+                }
                 return true;
         }
         return false;
@@ -345,38 +397,65 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         return true;
     }
 
+    /**
+     * Checks the legacy VPN state now, and restarts the polling backoff in case it turns
+     * out to be changing.
+     */
+    private void requestStateUpdate() {
+        if (mUpdater != null) {
+            mPollDelay = POLL_INITIAL_DELAY_MS;
+            mUpdater.removeMessages(MSG_UPDATE_STATE);
+            mUpdater.sendEmptyMessage(MSG_UPDATE_STATE);
+        }
+    }
+
     @Override
     public boolean handleMessage(Message message) {
-        mUpdater.removeMessages(0);
+        mUpdater.removeMessages(MSG_UPDATE_STATE);
 
         if (isResumed()) {
             try {
-                LegacyVpnInfo info = mService.getLegacyVpnInfo();
-                if (mInfo != null) {
-                    VpnPreference preference = mPreferences.get(mInfo.key);
-                    if (preference != null) {
-                        preference.update(-1);
-                    }
-                    mInfo = null;
-                }
-                if (info != null) {
-                    VpnPreference preference = mPreferences.get(info.key);
-                    if (preference != null) {
-                        preference.update(info.state);
-                        mInfo = info;
-                    }
-                }
+                setLegacyVpnInfo(mService.getLegacyVpnInfo());
             } catch (Exception e) {
                 // ignore
             }
-            mUpdater.sendEmptyMessageDelayed(0, 1000);
+            if (mInfo != null && (mInfo.state == LegacyVpnInfo.STATE_INITIALIZING
+                    || mInfo.state == LegacyVpnInfo.STATE_CONNECTING)) {
+                mUpdater.sendEmptyMessageDelayed(MSG_UPDATE_STATE, mPollDelay);
+                mPollDelay = Math.min(mPollDelay * 2, POLL_MAX_DELAY_MS);
+            } else if (mInfo != null && mInfo.state == LegacyVpnInfo.STATE_CONNECTED) {
+                mUpdater.sendEmptyMessageDelayed(MSG_UPDATE_STATE, POLL_MAX_DELAY_MS);
+                mPollDelay = POLL_INITIAL_DELAY_MS;
+            } else {
+                mPollDelay = POLL_INITIAL_DELAY_MS;
+            }
         }
         return true;
     }
 
+    /** Moves the state shown in the list to the given info, touching only what changed. */
+    private void setLegacyVpnInfo(LegacyVpnInfo info) {
+        final VpnPreference preference = (info != null) ? mPreferences.get(info.key) : null;
+        if (preference == null) {
+            info = null;
+        }
+        if (mInfo != null && (info == null || !mInfo.key.equals(info.key))) {
+            VpnPreference old = mPreferences.get(mInfo.key);
+            if (old != null) {
+                old.update(-1);
+            }
+        }
+        if (info != null && (mInfo == null || !mInfo.key.equals(info.key)
+                || mInfo.state != info.state)) {
+            preference.update(info.state);
+        }
+        mInfo = info;
+    }
+
     private void connect(VpnProfile profile) throws Exception {
         try {
             mService.startLegacyVpn(profile);
+            requestStateUpdate();
         } catch (IllegalStateException e) {
             Toast.makeText(getActivity(), R.string.vpn_no_network, Toast.LENGTH_LONG).show();
         }
@@ -389,6 +468,7 @@ public class VpnSettings extends SettingsPreferenceFragment implements
             } catch (Exception e) {
                 // ignore
             }
+            requestStateUpdate();
         }
     }
 
@@ -547,10 +627,20 @@ public class VpnSettings extends SettingsPreferenceFragment implements
     private static List<VpnProfile> loadVpnProfiles(KeyStore keyStore, int... excludeTypes) {
         final ArrayList<VpnProfile> result = Lists.newArrayList();
         final String[] keys = keyStore.saw(Credentials.VPN);
-        if (keys != null) {
+        synchronized (sProfileCache) {
+            if (keys == null) {
+                sProfileCache.clear();
+                return result;
+            }
+            sProfileCache.keySet().retainAll(Arrays.asList(keys));
             for (String key : keys) {
-                final VpnProfile profile = VpnProfile.decode(
-                        key, keyStore.get(Credentials.VPN + key));
+                VpnProfile profile = sProfileCache.get(key);
+                if (profile == null) {
+                    profile = VpnProfile.decode(key, keyStore.get(Credentials.VPN + key));
+                    if (profile != null) {
+                        sProfileCache.put(key, profile);
+                    }
+                }
                 if (profile != null && !ArrayUtils.contains(excludeTypes, profile.type)) {
                     result.add(profile);
                 }
@@ -50,6 +50,7 @@ import android.provider.Settings;
 import android.text.Html;
 import android.util.Slog;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -70,6 +71,9 @@ import com.android.settings.ProgressCategory;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * The Settings screen for WifiDisplay configuration and connection management.
  *
@@ -94,14 +98,17 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
     private static final int ORDER_AVAILABLE = 3;
     private static final int ORDER_UNAVAILABLE = 4;
 
-    private final Handler mHandler;
-
     private MediaRouter mRouter;
     private DisplayManager mDisplayManager;
 
     private boolean mStarted;
     private int mPendingChanges;
 
+    private final HashMap<MediaRouter.RouteInfo, RoutePreference> mRoutePreferences =
+            new HashMap<MediaRouter.RouteInfo, RoutePreference>();
+    private final HashMap<String, UnpairedWifiDisplayPreference> mUnpairedPreferences =
+            new HashMap<String, UnpairedWifiDisplayPreference>();
+
     private boolean mWifiDisplayOnSetting;
     private WifiDisplayStatus mWifiDisplayStatus;
 
@@ -112,16 +119,14 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
     private WifiP2pManager mWifiP2pManager;
     private Channel mWifiP2pChannel;
     private PreferenceGroup mCertCategory;
+    private boolean mCertShown;
+    private String mCertSessionInfo;
     private boolean mListen;
     private boolean mAutoGO;
     private int mWpsConfig = WpsInfo.INVALID;
     private int mListenChannel;
     private int mOperatingChannel;
 
-    public WifiDisplaySettings() {
-        mHandler = new Handler();
-    }
-
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
@@ -213,10 +218,14 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Folds the changes into the update for the next frame, so a burst of router callbacks
+     * and broadcasts while scanning costs one pass over the list.
+     */
     private void scheduleUpdate(int changes) {
         if (mStarted) {
             if (mPendingChanges == 0) {
-                mHandler.post(mUpdateRunnable);
+                Choreographer.getInstance().postFrameCallback(mUpdateFrameCallback);
             }
             mPendingChanges |= changes;
         }
@@ -225,7 +234,7 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
     private void unscheduleUpdate() {
         if (mPendingChanges != 0) {
             mPendingChanges = 0;
-            mHandler.removeCallbacks(mUpdateRunnable);
+            Choreographer.getInstance().removeFrameCallback(mUpdateFrameCallback);
         }
     }
 
@@ -253,45 +262,106 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
             invalidateOptions = true;
         }
 
-        // Rebuild the routes.
         final PreferenceScreen preferenceScreen = getPreferenceScreen();
-        preferenceScreen.removeAll();
+        final boolean featureOn = mWifiDisplayStatus != null
+                && mWifiDisplayStatus.getFeatureState() == WifiDisplayStatus.FEATURE_STATE_ON;
+
+        // Bring the routes and displays up to date. Which preference a route gets depends on
+        // the wifi display status, so either kind of change touches both.
+        if ((changes & (CHANGE_ROUTES | CHANGE_WIFI_DISPLAY_STATUS)) != 0) {
+            updateRoutePreferences(preferenceScreen);
+            updateUnpairedDisplayPreferences(preferenceScreen, featureOn);
+        }
+
+        // Add the certification menu if enabled in developer options.
+        if (featureOn && mWifiDisplayCertificationOn) {
+            final String sessionInfo = mWifiDisplayStatus.getSessionInfo().toString();
+            if (!mCertShown || (changes & CHANGE_SETTINGS) != 0
+                    || !sessionInfo.equals(mCertSessionInfo)) {
+                buildCertificationMenu(preferenceScreen);
+                mCertShown = true;
+                mCertSessionInfo = sessionInfo;
+            }
+        } else if (mCertShown) {
+            preferenceScreen.removePreference(mCertCategory);
+            mCertShown = false;
+            mCertSessionInfo = null;
+        }
 
-        // Add all known remote display routes.
+        // Invalidate menu options if needed.
+        if (invalidateOptions) {
+            getActivity().invalidateOptionsMenu();
+        }
+    }
+
+    /**
+     * Updates the preference of every known remote display route in place, keyed by
+     * route, and only adds or removes preferences for routes that came or went.
+     */
+    private void updateRoutePreferences(PreferenceScreen preferenceScreen) {
+        final HashMap<MediaRouter.RouteInfo, RoutePreference> stale =
+                new HashMap<MediaRouter.RouteInfo, RoutePreference>(mRoutePreferences);
         final int routeCount = mRouter.getRouteCount();
         for (int i = 0; i < routeCount; i++) {
             MediaRouter.RouteInfo route = mRouter.getRouteAt(i);
-            if (route.matchesTypes(MediaRouter.ROUTE_TYPE_REMOTE_DISPLAY)) {
-                preferenceScreen.addPreference(createRoutePreference(route));
+            if (!route.matchesTypes(MediaRouter.ROUTE_TYPE_REMOTE_DISPLAY)) {
+                continue;
             }
+            WifiDisplay display = findWifiDisplay(route.getDeviceAddress());
+            RoutePreference pref = stale.remove(route);
+            if (pref != null && (pref instanceof WifiDisplayRoutePreference) != (display != null)) {
+                // The route gained or lost its wifi display; it needs the other kind.
+                preferenceScreen.removePreference(pref);
+                pref = null;
+            }
+            if (pref == null) {
+                pref = createRoutePreference(route, display);
+                mRoutePreferences.put(route, pref);
+                preferenceScreen.addPreference(pref);
+            } else {
+                pref.update(route);
+                if (display != null) {
+                    ((WifiDisplayRoutePreference) pref).setDisplay(display);
+                }
+            }
+        }
+        for (Map.Entry<MediaRouter.RouteInfo, RoutePreference> entry : stale.entrySet()) {
+            preferenceScreen.removePreference(entry.getValue());
+            mRoutePreferences.remove(entry.getKey());
         }
+    }
 
-        // Additional features for wifi display routes.
-        if (mWifiDisplayStatus != null
-                && mWifiDisplayStatus.getFeatureState() == WifiDisplayStatus.FEATURE_STATE_ON) {
-            // Add all unpaired wifi displays.
+    /**
+     * Same as {@link #updateRoutePreferences} for the wifi displays that are not paired,
+     * keyed by device address.
+     */
+    private void updateUnpairedDisplayPreferences(PreferenceScreen preferenceScreen,
+            boolean featureOn) {
+        final HashMap<String, UnpairedWifiDisplayPreference> stale =
+                new HashMap<String, UnpairedWifiDisplayPreference>(mUnpairedPreferences);
+        if (featureOn) {
             for (WifiDisplay display : mWifiDisplayStatus.getDisplays()) {
                 if (!display.isRemembered() && display.isAvailable()
                         && !display.equals(mWifiDisplayStatus.getActiveDisplay())) {
-                    preferenceScreen.addPreference(new UnpairedWifiDisplayPreference(
-                            getActivity(), display));
+                    UnpairedWifiDisplayPreference pref = stale.remove(display.getDeviceAddress());
+                    if (pref == null) {
+                        pref = new UnpairedWifiDisplayPreference(getActivity(), display);
+                        mUnpairedPreferences.put(display.getDeviceAddress(), pref);
+                        preferenceScreen.addPreference(pref);
+                    } else {
+                        pref.update(display);
+                    }
                 }
             }
-
-            // Add the certification menu if enabled in developer options.
-            if (mWifiDisplayCertificationOn) {
-                buildCertificationMenu(preferenceScreen);
-            }
         }
-
-        // Invalidate menu options if needed.
-        if (invalidateOptions) {
-            getActivity().invalidateOptionsMenu();
+        for (Map.Entry<String, UnpairedWifiDisplayPreference> entry : stale.entrySet()) {
+            preferenceScreen.removePreference(entry.getValue());
+            mUnpairedPreferences.remove(entry.getKey());
         }
     }
 
-    private RoutePreference createRoutePreference(MediaRouter.RouteInfo route) {
-        WifiDisplay display = findWifiDisplay(route.getDeviceAddress());
+    private RoutePreference createRoutePreference(MediaRouter.RouteInfo route,
+            WifiDisplay display) {
         if (display != null) {
             return new WifiDisplayRoutePreference(getActivity(), route, display);
         } else {
@@ -595,9 +665,10 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
         dialog.show();
     }
 
-    private final Runnable mUpdateRunnable = new Runnable() {
+    private final Choreographer.FrameCallback mUpdateFrameCallback =
+            new Choreographer.FrameCallback() {
         @Override
-        public void run() {
+        public void doFrame(long frameTimeNanos) {
             final int changes = mPendingChanges;
             mPendingChanges = 0;
             update(changes);
@@ -650,21 +721,30 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
 
     private class RoutePreference extends Preference
             implements Preference.OnPreferenceClickListener {
-        private final MediaRouter.RouteInfo mRoute;
+        private MediaRouter.RouteInfo mRoute;
 
         public RoutePreference(Context context, MediaRouter.RouteInfo route) {
             super(context);
 
+            update(route);
+            setOnPreferenceClickListener(this);
+        }
+
+        /**
+         * Shows the current state of the route. The setters ignore values that did not
+         * change, so an unchanged route is not redrawn.
+         */
+        void update(MediaRouter.RouteInfo route) {
             mRoute = route;
             setTitle(route.getName());
-            setSummary(route.getDescription());
             setEnabled(route.isEnabled());
+            CharSequence summary = route.getDescription();
             if (route.isSelected()) {
                 setOrder(ORDER_CONNECTED);
                 if (route.isConnecting()) {
-                    setSummary(R.string.wifi_display_status_connecting);
+                    summary = getContext().getString(R.string.wifi_display_status_connecting);
                 } else {
-                    setSummary(R.string.wifi_display_status_connected);
+                    summary = getContext().getString(R.string.wifi_display_status_connected);
                 }
             } else {
                 if (isEnabled()) {
@@ -672,13 +752,14 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
                 } else {
                     setOrder(ORDER_UNAVAILABLE);
                     if (route.getStatusCode() == MediaRouter.RouteInfo.STATUS_IN_USE) {
-                        setSummary(R.string.wifi_display_status_in_use);
+                        summary = getContext().getString(R.string.wifi_display_status_in_use);
                     } else {
-                        setSummary(R.string.wifi_display_status_not_available);
+                        summary = getContext().getString(
+                                R.string.wifi_display_status_not_available);
                     }
                 }
             }
-            setOnPreferenceClickListener(this);
+            setSummary(summary);
         }
 
         @Override
@@ -690,7 +771,7 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
 
     private class WifiDisplayRoutePreference extends RoutePreference
             implements View.OnClickListener {
-        private final WifiDisplay mDisplay;
+        private WifiDisplay mDisplay;
 
         public WifiDisplayRoutePreference(Context context, MediaRouter.RouteInfo route,
                 WifiDisplay display) {
@@ -700,6 +781,11 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
             setWidgetLayoutResource(R.layout.wifi_display_preference);
         }
 
+        void setDisplay(WifiDisplay display) {
+            // Only used by the options dialog, nothing to redraw.
+            mDisplay = display;
+        }
+
         @Override
         protected void onBindView(View view) {
             super.onBindView(view);
@@ -713,6 +799,9 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
                             value, true);
                     deviceDetails.setImageAlpha((int)(value.getFloat() * 255));
                     deviceDetails.setEnabled(true); // always allow button to be pressed
+                } else {
+                    // The view may have been bound while this route was unavailable.
+                    deviceDetails.setImageAlpha(255);
                 }
             }
         }
@@ -725,22 +814,27 @@ public final class WifiDisplaySettings extends SettingsPreferenceFragment {
 
     private class UnpairedWifiDisplayPreference extends Preference
             implements Preference.OnPreferenceClickListener {
-        private final WifiDisplay mDisplay;
+        private WifiDisplay mDisplay;
 
         public UnpairedWifiDisplayPreference(Context context, WifiDisplay display) {
             super(context);
 
+            update(display);
+            setOnPreferenceClickListener(this);
+        }
+
+        void update(WifiDisplay display) {
             mDisplay = display;
             setTitle(display.getFriendlyDisplayName());
-            setSummary(com.android.internal.R.string.wireless_display_route_description);
             setEnabled(display.canConnect());
             if (isEnabled()) {
                 setOrder(ORDER_AVAILABLE);
+                setSummary(getContext().getString(
+                        com.android.internal.R.string.wireless_display_route_description));
             } else {
                 setOrder(ORDER_UNAVAILABLE);
-                setSummary(R.string.wifi_display_status_in_use);
+                setSummary(getContext().getString(R.string.wifi_display_status_in_use));
             }
-            setOnPreferenceClickListener(this);
         }
 
         @Override
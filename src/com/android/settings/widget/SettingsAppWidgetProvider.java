@@ -31,6 +31,7 @@ import android.net.Uri;
 import android.net.wifi.WifiManager;
 import android.os.AsyncTask;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.IPowerManager;
 import android.os.PowerManager;
 import android.os.RemoteException;
@@ -44,6 +45,8 @@ import com.android.settings.R;
 import com.android.settings.bluetooth.LocalBluetoothAdapter;
 import com.android.settings.bluetooth.LocalBluetoothManager;
 
+import java.util.ArrayList;
+
 /**
  * Provides control of power-related settings from a widget.
  */
@@ -100,6 +103,39 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
     /** Minimum brightness at which the indicator is shown at full */
     private static final float FULL_BRIGHTNESS_THRESHOLD = 0.8f;
 
+    // Brightness as shown on its button.
+    private static final int BRIGHTNESS_AUTO = 0;
+    private static final int BRIGHTNESS_OFF = 1;
+    private static final int BRIGHTNESS_HALF = 2;
+    private static final int BRIGHTNESS_FULL = 3;
+
+    // Shifts of each button's state in a packed visible state, see getVisibleState().
+    private static final int SHIFT_WIFI = 0;
+    private static final int SHIFT_BLUETOOTH = 4;
+    private static final int SHIFT_LOCATION = 8;
+    private static final int SHIFT_SYNC = 12;
+    private static final int SHIFT_BRIGHTNESS = 16;
+    private static final int STATE_MASK = 0xf;
+
+    /**
+     * Window in which state changes are folded into one widget update. Toggling a radio
+     * sends several broadcasts in a row.
+     */
+    private static final long UPDATE_DELAY_MS = 100;
+
+    /** Packed visible state last pushed to the widget, or -1 before the first push. */
+    private static int sPushedState = -1;
+    private static Context sUpdateContext;
+    private static final ArrayList<PendingResult> sPendingResults =
+            new ArrayList<PendingResult>();
+    private static final Handler sUpdateHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable sUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pushUpdate();
+        }
+    };
+
     private static final StateTracker sWifiState = new WifiStateTracker();
     private static final StateTracker sBluetoothState = new BluetoothStateTracker();
     private static final StateTracker sLocationState = new LocationStateTracker();
@@ -191,16 +227,34 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
          */
         public int getPosition() { return POS_CENTER; }
 
+        /**
+         * Returns what the button currently shows: STATE_DISABLED, STATE_ENABLED,
+         * STATE_TURNING_ON or STATE_TURNING_OFF.
+         */
+        public final int getVisibleState(Context context) {
+            switch (getTriState(context)) {
+                case STATE_DISABLED:
+                    return STATE_DISABLED;
+                case STATE_ENABLED:
+                    return STATE_ENABLED;
+                default:
+                    return isTurningOn() ? STATE_TURNING_ON : STATE_TURNING_OFF;
+            }
+        }
+
         /**
          * Updates the remote views depending on the state (off, on,
          * turning off, turning on) of the setting.
+         *
+         * @param visibleState as returned by {@link #getVisibleState}
          */
-        public final void setImageViewResources(Context context, RemoteViews views) {
+        public final void setImageViewResources(Context context, RemoteViews views,
+                int visibleState) {
             int containerId = getContainerId();
             int buttonId = getButtonId();
             int indicatorId = getIndicatorId();
             int pos = getPosition();
-            switch (getTriState(context)) {
+            switch (visibleState) {
                 case STATE_DISABLED:
                     views.setContentDescription(containerId,
                         getContentDescription(context, R.string.gadget_state_off));
@@ -215,25 +269,24 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
                     views.setImageViewResource(
                         indicatorId, IND_DRAWABLE_ON[pos]);
                     break;
-                case STATE_INTERMEDIATE:
-                    // In the transitional state, the bottom green bar
-                    // shows the tri-state (on, off, transitioning), but
-                    // the top dark-gray-or-bright-white logo shows the
-                    // user's intent.  This is much easier to see in
-                    // sunlight.
-                    if (isTurningOn()) {
-                        views.setContentDescription(containerId,
-                            getContentDescription(context, R.string.gadget_state_turning_on));
-                        views.setImageViewResource(buttonId, getButtonImageId(true));
-                        views.setImageViewResource(
-                            indicatorId, IND_DRAWABLE_MID[pos]);
-                    } else {
-                        views.setContentDescription(containerId,
-                            getContentDescription(context, R.string.gadget_state_turning_off));
-                        views.setImageViewResource(buttonId, getButtonImageId(false));
-                        views.setImageViewResource(
-                            indicatorId, IND_DRAWABLE_OFF[pos]);
-                    }
+                // In the transitional state, the bottom green bar
+                // shows the tri-state (on, off, transitioning), but
+                // the top dark-gray-or-bright-white logo shows the
+                // user's intent.  This is much easier to see in
+                // sunlight.
+                case STATE_TURNING_ON:
+                    views.setContentDescription(containerId,
+                        getContentDescription(context, R.string.gadget_state_turning_on));
+                    views.setImageViewResource(buttonId, getButtonImageId(true));
+                    views.setImageViewResource(
+                        indicatorId, IND_DRAWABLE_MID[pos]);
+                    break;
+                case STATE_TURNING_OFF:
+                    views.setContentDescription(containerId,
+                        getContentDescription(context, R.string.gadget_state_turning_off));
+                    views.setImageViewResource(buttonId, getButtonImageId(false));
+                    views.setImageViewResource(
+                        indicatorId, IND_DRAWABLE_OFF[pos]);
                     break;
             }
         }
@@ -684,6 +737,10 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
      * Load image for given widget and build {@link RemoteViews} for it.
      */
     static RemoteViews buildUpdate(Context context) {
+        return buildUpdate(context, getVisibleState(context));
+    }
+
+    private static RemoteViews buildUpdate(Context context, int state) {
         RemoteViews views = new RemoteViews(context.getPackageName(),
                 R.layout.widget);
         views.setOnClickPendingIntent(R.id.btn_wifi, getLaunchPendingIntent(context,
@@ -700,21 +757,82 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
                 getLaunchPendingIntent(context,
                         BUTTON_BLUETOOTH));
 
-        updateButtons(views, context);
+        updateButtons(views, context, state);
         return views;
     }
 
     /**
      * Updates the widget when something changes, or when a button is pushed.
+     * The update is sent shortly after, together with any other change in the
+     * meantime, and only if what the widget shows actually changed.
      *
      * @param context
      */
     public static void updateWidget(Context context) {
-        RemoteViews views = buildUpdate(context);
-        // Update specific list of appWidgetIds if given, otherwise default to all
-        final AppWidgetManager gm = AppWidgetManager.getInstance(context);
-        gm.updateAppWidget(THIS_APPWIDGET, views);
+        scheduleUpdate(context, null);
+    }
+
+    /**
+     * Schedules a widget update. If pendingResult is non-null, it is finished once the
+     * update has been sent, which keeps the process around until then.
+     */
+    private static void scheduleUpdate(Context context, PendingResult pendingResult) {
+        if (pendingResult != null) {
+            sPendingResults.add(pendingResult);
+        }
+        if (sUpdateContext == null) {
+            sUpdateContext = context.getApplicationContext();
+            sUpdateHandler.postDelayed(sUpdateRunnable, UPDATE_DELAY_MS);
+        }
+    }
+
+    private static void pushUpdate() {
+        final Context context = sUpdateContext;
+        sUpdateContext = null;
+
+        final int state = getVisibleState(context);
+        if (state != sPushedState) {
+            // Update specific list of appWidgetIds if given, otherwise default to all
+            final AppWidgetManager gm = AppWidgetManager.getInstance(context);
+            gm.updateAppWidget(THIS_APPWIDGET, buildUpdate(context, state));
+            sPushedState = state;
+        }
         checkObserver(context);
+
+        for (int i = 0; i < sPendingResults.size(); i++) {
+            sPendingResults.get(i).finish();
+        }
+        sPendingResults.clear();
+    }
+
+    /**
+     * Returns a snapshot of what every button shows, packed into an int so two snapshots
+     * can be compared directly.
+     */
+    private static int getVisibleState(Context context) {
+        return (sWifiState.getVisibleState(context) << SHIFT_WIFI)
+                | (sBluetoothState.getVisibleState(context) << SHIFT_BLUETOOTH)
+                | (sLocationState.getVisibleState(context) << SHIFT_LOCATION)
+                | (sSyncState.getVisibleState(context) << SHIFT_SYNC)
+                | (getBrightnessState(context) << SHIFT_BRIGHTNESS);
+    }
+
+    private static int getBrightnessState(Context context) {
+        if (getBrightnessMode(context)) {
+            return BRIGHTNESS_AUTO;
+        }
+        final int brightness = getBrightness(context);
+        final PowerManager pm = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
+        final int full = (int)(pm.getMaximumScreenBrightnessSetting()
+                * FULL_BRIGHTNESS_THRESHOLD);
+        final int half = (int)(pm.getMaximumScreenBrightnessSetting()
+                * HALF_BRIGHTNESS_THRESHOLD);
+        if (brightness > full) {
+            return BRIGHTNESS_FULL;
+        } else if (brightness > half) {
+            return BRIGHTNESS_HALF;
+        }
+        return BRIGHTNESS_OFF;
     }
 
     /**
@@ -722,14 +840,20 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
      *
      * @param views   The RemoteViews to update.
      * @param context
+     * @param state   The packed visible state to show.
      */
-    private static void updateButtons(RemoteViews views, Context context) {
-        sWifiState.setImageViewResources(context, views);
-        sBluetoothState.setImageViewResources(context, views);
-        sLocationState.setImageViewResources(context, views);
-        sSyncState.setImageViewResources(context, views);
-
-        if (getBrightnessMode(context)) {
+    private static void updateButtons(RemoteViews views, Context context, int state) {
+        sWifiState.setImageViewResources(context, views,
+                (state >> SHIFT_WIFI) & STATE_MASK);
+        sBluetoothState.setImageViewResources(context, views,
+                (state >> SHIFT_BLUETOOTH) & STATE_MASK);
+        sLocationState.setImageViewResources(context, views,
+                (state >> SHIFT_LOCATION) & STATE_MASK);
+        sSyncState.setImageViewResources(context, views,
+                (state >> SHIFT_SYNC) & STATE_MASK);
+
+        final int brightness = (state >> SHIFT_BRIGHTNESS) & STATE_MASK;
+        if (brightness == BRIGHTNESS_AUTO) {
             views.setContentDescription(R.id.btn_brightness,
                     context.getString(R.string.gadget_brightness_template,
                             context.getString(R.string.gadget_brightness_state_auto)));
@@ -738,20 +862,14 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
             views.setImageViewResource(R.id.ind_brightness,
                     R.drawable.appwidget_settings_ind_on_r_holo);
         } else {
-            final int brightness = getBrightness(context);
-            final PowerManager pm = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
             // Set the icon
-            final int full = (int)(pm.getMaximumScreenBrightnessSetting()
-                    * FULL_BRIGHTNESS_THRESHOLD);
-            final int half = (int)(pm.getMaximumScreenBrightnessSetting()
-                    * HALF_BRIGHTNESS_THRESHOLD);
-            if (brightness > full) {
+            if (brightness == BRIGHTNESS_FULL) {
                 views.setContentDescription(R.id.btn_brightness,
                         context.getString(R.string.gadget_brightness_template,
                                 context.getString(R.string.gadget_brightness_state_full)));
                 views.setImageViewResource(R.id.img_brightness,
                         R.drawable.ic_appwidget_settings_brightness_full_holo);
-            } else if (brightness > half) {
+            } else if (brightness == BRIGHTNESS_HALF) {
                 views.setContentDescription(R.id.btn_brightness,
                         context.getString(R.string.gadget_brightness_template,
                                 context.getString(R.string.gadget_brightness_state_half)));
@@ -765,7 +883,7 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
                         R.drawable.ic_appwidget_settings_brightness_off_holo);
             }
             // Set the ON state
-            if (brightness > half) {
+            if (brightness != BRIGHTNESS_OFF) {
                 views.setImageViewResource(R.id.ind_brightness,
                         R.drawable.appwidget_settings_ind_on_r_holo);
             } else {
@@ -832,7 +950,7 @@ public class SettingsAppWidgetProvider extends AppWidgetProvider {
         }
 
         // State changes fall through
-        updateWidget(context);
+        scheduleUpdate(context, goAsync());
     }
 
     /**
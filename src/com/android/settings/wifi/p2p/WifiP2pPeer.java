@@ -61,6 +61,20 @@ public class WifiP2pPeer extends Preference {
         super.onBindView(view);
     }
 
+    /**
+     * Points this preference at a newer snapshot of the same device, redrawing and
+     * re-sorting only if its name or status changed.
+     */
+    void update(WifiP2pDevice dev) {
+        final boolean changed = dev.status != device.status
+                || !TextUtils.equals(dev.deviceName, device.deviceName);
+        device = dev;
+        if (changed) {
+            // Both name and status take part in the ordering.
+            notifyHierarchyChanged();
+        }
+    }
+
     @Override
     public int compareTo(Preference preference) {
         if (!(preference instanceof WifiP2pPeer)) {
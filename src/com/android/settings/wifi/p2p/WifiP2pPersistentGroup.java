@@ -19,6 +19,7 @@ package com.android.settings.wifi.p2p;
 import android.content.Context;
 import android.net.wifi.p2p.WifiP2pGroup;
 import android.preference.Preference;
+import android.text.TextUtils;
 import android.view.View;
 
 public class WifiP2pPersistentGroup extends Preference {
@@ -36,6 +37,15 @@ public class WifiP2pPersistentGroup extends Preference {
         super.onBindView(view);
     }
 
+    /** Points this preference at a newer snapshot of the same persistent group. */
+    void update(WifiP2pGroup group) {
+        final boolean changed = !TextUtils.equals(group.getNetworkName(), getGroupName());
+        mGroup = group;
+        if (changed) {
+            notifyChanged();
+        }
+    }
+
     int getNetworkId() {
         return mGroup.getNetworkId();
     }
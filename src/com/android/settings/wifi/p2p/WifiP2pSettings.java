@@ -39,6 +39,7 @@ import android.net.wifi.p2p.WifiP2pManager.PersistentGroupInfoListener;
 import android.net.wifi.WpsInfo;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
@@ -48,6 +49,7 @@ import android.preference.PreferenceScreen;
 import android.text.InputFilter;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -60,6 +62,7 @@ import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Collection;
 
@@ -95,6 +98,27 @@ public class WifiP2pSettings extends SettingsPreferenceFragment
     private PreferenceGroup mPeersGroup;
     private PreferenceGroup mPersistentGroup;
     private Preference mThisDevicePref;
+    private boolean mGroupsShown;
+
+    /**
+     * Peer broadcasts come in bursts while discovering; the list is brought up to date at
+     * most this often.
+     */
+    private static final long PEER_UPDATE_INTERVAL_MS = 1000;
+
+    private final Handler mHandler = new Handler();
+    private long mLastPeerUpdate;
+    private boolean mPeerUpdatePending;
+    private final HashMap<String, WifiP2pPeer> mPeerPrefs = new HashMap<String, WifiP2pPeer>();
+    private final SparseArray<WifiP2pPersistentGroup> mGroupPrefs =
+            new SparseArray<WifiP2pPersistentGroup>();
+
+    private final Runnable mUpdatePeersRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updatePeerPreferences();
+        }
+    };
 
     private static final int DIALOG_DISCONNECT  = 1;
     private static final int DIALOG_CANCEL_CONNECT = 2;
@@ -298,6 +322,9 @@ public class WifiP2pSettings extends SettingsPreferenceFragment
 
         final PreferenceScreen preferenceScreen = getPreferenceScreen();
         preferenceScreen.removeAll();
+        mGroupsShown = false;
+        mPeerPrefs.clear();
+        mGroupPrefs.clear();
 
         preferenceScreen.setOrderingAsAdded(true);
         mThisDevicePref = new Preference(getActivity());
@@ -316,6 +343,10 @@ public class WifiP2pSettings extends SettingsPreferenceFragment
     public void onResume() {
         super.onResume();
         getActivity().registerReceiver(mReceiver, mIntentFilter);
+        // Brings in the update that was still waiting when we were paused.
+        if (mPeerUpdatePending) {
+            updatePeerPreferences();
+        }
     }
 
     @Override
@@ -323,6 +354,8 @@ public class WifiP2pSettings extends SettingsPreferenceFragment
         super.onPause();
         mWifiP2pManager.stopPeerDiscovery(mChannel, null);
         getActivity().unregisterReceiver(mReceiver);
+        // mPeerUpdatePending stays set, so onResume applies the update dropped here.
+        mHandler.removeCallbacks(mUpdatePeersRunnable);
     }
 
     @Override
@@ -494,31 +527,76 @@ public class WifiP2pSettings extends SettingsPreferenceFragment
     }
 
     private void handlePeersChanged() {
-        mPeersGroup.removeAll();
-
         mConnectedDevices = 0;
-        if (DBG) Log.d(TAG, "List of available peers");
         for (WifiP2pDevice peer: mPeers.getDeviceList()) {
-            if (DBG) Log.d(TAG, "-> " + peer);
-            mPeersGroup.addPreference(new WifiP2pPeer(getActivity(), peer));
             if (peer.status == WifiP2pDevice.CONNECTED) mConnectedDevices++;
         }
         if (DBG) Log.d(TAG, " mConnectedDevices " + mConnectedDevices);
+
+        // Only the latest list matters, so a burst folds into one pending update.
+        if (mPeerUpdatePending) {
+            return;
+        }
+        final long sinceLast = SystemClock.uptimeMillis() - mLastPeerUpdate;
+        if (sinceLast >= PEER_UPDATE_INTERVAL_MS) {
+            updatePeerPreferences();
+        } else {
+            mPeerUpdatePending = true;
+            mHandler.postDelayed(mUpdatePeersRunnable, PEER_UPDATE_INTERVAL_MS - sinceLast);
+        }
+    }
+
+    /**
+     * Brings mPeersGroup in line with mPeers, keyed by device address. Known peers are
+     * updated in place; only peers that came or went are added or removed.
+     */
+    private void updatePeerPreferences() {
+        mPeerUpdatePending = false;
+        mLastPeerUpdate = SystemClock.uptimeMillis();
+
+        final HashMap<String, WifiP2pPeer> stale = new HashMap<String, WifiP2pPeer>(mPeerPrefs);
+        if (DBG) Log.d(TAG, "List of available peers");
+        for (WifiP2pDevice peer: mPeers.getDeviceList()) {
+            if (DBG) Log.d(TAG, "-> " + peer);
+            WifiP2pPeer pref = stale.remove(peer.deviceAddress);
+            if (pref != null) {
+                pref.update(peer);
+            } else {
+                pref = new WifiP2pPeer(getActivity(), peer);
+                mPeerPrefs.put(peer.deviceAddress, pref);
+                mPeersGroup.addPreference(pref);
+            }
+        }
+        for (WifiP2pPeer pref : stale.values()) {
+            mPeersGroup.removePreference(pref);
+            mPeerPrefs.remove(pref.device.deviceAddress);
+        }
     }
 
     public void onPersistentGroupInfoAvailable(WifiP2pGroupList groups) {
-        mPersistentGroup.removeAll();
+        final SparseArray<WifiP2pPersistentGroup> stale = mGroupPrefs.clone();
 
         for (WifiP2pGroup group: groups.getGroupList()) {
             if (DBG) Log.d(TAG, " group " + group);
-            WifiP2pPersistentGroup wppg = new WifiP2pPersistentGroup(getActivity(), group);
-            mPersistentGroup.addPreference(wppg);
+            WifiP2pPersistentGroup wppg = stale.get(group.getNetworkId());
+            if (wppg != null) {
+                stale.remove(group.getNetworkId());
+                wppg.update(group);
+            } else {
+                wppg = new WifiP2pPersistentGroup(getActivity(), group);
+                mGroupPrefs.put(group.getNetworkId(), wppg);
+                mPersistentGroup.addPreference(wppg);
+            }
             if (wppg.getGroupName().equals(mSelectedGroupName)) {
                 if (DBG) Log.d(TAG, "Selecting group " + wppg.getGroupName());
                 mSelectedGroup = wppg;
                 mSelectedGroupName = null;
             }
         }
+        for (int i = 0; i < stale.size(); i++) {
+            mPersistentGroup.removePreference(stale.valueAt(i));
+            mGroupPrefs.remove(stale.keyAt(i));
+        }
         if (mSelectedGroupName != null) {
             // Looks like there's a dialog pending getting user confirmation to delete the
             // selected group. When user hits OK on that dialog, we won't do anything; but we
@@ -536,7 +614,9 @@ public class WifiP2pSettings extends SettingsPreferenceFragment
 
     private void handleP2pStateChanged() {
         updateSearchMenu(false);
-        if (mWifiP2pEnabled) {
+        if (mWifiP2pEnabled && !mGroupsShown) {
+            // Once shown, the categories stay put; the lists update themselves in place.
+            mGroupsShown = true;
             final PreferenceScreen preferenceScreen = getPreferenceScreen();
             preferenceScreen.removeAll();
 
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link NetworkDiagnostics} HTTP probes against servers on the loopback interface.
+ */
+public class NetworkDiagnosticsTest extends AndroidTestCase {
+    private static final int REPETITIONS = 4;
+
+    private final ArrayList<StandInServer> mServers = new ArrayList<StandInServer>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (StandInServer server : mServers) {
+            server.close();
+        }
+        super.tearDown();
+    }
+
+    public void testConcurrentHttpTargets() throws Exception {
+        final String okUrl = startServer("200 OK");
+        final String notFoundUrl = startServer("404 Not Found");
+
+        final ArrayList<NetworkDiagnostics.Target> targets =
+                new ArrayList<NetworkDiagnostics.Target>();
+        targets.add(new NetworkDiagnostics.Target(NetworkDiagnostics.TYPE_HTTP, okUrl));
+        targets.add(new NetworkDiagnostics.Target(NetworkDiagnostics.TYPE_HTTP, notFoundUrl));
+        final NetworkDiagnostics.Stats[] results = run(targets);
+
+        final NetworkDiagnostics.Stats ok = results[0];
+        assertEquals(REPETITIONS, ok.attempts);
+        assertEquals(REPETITIONS, ok.getSuccesses());
+        assertEquals(0, ok.getLossPercent());
+        assertTrue(ok.getMin() >= 0);
+        assertTrue(ok.getMin() <= ok.getAverage());
+        assertTrue(ok.getAverage() <= ok.getPercentile(95));
+        assertTrue(ok.getPercentile(95) <= ok.getMax());
+        assertTrue(ok.toString().startsWith("Pass"));
+
+        final NetworkDiagnostics.Stats notFound = results[1];
+        assertEquals(REPETITIONS, notFound.attempts);
+        assertEquals(0, notFound.getSuccesses());
+        assertEquals(100, notFound.getLossPercent());
+        assertEquals(-1, notFound.getMax());
+        assertEquals("Code: 404", notFound.lastError);
+    }
+
+    private NetworkDiagnostics.Stats[] run(final ArrayList<NetworkDiagnostics.Target> targets)
+            throws InterruptedException {
+        final NetworkDiagnostics.Stats[] results = new NetworkDiagnostics.Stats[targets.size()];
+        final CountDownLatch finished = new CountDownLatch(1);
+        final NetworkDiagnostics diagnostics = new NetworkDiagnostics(targets, REPETITIONS,
+                5000, new NetworkDiagnostics.Listener() {
+            @Override
+            public void onResult(int targetIndex, NetworkDiagnostics.Stats stats) {
+                results[targetIndex] = stats;
+            }
+
+            @Override
+            public void onFinished() {
+                finished.countDown();
+            }
+        });
+        // The listener is called on the main thread, so start from there too.
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                diagnostics.start();
+            }
+        });
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        return results;
+    }
+
+    private String startServer(String status) throws IOException {
+        StandInServer server = new StandInServer(status);
+        mServers.add(server);
+        server.start();
+        return "http://127.0.0.1:" + server.getPort() + "/";
+    }
+
+    /** Answers every request with an empty response carrying the given status. */
+    private static class StandInServer extends Thread {
+        private final ServerSocket mSocket;
+        private final String mStatus;
+
+        StandInServer(String status) throws IOException {
+            mSocket = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+            mStatus = status;
+        }
+
+        int getPort() {
+            return mSocket.getLocalPort();
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                Socket client = null;
+                try {
+                    client = mSocket.accept();
+                    readHeaders(client.getInputStream());
+                    OutputStream out = client.getOutputStream();
+                    out.write(("HTTP/1.1 " + mStatus + "\r\n"
+                            + "Content-Length: 0\r\n"
+                            + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+                    out.flush();
+                } catch (IOException e) {
+                    // Closed by tearDown, or the client went away.
+                } finally {
+                    if (client != null) {
+                        try {
+                            client.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+            }
+        }
+
+        private static void readHeaders(InputStream in) throws IOException {
+            // Requests have no body; read up to the blank line ending the headers.
+            int matched = 0;
+            int b;
+            while (matched < 4 && (b = in.read()) != -1) {
+                if (b == (matched % 2 == 0 ? '\r' : '\n')) {
+                    matched++;
+                } else {
+                    matched = b == '\r' ? 1 : 0;
+                }
+            }
+        }
+    }
+}